@@ -0,0 +1,181 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+/**
+ * Renders drawing files (see {@link DrawingFile}) to PNG images without a
+ * display, e.g. on a build server. The shapes are drawn with the same code as
+ * the paint program, and several files are rendered at the same time by a
+ * fixed number of worker threads. Usage:
+ * <pre>
+ * java BatchRenderer [-threads N] [-scale S] [-out directory] file ...
+ * </pre>
+ * Each image is as large as the drawing (times the scale), and is written next
+ * to its drawing (or to the output directory) with a ".png" extension.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+public class BatchRenderer {
+    private double scale;
+    private File outputDirectory;
+    
+    /*
+     * Renders and saves one drawing, timing each step.
+     */
+    private class RenderJob implements Callable<String> {
+        private final File drawing;
+        
+        private RenderJob( File drawing ) {
+            this.drawing = drawing;
+        }
+        
+        public String call() throws IOException {
+            long start = System.nanoTime();
+            List<MyShape> shapes = DrawingFile.read( drawing );
+            long loaded = System.nanoTime();
+            BufferedImage image = render( shapes );
+            long rendered = System.nanoTime();
+            
+            File output = getOutputFile( drawing );
+            ImageIO.write( image, "png", output );
+            long encoded = System.nanoTime();
+            
+            return String.format( "%s: %d shapes, %dx%d, load %.1f ms, render %.1f ms, encode %.1f ms -> %s",
+                                 drawing.getName(), shapes.size(), image.getWidth(),
+                                 image.getHeight(), (loaded - start) / 1e6, (rendered - loaded) / 1e6,
+                                 (encoded - rendered) / 1e6, output.getPath() );
+        }
+    } // end inner class
+    
+    /**
+     * Constructor.
+     *
+     * @param scale The size of the images, relative to the drawings.
+     * @param outputDirectory Where to write the images (null for next to the drawing).
+     */
+    public BatchRenderer( double scale, File outputDirectory ) {
+        this.scale = scale;
+        this.outputDirectory = outputDirectory;
+    } // end constructor
+    
+    /**
+     * Draws the shapes on a white image that is just large enough to hold them.
+     *
+     * @param shapes The shapes, in drawing order.
+     * @return The image.
+     */
+    public BufferedImage render( List<MyShape> shapes ) {
+        // the drawing starts at (0, 0), since coordinates cannot be negative
+        Rectangle bounds = new Rectangle( 0, 0, 1, 1 );
+        for ( MyShape shape : shapes )
+            bounds.add( shape.getBounds() );
+        
+        int width = Math.max( 1, (int) Math.ceil( (bounds.x + bounds.width) * scale ) );
+        int height = Math.max( 1, (int) Math.ceil( (bounds.y + bounds.height) * scale ) );
+        BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+        
+        Graphics2D g2d = image.createGraphics();
+        g2d.setColor( Color.WHITE );
+        g2d.fillRect( 0, 0, width, height );
+        g2d.scale( scale, scale );
+        ShapeBatcher.draw( g2d, shapes );
+        g2d.dispose();
+        return image;
+    } // end method
+    
+    /**
+     * Renders every drawing with a pool of worker threads, printing one line
+     * per drawing (in the order given).
+     *
+     * @param drawings The drawing files.
+     * @param threads The number of worker threads.
+     * @return The number of drawings that could not be rendered.
+     */
+    public int renderAll( List<File> drawings, int threads ) {
+        ExecutorService workers = Executors.newFixedThreadPool( threads );
+        ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+        int failures = 0;
+        
+        long start = System.nanoTime();
+        for ( File drawing : drawings )
+            results.add( workers.submit( new RenderJob( drawing ) ) );
+        
+        for ( int i = 0; i < results.size(); i++ ) {
+            try {
+                System.out.println( results.get( i ).get() );
+            } catch ( ExecutionException exception ) {
+                System.err.println( drawings.get( i ).getName() + ": " + exception.getCause() );
+                failures++;
+            } catch ( InterruptedException exception ) {
+                Thread.currentThread().interrupt();
+                break;
+            } // end try block
+        } // end for
+        workers.shutdown();
+        
+        System.out.println( String.format( "%d drawings in %.1f ms (%d threads)", drawings.size(),
+                                          (System.nanoTime() - start) / 1e6, threads ) );
+        return failures;
+    } // end method
+    
+    /**
+     * Returns the image file for a drawing: the same name with a ".png"
+     * extension instead of its own.
+     *
+     * @param drawing The drawing file.
+     * @return The image file.
+     */
+    private File getOutputFile( File drawing ) {
+        String name = drawing.getName();
+        int dot = name.lastIndexOf( '.' );
+        if ( dot > 0 )
+            name = name.substring( 0, dot );
+        
+        File directory = ( outputDirectory != null ) ? outputDirectory :
+            drawing.getAbsoluteFile().getParentFile();
+        return new File( directory, name + ".png" );
+    } // end method
+    
+    public static void main( String[] args ) {
+        // no window will be opened, so a display is not needed
+        System.setProperty( "java.awt.headless", "true" );
+        
+        int threads = Runtime.getRuntime().availableProcessors();
+        double scale = 1;
+        File outputDirectory = null;
+        ArrayList<File> drawings = new ArrayList<File>();
+        
+        for ( int i = 0; i < args.length; i++ ) {
+            if ( args[i].equals( "-threads" ) && i + 1 < args.length )
+                threads = Math.max( 1, Integer.parseInt( args[++i] ) );
+            else if ( args[i].equals( "-scale" ) && i + 1 < args.length )
+                scale = Double.parseDouble( args[++i] );
+            else if ( args[i].equals( "-out" ) && i + 1 < args.length )
+                outputDirectory = new File( args[++i] );
+            else
+                drawings.add( new File( args[i] ) );
+        } // end for
+        
+        if ( drawings.isEmpty() || scale <= 0 ) {
+            System.err.println( "Usage: java BatchRenderer [-threads N] [-scale S] [-out directory] file ..." );
+            System.exit( 2 );
+        }
+        if ( outputDirectory != null )
+            outputDirectory.mkdirs();
+        
+        BatchRenderer renderer = new BatchRenderer( scale, outputDirectory );
+        System.exit( renderer.renderAll( drawings, threads ) == 0 ? 0 : 1 );
+    } // end main
+} // end class
\ No newline at end of file
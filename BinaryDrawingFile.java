@@ -0,0 +1,310 @@
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads or writes a drawing, with its layers, in a compact binary file. Much
+ * smaller and faster than a text {@link DrawingFile}: the file is
+ * memory-mapped when it is read, and the shapes are decoded straight from it.
+ * The numbers of the header, styles and layers are big-endian:
+ * <pre>
+ * header  "UPNT" version(short) 0(short) layerCount(int) shapeCount(int) styleCount(int)
+ * style   colour1(int, ARGB) colour2(int, ARGB) strokeWidth(float) flags(byte)
+ *         dashCount(byte) dashLength(float)...
+ * layer   nameLength(short) name(UTF-8) visible(byte) opacity(float) shapeCount(int)
+ *         shape...
+ * </pre>
+ * The flags of a style are 1 for gradient, 2 for dashed and 4 for filled.
+ * The shapes of a layer are written in drawing order, in the form of
+ * {@link ShapeCodec}, with the number of their style in the file's table of
+ * styles. The history of edits is not saved.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class BinaryDrawingFile {
+    public static final String EXTENSION = "paint";
+    private static final int MAGIC = 0x55504E54; // "UPNT"
+    private static final short VERSION = 1;
+    private static final int GRADIENT = 1;
+    private static final int DASHED = 2;
+    private static final int FILLED = 4;
+    
+    /*
+     * Constructor: only static methods.
+     */
+    private BinaryDrawingFile() {
+    } // end constructor
+    
+    /**
+     * Writes the shapes of every layer (as they are now) to a file, and forces
+     * the file to disk. The drawing is written to a new file next to it first,
+     * which then takes the place of the file, so that a save that fails (or a
+     * crash) leaves an existing drawing as it was.
+     *
+     * @param file The file to write.
+     * @param layers The layers, bottom-most first.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void write( File file, List<Layer> layers ) throws IOException {
+        // the layers may change after this, but their snapshots do not
+        ShapeStore[] snapshots = new ShapeStore[layers.size()];
+        int shapeCount = 0;
+        for ( int i = 0; i < snapshots.length; i++ ) {
+            snapshots[i] = layers.get( i ).getSnapshot();
+            shapeCount += snapshots[i].getSize();
+        }
+        
+        // number the styles used, by their id in the registry
+        int[] styleNumbers = new int[16];
+        Arrays.fill( styleNumbers, -1 );
+        ArrayList<ShapeStyle> styles = new ArrayList<ShapeStyle>();
+        for ( ShapeStore snapshot : snapshots ) {
+            for ( int handle = 0; handle < snapshot.getEnd(); handle++ ) {
+                if ( !snapshot.contains( handle ) )
+                    continue;
+                int id = snapshot.getStyle( handle ).getId();
+                if ( id >= styleNumbers.length ) {
+                    int oldLength = styleNumbers.length;
+                    styleNumbers = Arrays.copyOf( styleNumbers, Math.max( 2 * oldLength, id + 1 ) );
+                    Arrays.fill( styleNumbers, oldLength, styleNumbers.length, -1 );
+                }
+                if ( styleNumbers[id] < 0 ) {
+                    styleNumbers[id] = styles.size();
+                    styles.add( StyleRegistry.getStyle( id ) );
+                }
+            } // end for
+        } // end for
+        
+        File directory = file.getAbsoluteFile().getParentFile();
+        File written = File.createTempFile( "." + file.getName() + ".", ".tmp", directory );
+        boolean isWritten = false;
+        FileOutputStream stream = new FileOutputStream( written );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( stream, 1 << 16 ) );
+        try {
+            out.writeInt( MAGIC );
+            out.writeShort( VERSION );
+            out.writeShort( 0 );
+            out.writeInt( layers.size() );
+            out.writeInt( shapeCount );
+            out.writeInt( styles.size() );
+            for ( ShapeStyle style : styles )
+                writeStyle( out, style );
+            
+            for ( int i = 0; i < snapshots.length; i++ ) {
+                Layer layer = layers.get( i );
+                byte[] name = layer.getName().getBytes( StandardCharsets.UTF_8 );
+                out.writeShort( name.length );
+                out.write( name );
+                out.writeBoolean( layer.isVisible() );
+                out.writeFloat( layer.getOpacity() );
+                out.writeInt( snapshots[i].getSize() );
+                for ( int handle : snapshots[i].getDrawingOrder() ) {
+                    MyShape shape = snapshots[i].getShape( handle );
+                    ShapeCodec.write( out, shape, styleNumbers[shape.getStyle().getId()] );
+                }
+            } // end for
+            
+            // on disk before it replaces the file (or a journal refers to it)
+            out.flush();
+            stream.getFD().sync();
+            out.close();
+            replace( written, file );
+            isWritten = true;
+        } finally {
+            out.close();
+            if ( !isWritten )
+                written.delete();
+        } // end try block
+    } // end method
+    
+    /**
+     * Puts a file in the place of another, in one step if the file system
+     * can, so that the other file is never left half written.
+     *
+     * @param source The new file.
+     * @param target The file it replaces (if it exists).
+     * @throws IOException If the file cannot be moved.
+     */
+    private static void replace( File source, File target ) throws IOException {
+        try {
+            Files.move( source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING );
+        } catch ( AtomicMoveNotSupportedException exception ) {
+            Files.move( source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING );
+        } // end try block
+    } // end method
+    
+    /**
+     * Reads every layer of a drawing file.
+     *
+     * @param file The file to read.
+     * @return The layers, bottom-most first, with empty histories.
+     * @throws IOException If the file cannot be read, or is not a valid drawing.
+     */
+    public static List<Layer> read( File file ) throws IOException {
+        Reader reader = new Reader( file );
+        ArrayList<Layer> layers = new ArrayList<Layer>( reader.getLayerCount() );
+        for ( Layer layer = reader.readLayer(); layer != null; layer = reader.readLayer() ) {
+            while ( reader.getShapesLeft() > 0 )
+                layer.loadShape( reader.readShape() );
+            layers.add( layer );
+        } // end for
+        return layers;
+    } // end method
+    
+    /*
+     * Reads a drawing file a layer and a shape at a time, e.g. to show the
+     * drawing while the rest of it is read (see DrawingLoader). The layers
+     * are returned empty, and their shapes follow them.
+     */
+    static class Reader {
+        private final String fileName;
+        private final ByteBuffer in;
+        private final int layerCount;
+        private final int shapeCount;
+        private final ShapeStyle[] styles;
+        private int layersRead;
+        private int shapesLeft; // in the last layer read
+        
+        public Reader( File file ) throws IOException {
+            fileName = file.getName();
+            FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+            try {
+                if ( channel.size() > Integer.MAX_VALUE )
+                    throw new IOException( fileName + ": file is too large" );
+                // the mapping stays valid once the channel is closed
+                in = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            } finally {
+                channel.close();
+            } // end try block
+            
+            try {
+                if ( in.remaining() < 4 || in.getInt() != MAGIC )
+                    throw new IOException( fileName + ": not a drawing file" );
+                short version = in.getShort();
+                if ( version > VERSION )
+                    throw new IOException( fileName + ": made by a newer version (" + version + ")" );
+                in.getShort();
+                layerCount = in.getInt();
+                shapeCount = in.getInt();
+                if ( layerCount < 1 )
+                    throw new IOException( fileName + ": no layers" );
+                
+                styles = new ShapeStyle[in.getInt()];
+                for ( int i = 0; i < styles.length; i++ )
+                    styles[i] = readStyle( in );
+            } catch ( BufferUnderflowException exception ) {
+                throw new IOException( fileName + ": file is cut short", exception );
+            } // end try block
+        }
+        
+        public int getLayerCount() {
+            return layerCount;
+        }
+        
+        // the number of shapes of every layer, as written in the header
+        public int getShapeCount() {
+            return shapeCount;
+        }
+        
+        public int getShapesLeft() {
+            return shapesLeft;
+        }
+        
+        // returns the next layer, without its shapes, or null after the last
+        // one; any shapes left in the layer before are skipped
+        public Layer readLayer() throws IOException {
+            while ( shapesLeft > 0 )
+                readShape();
+            if ( layersRead == layerCount )
+                return null;
+            
+            try {
+                byte[] name = new byte[in.getShort() & 0xFFFF];
+                in.get( name );
+                Layer layer = new Layer( new String( name, StandardCharsets.UTF_8 ) );
+                layer.setVisible( in.get() != 0 );
+                layer.setOpacity( in.getFloat() );
+                shapesLeft = in.getInt();
+                layersRead++;
+                return layer;
+            } catch ( BufferUnderflowException exception ) {
+                throw new IOException( fileName + ": file is cut short", exception );
+            } // end try block
+        }
+        
+        // reads the next shape of the last layer read
+        public MyShape readShape() throws IOException {
+            if ( shapesLeft == 0 )
+                throw new IllegalStateException( "no shapes left in the layer" );
+            shapesLeft--;
+            try {
+                return ShapeCodec.read( in, styles );
+            } catch ( IOException exception ) {
+                throw new IOException( fileName + ": " + exception.getMessage(), exception );
+            } // end try block
+        }
+    } // end inner class
+    
+    /**
+     * Writes the values of a style.
+     *
+     * @param out The output.
+     * @param style The style.
+     * @throws IOException If the output cannot be written.
+     */
+    static void writeStyle( DataOutput out, ShapeStyle style ) throws IOException {
+        out.writeInt( style.getColour1().getRGB() );
+        out.writeInt( style.getColour2().getRGB() );
+        out.writeFloat( style.getStrokeWidth() );
+        int flags = 0;
+        if ( style.isGradient() )
+            flags |= GRADIENT;
+        if ( style.isDashed() )
+            flags |= DASHED;
+        if ( style.isFilled() )
+            flags |= FILLED;
+        out.writeByte( flags );
+        
+        float[] dashLength = style.getDashLength();
+        int dashCount = Math.min( dashLength.length, 255 );
+        out.writeByte( dashCount );
+        for ( int i = 0; i < dashCount; i++ )
+            out.writeFloat( dashLength[i] );
+    } // end method
+    
+    /**
+     * Reads the values of a style, and returns the shared style with them.
+     *
+     * @param in The buffer.
+     * @return The style.
+     */
+    static ShapeStyle readStyle( ByteBuffer in ) {
+        Color colour1 = new Color( in.getInt(), true );
+        Color colour2 = new Color( in.getInt(), true );
+        float strokeWidth = in.getFloat();
+        int flags = in.get();
+        float[] dashLength = new float[in.get() & 0xFF];
+        for ( int i = 0; i < dashLength.length; i++ )
+            dashLength[i] = in.getFloat();
+        return StyleRegistry.getStyle( colour1, colour2, strokeWidth, dashLength,
+                                      (flags & GRADIENT) != 0, (flags & DASHED) != 0,
+                                      (flags & FILLED) != 0 );
+    } // end method
+} // end class
\ No newline at end of file
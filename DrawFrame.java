@@ -1,11 +1,22 @@
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.beans.PropertyVetoException;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import javax.swing.DefaultDesktopManager;
 import javax.swing.JDesktopPane;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JInternalFrame;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import javax.swing.event.InternalFrameAdapter;
 import javax.swing.event.InternalFrameEvent;
 
@@ -24,6 +35,7 @@ public class DrawFrame extends JFrame {
     private DrawPanel drawPanel;
     private Toolbar toolbar;
     private MenuBar menu;
+    private JFileChooser fileChooser; // remembers the last folder used
     
     /**
      * Class Constructor. Creates all necessary widgets, and implements all
@@ -41,21 +53,32 @@ public class DrawFrame extends JFrame {
         drawPanel = new DrawPanel( statusLabel );
         toolbar = new Toolbar( drawPanel );
         menu = new MenuBar( this );
+        fileChooser = new JFileChooser();
+        fileChooser.setFileFilter( new FileNameExtensionFilter(
+            "Drawings (*." + BinaryDrawingFile.EXTENSION + ")", BinaryDrawingFile.EXTENSION ) );
         
         // add
         add( toolbar, BorderLayout.NORTH );
         add( desktop, BorderLayout.CENTER );
         add( statusLabel, BorderLayout.SOUTH );
         setJMenuBar( menu );
-        newWindow();
+        if ( recoverWindows() == 0 )
+            newWindow();
     } // end constructor
     
     /*
      * Constructs a new window ("paint canvas").
      */
     public void newWindow() {
+        startJournal( newWindow( String.format( "Window #%d", counter ) ) );
+    } // end method
+    
+    /*
+     * Constructs a new window with a title, and returns it.
+     */
+    private DrawWindow newWindow( String title ) {
         DrawPanel drawPanel = new DrawPanel( statusLabel );
-        DrawWindow window = new DrawWindow( String.format( "Window #%d", counter ), drawPanel );
+        DrawWindow window = new DrawWindow( title, drawPanel );
         window.setLocation( (counter % 15) * 20, (counter % 15) * 20 );
         desktop.add( window );
         counter++;
@@ -73,7 +96,93 @@ public class DrawFrame extends JFrame {
         toolbar.setFocusPanel( drawPanel );
         
         window.addInternalFrameListener( new InternalFrameHandler() );
+        return window;
+    } // end method
+    
+    /*
+     * Asks for a drawing file, and opens it in a new window. The drawing is
+     * shown as it is read, with a progress dialog that can cancel the rest.
+     */
+    public void openDrawing() {
+        if ( fileChooser.showOpenDialog( this ) != JFileChooser.APPROVE_OPTION )
+            return;
+        
+        final File file = fileChooser.getSelectedFile();
+        final DrawWindow window = newWindow( file.getName() );
+        startJournal( window );
+        final DrawingLoader loader = new DrawingLoader( window.getDrawPanel(), file );
+        final ProgressMonitor monitor = new ProgressMonitor( this, "Opening " + file.getName(),
+                                                            null, 0, 100 );
+        loader.addPropertyChangeListener( new PropertyChangeListener() {
+            public void propertyChange( PropertyChangeEvent event ) {
+                if ( monitor.isCanceled() )
+                    loader.cancel( false );
+                if ( "progress".equals( event.getPropertyName() ) ) {
+                    monitor.setProgress( loader.getProgress() );
+                }
+                else if ( event.getNewValue() == SwingWorker.StateValue.DONE ) {
+                    monitor.close();
+                    finishOpening( window, file, loader );
+                } // end if
+            }
+        } );
+        // closing the window stops the load
+        window.addInternalFrameListener( new InternalFrameAdapter() {
+            public void internalFrameClosed( InternalFrameEvent event ) {
+                loader.cancel( false );
+            }
+        } );
+        loader.execute();
+    } // end method
+    
+    /*
+     * Reports how the opening of a drawing ended.
+     */
+    private void finishOpening( DrawWindow window, File file, DrawingLoader loader ) {
+        try {
+            loader.get();
+        } catch ( CancellationException exception ) {
+            window.setTitle( file.getName() + " (partly opened)" );
+        } catch ( InterruptedException exception ) {
+            // the load is done, so get() does not wait
+        } catch ( ExecutionException exception ) {
+            if ( loader.isDrawingReplaced() )
+                window.setTitle( file.getName() + " (partly opened)" );
+            else
+                window.dispose();
+            JOptionPane.showMessageDialog( this, "Cannot open the drawing:\n" +
+                                          exception.getCause().getMessage(), "Open",
+                                          JOptionPane.ERROR_MESSAGE );
+        } // end try block
+        
+        // the layers have changed
+        if ( window.isSelected() )
+            toolbar.setFocusPanel( window.getDrawPanel() );
+    } // end method
+    
+    /*
+     * Asks for a file, and saves the drawing of the selected window to it.
+     */
+    public void saveDrawing() {
+        JInternalFrame window = desktop.getSelectedFrame();
+        if ( !(window instanceof DrawWindow) ) {
+            JOptionPane.showMessageDialog( this, "Select the window to save first.", "Save",
+                                          JOptionPane.INFORMATION_MESSAGE );
+            return;
+        }
+        if ( fileChooser.showSaveDialog( this ) != JFileChooser.APPROVE_OPTION )
+            return;
         
+        File file = fileChooser.getSelectedFile();
+        if ( !file.getName().toLowerCase().endsWith( "." + BinaryDrawingFile.EXTENSION ) )
+            file = new File( file.getPath() + "." + BinaryDrawingFile.EXTENSION );
+        try {
+            ((DrawWindow) window).getDrawPanel().saveDrawing( file );
+            window.setTitle( file.getName() );
+        } catch ( IOException exception ) {
+            JOptionPane.showMessageDialog( this, "Cannot save the drawing:\n" + exception.getMessage(),
+                                          "Save", JOptionPane.ERROR_MESSAGE );
+        } // end try block
     } // end method
     
     /*
@@ -90,11 +199,57 @@ public class DrawFrame extends JFrame {
     } // end method
     
     /*
-     * Gives focus of a window to the toolbar.
+     * Records the edits of a window in a new journal (unless journaling is
+     * off), so that they can be recovered.
+     */
+    private void startJournal( DrawWindow window ) {
+        if ( DrawingJournal.DIRECTORY != null )
+            window.getDrawPanel().setJournal( new DrawingJournal( DrawingJournal.DIRECTORY ) );
+    } // end method
+    
+    /*
+     * Opens a window for each journal left over (by a crash, or by exiting
+     * without closing the windows), with its drawing rebuilt. Returns the
+     * number of windows opened.
+     */
+    private int recoverWindows() {
+        int recovered = 0;
+        for ( File file : DrawingJournal.findJournals() ) {
+            DrawWindow window = newWindow( String.format( "Window #%d (recovered)", counter ) );
+            try {
+                DrawingJournal journal = DrawingJournal.recover( file, window.getDrawPanel() );
+                if ( journal == null ) {
+                    // empty, or used by another instance of the program
+                    window.dispose();
+                    continue;
+                }
+                window.getDrawPanel().setJournal( journal );
+                toolbar.setFocusPanel( window.getDrawPanel() );
+                recovered++;
+            } catch ( IOException exception ) {
+                window.dispose();
+                System.err.println( "Cannot recover a drawing: " + exception.getMessage() );
+                // set it aside, so that it is not tried again
+                file.renameTo( new File( file.getPath() + ".bad" ) );
+            } // end try block
+        } // end for
+        return recovered;
+    } // end method
+    
+    /*
+     * Gives focus of a window to the toolbar, and deletes the journal and the
+     * undo files of a window closed (its drawing is no longer wanted).
      */
     private class InternalFrameHandler extends InternalFrameAdapter {
         public void internalFrameActivated( InternalFrameEvent event ) {
             toolbar.setFocusPanel( ((DrawWindow) event.getInternalFrame()).getDrawPanel() );
         }
+        
+        public void internalFrameClosed( InternalFrameEvent event ) {
+            DrawPanel panel = ((DrawWindow) event.getInternalFrame()).getDrawPanel();
+            if ( panel.getJournal() != null )
+                panel.getJournal().discard();
+            panel.dispose();
+        }
     } // end inner class
-} // end class
+} // end class
\ No newline at end of file
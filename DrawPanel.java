@@ -1,10 +1,25 @@
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.AbstractAction;
+import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.KeyStroke;
 
 /**
  * Contains the class to handle all the drawing events that the user creates.
@@ -16,8 +31,33 @@ import javax.swing.JPanel;
  * @version May 2, 2012
  */
 public class DrawPanel extends JPanel {
-    private LinkedList shapeObjects;
-    private DynamicStack recycleBin; // allows for "redo" operations
+    // The layers of the drawing, bottom-most first. Each one caches its
+    // completed shapes as tiles at each zoom level, so that a repaint only has
+    // to composite tiles and draw the shape in progress.
+    private ArrayList<Layer> layers;
+    private int currentLayer; // the layer that new shapes are added to
+    private int clearCount; // groups the edits of each clear of the drawing
+    // The edits of the drawing, in the order they are undone (and redone):
+    // each entry is {index of the layer, number of edits}, or {-group, 1} for
+    // a clear of the whole drawing, the latest entry first.
+    private ArrayDeque<int[]> undoOrder;
+    private ArrayDeque<int[]> redoOrder;
+    private DrawingJournal journal; // records the edits, if not null
+    private boolean tilesPending; // some visible tiles were not finished yet
+    private static final long PAINT_BUDGET = 8000000; // nanoseconds per paint for new tiles
+    
+    // Viewport: the drawing is shown at 2^zoomLevel times its size, and the
+    // pixel (at that size) at the panel's upper-left corner is (originX, originY).
+    private int zoomLevel;
+    private int originX;
+    private int originY;
+    private Point panStart; // last mouse position while panning, else null
+    
+    // Mouse drags and moves are only handled once per frame (the latest of
+    // each), since a fast mouse sends many more of them than can be shown.
+    private RepaintScheduler repaintScheduler;
+    private MouseEvent pendingDrag;
+    private MouseEvent pendingMove;
     
     // Shape properties.
     private MyShape currentShapeObject;
@@ -33,7 +73,7 @@ public class DrawPanel extends JPanel {
     private JLabel statusLabel;
     private ShapeTypes currentShapeType;
     
-    enum ShapeTypes { LINE, OVAL, RECTANGLE, POLYGON }; // determines the shape to be drawn
+    enum ShapeTypes { LINE, OVAL, RECTANGLE, POLYGON, PENCIL }; // determines the shape to be drawn
     
     /**
      * Constructor: only has one parameter; all other fields are set to default values.
@@ -43,8 +83,15 @@ public class DrawPanel extends JPanel {
     public DrawPanel( JLabel label ) {
         super();
         statusLabel = label;
-        shapeObjects = new LinkedList();
-        recycleBin = new DynamicStack();
+        layers = new ArrayList<Layer>();
+        undoOrder = new ArrayDeque<int[]>();
+        redoOrder = new ArrayDeque<int[]>();
+        addLayer( "Layer 1" );
+        repaintScheduler = new RepaintScheduler( this, new ActionListener() {
+            public void actionPerformed( ActionEvent event ) {
+                handlePendingInput();
+            }
+        } );
         
         // defaults to a black coloured line.
         currentShapeType = ShapeTypes.LINE;
@@ -59,6 +106,8 @@ public class DrawPanel extends JPanel {
         setBackground( Color.WHITE );
         addMouseListener( new MouseHandler() );
         addMouseMotionListener( new MouseHandler() );
+        addMouseWheelListener( new MouseHandler() );
+        addShapeKeys();
     } // end class constructor
     
     /**
@@ -81,8 +130,15 @@ public class DrawPanel extends JPanel {
         super();
         
         statusLabel = label;
-        shapeObjects = new LinkedList();
-        recycleBin = new DynamicStack();
+        layers = new ArrayList<Layer>();
+        undoOrder = new ArrayDeque<int[]>();
+        redoOrder = new ArrayDeque<int[]>();
+        addLayer( "Layer 1" );
+        repaintScheduler = new RepaintScheduler( this, new ActionListener() {
+            public void actionPerformed( ActionEvent event ) {
+                handlePendingInput();
+            }
+        } );
         
         // defaults to a black coloured line.
         setShapeType( currentShapeType );
@@ -97,45 +153,94 @@ public class DrawPanel extends JPanel {
         setBackground( Color.WHITE );
         addMouseListener( new MouseHandler() );
         addMouseMotionListener( new MouseHandler() );
+        addMouseWheelListener( new MouseHandler() );
+        addShapeKeys();
     } // end class constructor
     
+    /*
+     * A key action that removes, brings to the front or sends to the back the
+     * top-most shape of the current layer under the mouse (if any).
+     */
+    private class ShapeKeyHandler extends AbstractAction {
+        private static final long serialVersionUID = 1L; // never serialized
+        private final String edit;
+        
+        public ShapeKeyHandler( String edit ) {
+            this.edit = edit;
+        }
+        
+        public void actionPerformed( ActionEvent event ) {
+            Point mouse = getMousePosition();
+            if ( mouse == null || currentShapeObject != null || !isEnabled() )
+                return;
+            int handle = layers.get( currentLayer ).findShape( toDrawingX( mouse.x ),
+                                                               toDrawingY( mouse.y ) );
+            if ( handle < 0 )
+                return;
+            
+            if ( edit.equals( "removeShape" ) )
+                removeShape( currentLayer, handle );
+            else
+                moveShape( currentLayer, handle, edit.equals( "bringToFront" ) );
+        }
+    } // end inner class
+    
     /*
      * A mouse handler inner class that handles mouse clicks, releases, drags, and movements.
+     * The right (or middle) mouse button pans the view, and the wheel zooms it.
      */
     private class MouseHandler extends MouseAdapter {
         
         public void mousePressed( MouseEvent event ) {
+            handlePendingInput();
+            if ( event.getButton() == MouseEvent.BUTTON2 || event.getButton() == MouseEvent.BUTTON3 ) {
+                panStart = event.getPoint();
+                return;
+            }
+            
+            // the shape is drawn in drawing coordinates, whatever the zoom
+            int x = toDrawingX( event.getX() );
+            int y = toDrawingY( event.getY() );
             
-            // only the left mouse button controls the drawing
-            if ( event.getButton() == MouseEvent.BUTTON1 && currentShapeObject == null ) {
+            // only the left mouse button controls the drawing, and not while
+            // the panel is disabled (e.g. as a drawing is being opened)
+            if ( event.getButton() == MouseEvent.BUTTON1 && currentShapeObject == null &&
+                isEnabled() ) {
                 // create a line
                 if ( currentShapeType == ShapeTypes.LINE ) {
-                    currentShapeObject = new MyLine( event.getX(), event.getY(),
-                                                    event.getX(), event.getY(), currentShapeColor1, currentShapeColor2,
+                    currentShapeObject = new MyLine( x, y,
+                                                    x, y, currentShapeColor1, currentShapeColor2,
                                                     strokeWidth, dashLength, isGradient, isDashed );
                 }
                 // create an oval
                 else if ( currentShapeType == ShapeTypes.OVAL ) {
-                    currentShapeObject = new MyOval( event.getX(), event.getY(),
-                                                    event.getX(), event.getY(), currentShapeColor1, currentShapeColor2,
+                    currentShapeObject = new MyOval( x, y,
+                                                    x, y, currentShapeColor1, currentShapeColor2,
                                                     strokeWidth, dashLength, isGradient, isDashed,currentShapeFilled );
                 }
                 // create a rectangle
                 else if ( currentShapeType == ShapeTypes.RECTANGLE ) {
-                    currentShapeObject = new MyRectangle( event.getX(),
-                                                         event.getY(), event.getX(), event.getY(),
+                    currentShapeObject = new MyRectangle( x,
+                                                         y, x, y,
                                                          currentShapeColor1, currentShapeColor2, strokeWidth, dashLength,
                                                          isGradient, isDashed, currentShapeFilled );
                 }
                 // create a polygon
                 else if ( currentShapeType == ShapeTypes.POLYGON ) {
-                    currentShapeObject = new MyPolygon( event.getX(), event.getY(),
+                    currentShapeObject = new MyPolygon( x, y,
                                                        currentShapeColor1, currentShapeColor2, strokeWidth, dashLength,
                                                        isGradient, isDashed, currentShapeFilled, false );
+                }
+                // start a freehand stroke
+                else if ( currentShapeType == ShapeTypes.PENCIL ) {
+                    currentShapeObject = new MyPencil( x, y, currentShapeColor1, currentShapeColor2,
+                                                      strokeWidth, dashLength, isGradient, isDashed );
                 } // end if
             }
             
-            repaint();
+            // only the area of the new shape needs to be painted
+            if ( currentShapeObject != null )
+                repaintScheduler.repaint( toView( currentShapeObject.getBounds() ) );
         } // end mousePressed
         
         /*
@@ -143,6 +248,12 @@ public class DrawPanel extends JPanel {
          * it to the "shapesObjects" array.
          */
         public void mouseReleased( MouseEvent event ) {
+            handlePendingInput();
+            if ( event.getButton() == MouseEvent.BUTTON2 || event.getButton() == MouseEvent.BUTTON3 ) {
+                panStart = null;
+                return;
+            }
+            
             // only accepts the left mouse button release (or an exception may
             // occur if there are other releases)
             if (event.getButton() != MouseEvent.BUTTON1 ||
@@ -151,19 +262,23 @@ public class DrawPanel extends JPanel {
             }
             
             // call this instead of setting coding what could be reused
-            mouseDragged(event);
+            dragTo( event );
+            
+            int x = toDrawingX( event.getX() );
+            int y = toDrawingY( event.getY() );
             
             if ( currentShapeType == ShapeTypes.POLYGON ) {
-                boolean status = ((MyPolygon) currentShapeObject).addTempPoint( event.getX(), event.getY() );
+                boolean status = ((MyPolygon) currentShapeObject).addTempPoint( x, y );
                 
                 // if there are at least two points drawn, then the shape could possibly be completed
                 if ( ((MyPolygon) currentShapeObject).getNumberPoints() > 2 ) {
                     // gets the first point and checks in reference to other points
                     int firstPoint[] = ((MyPolygon) currentShapeObject).getFirstPoint();
                     
-                    // if the shape is completed (!status)
-                    if ( !status || ((Math.abs(event.getX() - firstPoint[0]) < (5 + strokeWidth)) &&
-                                     (Math.abs(event.getY() - firstPoint[1]) < (5 + strokeWidth)))) {
+                    // if the shape is completed (!status); the distance is 5 pixels at any zoom
+                    double tolerance = 5 / TilePyramid.getScale( zoomLevel ) + strokeWidth;
+                    if ( !status || ((Math.abs(x - firstPoint[0]) < tolerance) &&
+                                     (Math.abs(y - firstPoint[1]) < tolerance))) {
                         int coords[] = ((MyPolygon) currentShapeObject).getFirstPoint();
                         ((MyPolygon) currentShapeObject).addPoint( coords[0], coords[1] );
                         setShapeCompleted();
@@ -173,76 +288,617 @@ public class DrawPanel extends JPanel {
                 
                 if ( status ) {
                     // else draw anyways
-                    ((MyPolygon) currentShapeObject).addPoint( event.getX(), event.getY() );
+                    ((MyPolygon) currentShapeObject).addPoint( x, y );
                 } // end nested if
                 
+                repaintScheduler.repaint( toView( currentShapeObject.getBounds() ) );
             }
             else {
+                // the release is not a drag event, so its point is added here
+                if ( currentShapeType == ShapeTypes.PENCIL )
+                    ((MyPencil) currentShapeObject).addPoint( x, y );
                 setShapeCompleted();
             } // end if
-            
-            repaint();
         } // end mouseReleased
         
         /*
-         * Updates the status bar to show the new coordinates.
+         * Keeps the new coordinates for the status bar until the next frame.
          */
         public void mouseMoved( MouseEvent event ) {
-            statusLabel.setText( String.format( "(%d, %d)", event.getX(), event.getY() ) );
+            RenderStats.inputEventReceived( pendingMove != null );
+            pendingMove = event;
+            repaintScheduler.schedule();
         } // end mouseMoved
         
         /*
-         * Sets the new end coordinates for the current shape (if any), then
-         * refreshes the JPanel to display the shape.
+         * Keeps the new position of the current shape (or the view) until the
+         * next frame.
          */
         public void mouseDragged( MouseEvent event ) {
-            if ( currentShapeObject != null ) {
-                if ( currentShapeType == ShapeTypes.POLYGON ) {
-                    // if polygon, temporarily set one point
-                    ((MyPolygon) currentShapeObject).addTempPoint( event.getX(), event.getY() );
-                }
-                else {
-                    currentShapeObject.setX2Coordinate( event.getX() );
-                    currentShapeObject.setY2Coordinate( event.getY() );
-                    mouseMoved(event); // calls the mouseMoved() for code reuse
-                }
-                repaint();
+            // every point of a freehand stroke is kept, so it is added right
+            // away (only painting it waits for the next frame)
+            if ( currentShapeType == ShapeTypes.PENCIL && currentShapeObject != null &&
+                panStart == null ) {
+                MyPencil pencil = (MyPencil) currentShapeObject;
+                pencil.addPoint( toDrawingX( event.getX() ), toDrawingY( event.getY() ) );
+                repaintScheduler.repaint( toView( pencil.getLastSegmentBounds() ) );
             }
+            
+            RenderStats.inputEventReceived( pendingDrag != null );
+            pendingDrag = event;
+            repaintScheduler.schedule();
         } // end mouseDragged
+        
+        /*
+         * Zooms in (wheel rotated away from the user) or out, keeping the point
+         * under the mouse in place.
+         */
+        public void mouseWheelMoved( MouseWheelEvent event ) {
+            handlePendingInput();
+            int steps = ( event.getWheelRotation() < 0 ) ? 1 : -1;
+            setZoomLevel( zoomLevel + steps, event.getX(), event.getY() );
+        } // end mouseWheelMoved
     } // end inner-class MouseHandler
     
     /**
-     * Removes the last shape drawn and displays the new result.
+     * Updates the status bar to show the coordinates of the mouse.
+     *
+     * @param event The last mouse event.
      */
-    public void clearLastShape() {
-        // if there is at least one shape drawn, then undo
-        if ( !shapeObjects.isEmpty() ) {
-            recycleBin.push( shapeObjects.removeEnd() );
-            repaint();
+    private void showPosition( MouseEvent event ) {
+        statusLabel.setText( String.format( "(%d, %d)", toDrawingX( event.getX() ),
+                                           toDrawingY( event.getY() ) ) );
+    } // end method
+    
+    /**
+     * Sets the new end coordinates for the current shape (if any), then
+     * refreshes the part of the JPanel covered by the shape before and after
+     * the change. While panning, scrolls the view instead.
+     *
+     * @param event The last mouse event.
+     */
+    private void dragTo( MouseEvent event ) {
+        if ( panStart != null ) {
+            panView( panStart.x - event.getX(), panStart.y - event.getY() );
+            panStart = event.getPoint();
+        }
+        else if ( currentShapeObject != null ) {
+            Rectangle dirtyRegion = currentShapeObject.getBounds();
+            int x = toDrawingX( event.getX() );
+            int y = toDrawingY( event.getY() );
+            
+            if ( currentShapeType == ShapeTypes.POLYGON ) {
+                // if polygon, temporarily set one point
+                ((MyPolygon) currentShapeObject).addTempPoint( x, y );
+            }
+            else if ( currentShapeType == ShapeTypes.PENCIL ) {
+                // the point was already added (and its segment repainted) by
+                // mouseDragged, since every point of a stroke is kept
+                showPosition( event );
+                return;
+            }
+            else {
+                currentShapeObject.setX2Coordinate( x );
+                currentShapeObject.setY2Coordinate( y );
+                showPosition( event );
+            }
+            
+            dirtyRegion.add( currentShapeObject.getBounds() );
+            repaintScheduler.repaint( toView( dirtyRegion ) );
+        }
+    } // end method
+    
+    /**
+     * Handles the mouse drag and move (if any) that arrived since the last
+     * frame. Called before each frame, and before any other mouse event so that
+     * the events are still handled in order.
+     */
+    private void handlePendingInput() {
+        if ( pendingDrag != null ) {
+            MouseEvent event = pendingDrag;
+            pendingDrag = null;
+            dragTo( event );
+        }
+        if ( pendingMove != null ) {
+            MouseEvent event = pendingMove;
+            pendingMove = null;
+            showPosition( event );
         }
     } // end method
     
     /**
-     * Retrieves the last shape erased ("undone") and displays the
-     * new result.
+     * Undoes the last edit of the drawing (the last shape drawn, or a clear),
+     * whatever its layer, and displays the new result. A clear of the whole
+     * drawing is undone on every layer. Does nothing while the panel is
+     * disabled.
+     */
+    public void clearLastShape() {
+        if ( !isEnabled() )
+            return;
+        if ( revert( undoOrder, redoOrder, true ) && journal != null )
+            journal.undone();
+    } // end method
+    
+    /**
+     * Redoes the last edit undone and displays the new result. A clear of the
+     * whole drawing is redone on every layer. Does nothing while the panel is
+     * disabled.
      */
     public void unclearLastShape() {
-        // if there is at least one shape undone, then redo
-        if ( !recycleBin.isEmpty() ) {
-            shapeObjects.addEnd( recycleBin.pop() );
-            repaint();
+        if ( !isEnabled() )
+            return;
+        if ( revert( redoOrder, undoOrder, false ) && journal != null )
+            journal.redone();
+    } // end method
+    
+    /**
+     * Undoes or redoes the latest edit of an order, on its layer (or on every
+     * layer, for a clear of the drawing), and moves it to the other order.
+     * Edits that a layer has forgotten (see {@link UndoHistory}) are skipped.
+     *
+     * @param from The order to take the edit from.
+     * @param to The order that receives it.
+     * @param undo Whether to undo (or redo) the edit.
+     * @return Whether anything changed.
+     */
+    private boolean revert( ArrayDeque<int[]> from, ArrayDeque<int[]> to, boolean undo ) {
+        while ( !from.isEmpty() ) {
+            int target = from.peek()[0];
+            if ( --from.peek()[1] == 0 )
+                from.pop();
+            
+            Rectangle changed = null;
+            if ( target >= 0 ) {
+                Layer layer = layers.get( target );
+                changed = undo ? layer.undo() : layer.redo();
+                if ( changed != null )
+                    repaintScheduler.repaint( toView( changed ) );
+            }
+            else {
+                for ( Layer layer : layers ) {
+                    int group = undo ? layer.getUndoGroup() : layer.getRedoGroup();
+                    Rectangle cleared = null;
+                    if ( group == -target )
+                        cleared = undo ? layer.undo() : layer.redo();
+                    if ( cleared != null )
+                        changed = cleared;
+                } // end for
+                repaintScheduler.repaint( getViewBounds() );
+            } // end if
+            
+            if ( changed != null ) {
+                pushEdit( to, target );
+                return true;
+            }
+        } // end while
+        return false;
+    } // end method
+    
+    /**
+     * Records the order of an edit that was just made: the edits that were
+     * undone, on any layer, can no longer be redone.
+     *
+     * @param target The index of the layer, or -group for a clear of the
+     * drawing.
+     */
+    private void edited( int target ) {
+        if ( !redoOrder.isEmpty() ) {
+            for ( Layer layer : layers )
+                layer.forgetRedo();
+            redoOrder.clear();
         }
+        pushEdit( undoOrder, target );
     } // end method
     
     /**
-     * Removes all shapes and displays the new result.
+     * Adds an edit to the top of an order, in the same entry as the top edit
+     * if both are of the same layer.
+     *
+     * @param order The order.
+     * @param target The index of the layer, or -group.
+     */
+    private static void pushEdit( ArrayDeque<int[]> order, int target ) {
+        if ( target >= 0 && !order.isEmpty() && order.peek()[0] == target )
+            order.peek()[1]++;
+        else
+            order.push( new int[] { target, 1 } );
+    } // end method
+    
+    /**
+     * Removes all shapes (of every layer) and displays the new result. The
+     * clear can be undone. Does nothing while the panel is disabled.
      */
     public void clearDrawing() {
+        if ( !isEnabled() )
+            return;
         setShapeCompleted();
-        shapeObjects.makeEmpty();
-        repaint();
+        if ( journal != null )
+            journal.cleared();
+        clearCount++;
+        boolean cleared = false;
+        for ( Layer layer : layers ) {
+            if ( layer.clear( clearCount ) )
+                cleared = true;
+        }
+        if ( cleared )
+            edited( -clearCount );
+        repaintScheduler.repaint( getViewBounds() );
     } // end method
     
+    /**
+     * Replaces the drawing (every layer, and the history of edits) with one
+     * read from a file (see {@link BinaryDrawingFile}), and displays it. The
+     * drawing is left as it was if the file cannot be read.
+     *
+     * @param file The file to open.
+     * @throws IOException If the file cannot be read, or is not a valid drawing.
+     */
+    public void openDrawing( File file ) throws IOException {
+        openDrawing( file, null );
+    } // end method
+    
+    /**
+     * Replaces the drawing with one read from a file, as {@link #openDrawing},
+     * with its shapes under given handles (for {@link DrawingJournal}).
+     *
+     * @param file The file to open.
+     * @param handles The handles of the shapes of each layer, bottom-most
+     * first, or null for a layer (or the drawing) whose shapes keep the
+     * handles they are read with.
+     * @throws IOException If the file cannot be read, or does not have the
+     * shapes of the handles.
+     */
+    void openDrawing( File file, int[][] handles ) throws IOException {
+        List<Layer> loaded = BinaryDrawingFile.read( file );
+        if ( handles != null ) {
+            if ( handles.length != loaded.size() )
+                throw new IOException( file.getName() + ": the drawing has changed" );
+            for ( int i = 0; i < handles.length; i++ ) {
+                if ( handles[i] == null )
+                    continue;
+                if ( handles[i].length != loaded.get( i ).getSize() )
+                    throw new IOException( file.getName() + ": the drawing has changed" );
+                loaded.get( i ).setHandles( handles[i] );
+            } // end for
+        } // end if
+        setShapeCompleted();
+        dispose();
+        layers = new ArrayList<Layer>( loaded );
+        undoOrder.clear();
+        redoOrder.clear();
+        currentLayer = layers.size() - 1;
+        repaintScheduler.repaint( getViewBounds() );
+        if ( journal != null )
+            checkpointOpened( file );
+    } // end method
+    
+    /**
+     * Empties every layer of the drawing and deletes the temporary files of
+     * their histories, e.g. when the window of the panel is closed or the
+     * drawing is replaced. The layers must not be used afterwards.
+     */
+    public void dispose() {
+        for ( Layer layer : layers )
+            layer.makeEmpty();
+        undoOrder.clear();
+        redoOrder.clear();
+    } // end method
+    
+    /**
+     * Adds a layer read by a {@link DrawingLoader} on top of the others, or in
+     * place of them (and their history) for the first layer of a drawing, and
+     * makes it the current layer.
+     *
+     * @param layer The layer, whose shapes are added afterwards.
+     * @param replace Whether or not the layer replaces the drawing.
+     */
+    void addLoadedLayer( Layer layer, boolean replace ) {
+        setShapeCompleted();
+        if ( replace ) {
+            dispose();
+            layers = new ArrayList<Layer>();
+            undoOrder.clear();
+            redoOrder.clear();
+        }
+        layers.add( layer );
+        currentLayer = layers.size() - 1;
+        repaintScheduler.repaint( getViewBounds() );
+    } // end method
+    
+    /**
+     * Records a drawing opened by a {@link DrawingLoader} in the journal (if
+     * any): as a reference to its file if the whole drawing was read, or else
+     * as the layers and shapes read so far. The layers and shapes added by
+     * the loader are not journaled as they come, since most loads finish.
+     *
+     * @param file The file opened.
+     * @param isWhole Whether or not every shape of the file was read.
+     */
+    void finishLoading( File file, boolean isWhole ) {
+        if ( journal == null )
+            return;
+        if ( isWhole )
+            checkpointOpened( file );
+        else
+            journalLayers();
+    } // end method
+    
+    /**
+     * Starts the journal over from a drawing just opened (see
+     * {@link DrawingJournal#checkpoint}), or journals its layers and shapes
+     * if the file cannot be read again.
+     *
+     * @param file The file opened.
+     */
+    private void checkpointOpened( File file ) {
+        try {
+            journal.checkpoint( file, layers );
+        } catch ( IOException exception ) {
+            journalLayers();
+        } // end try block
+    } // end method
+    
+    /**
+     * Journals every layer, with its shapes, as if it had been opened in
+     * place of the drawing.
+     */
+    private void journalLayers() {
+        for ( int i = 0; i < layers.size(); i++ ) {
+            ShapeStore snapshot = layers.get( i ).getSnapshot();
+            int[] order = snapshot.getDrawingOrder();
+            MyShape[] shapes = new MyShape[order.length];
+            for ( int j = 0; j < order.length; j++ )
+                shapes[j] = snapshot.getShape( order[j] );
+            journal.layerLoaded( layers.get( i ), i == 0 );
+            journal.shapesLoaded( i, shapes );
+        } // end for
+    } // end method
+    
+    /**
+     * Adds shapes read by a {@link DrawingLoader} on top of a layer, without
+     * recording them in the history, and displays them.
+     *
+     * @param layer The layer (added by {@link #addLoadedLayer}).
+     * @param shapes The (completed) shapes, bottom-most first.
+     */
+    void addLoadedShapes( Layer layer, MyShape[] shapes ) {
+        if ( shapes.length == 0 )
+            return;
+        Rectangle changed = shapes[0].getBounds();
+        for ( MyShape shape : shapes ) {
+            layer.loadShape( shape );
+            changed.add( shape.getBounds() );
+        }
+        if ( layer.isVisible() )
+            repaintScheduler.repaint( toView( changed ) );
+    } // end method
+    
+    /**
+     * Adds a completed shape on top of a layer, as if it had just been drawn
+     * there (e.g. as a {@link DrawingJournal} is replayed), and displays it.
+     *
+     * @param index The index of the layer.
+     * @param shape The (completed) shape.
+     */
+    void addShape( int index, MyShape shape ) {
+        layers.get( index ).addShape( shape );
+        edited( index );
+        if ( journal != null )
+            journal.shapeAdded( index, shape );
+        repaintScheduler.repaint( toView( shape.getBounds() ) );
+    } // end method
+    
+    /**
+     * Removes a shape from a layer, so that the removal can be undone, and
+     * displays the new result.
+     *
+     * @param index The index of the layer.
+     * @param handle The handle of the shape (see {@link Layer#findShape}).
+     */
+    void removeShape( int index, int handle ) {
+        Layer layer = layers.get( index );
+        Rectangle bounds = layer.getShapeBounds( handle );
+        if ( !layer.removeShape( handle ) )
+            return;
+        edited( index );
+        if ( journal != null )
+            journal.shapeRemoved( index, handle );
+        repaintScheduler.repaint( toView( bounds ) );
+    } // end method
+    
+    /**
+     * Moves a shape above or below every other shape of its layer, so that the
+     * move can be undone, and displays the new result.
+     *
+     * @param index The index of the layer.
+     * @param handle The handle of the shape (see {@link Layer#findShape}).
+     * @param toFront Whether the shape is brought to the front (or sent to
+     * the back).
+     */
+    void moveShape( int index, int handle, boolean toFront ) {
+        Layer layer = layers.get( index );
+        boolean moved = toFront ? layer.bringToFront( handle ) : layer.sendToBack( handle );
+        if ( !moved )
+            return;
+        edited( index );
+        if ( journal != null )
+            journal.shapeMoved( index, handle, toFront );
+        repaintScheduler.repaint( toView( layer.getShapeBounds( handle ) ) );
+    } // end method
+    
+    /**
+     * Binds the keys that edit the shape under the mouse: Delete (or Back
+     * Space) removes it, Page Up brings it to the front and Page Down sends
+     * it to the back. The keys work while the mouse is over the panel.
+     */
+    private void addShapeKeys() {
+        String[] edits = { "removeShape", "removeShape", "bringToFront", "sendToBack" };
+        int[] keys = { KeyEvent.VK_DELETE, KeyEvent.VK_BACK_SPACE, KeyEvent.VK_PAGE_UP,
+            KeyEvent.VK_PAGE_DOWN };
+        for ( int i = 0; i < keys.length; i++ ) {
+            getInputMap( JComponent.WHEN_IN_FOCUSED_WINDOW ).put(
+                KeyStroke.getKeyStroke( keys[i], 0 ), edits[i] );
+            getActionMap().put( edits[i], new ShapeKeyHandler( edits[i] ) );
+        } // end for
+    } // end method
+    
+    /**
+     * Returns a layer.
+     *
+     * @param index The index of the layer (0 is the bottom-most).
+     * @return The layer.
+     */
+    Layer getLayer( int index ) {
+        return layers.get( index );
+    } // end accessor
+    
+    /**
+     * Returns the journal that records the edits of the drawing.
+     *
+     * @return The journal, or null if there is none.
+     */
+    DrawingJournal getJournal() {
+        return journal;
+    } // end accessor
+    
+    /**
+     * Sets the journal that records the edits of the drawing from now on.
+     *
+     * @param journal The journal, or null for none.
+     */
+    void setJournal( DrawingJournal journal ) {
+        this.journal = journal;
+    } // end mutator
+    
+    /**
+     * Writes the completed shapes of every layer to a file (see
+     * {@link BinaryDrawingFile}). If there is a journal, it is started over
+     * from the file, and the history of edits is forgotten (as it is when a
+     * drawing is opened), since a drawing recovered from the journal could
+     * not undo them.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void saveDrawing( File file ) throws IOException {
+        BinaryDrawingFile.write( file, layers );
+        if ( journal == null )
+            return;
+        try {
+            journal.checkpoint( file, layers );
+        } catch ( IOException exception ) {
+            // the journal still holds every edit, and the history is kept
+            return;
+        } // end try block
+        undoOrder.clear();
+        redoOrder.clear();
+        for ( Layer layer : layers )
+            layer.forgetHistory();
+    } // end method
+    
+    /**
+     * Adds an empty layer on top of the others, and makes it the current
+     * layer. Does nothing while the panel is disabled.
+     *
+     * @param name The name of the layer.
+     * @return The index of the new layer (0 is the bottom-most), or of the
+     * current layer if none was added.
+     */
+    public int addLayer( String name ) {
+        if ( !isEnabled() )
+            return currentLayer;
+        if ( layers.size() > 0 )
+            setShapeCompleted();
+        layers.add( new Layer( name ) );
+        currentLayer = layers.size() - 1;
+        if ( journal != null )
+            journal.layerAdded( name );
+        return currentLayer;
+    } // end method
+    
+    /**
+     * Returns the number of layers.
+     *
+     * @return The number of layers.
+     */
+    public int getLayerCount() {
+        return layers.size();
+    } // end accessor
+    
+    /**
+     * Returns the name of a layer.
+     *
+     * @param index The index of the layer (0 is the bottom-most).
+     * @return The name.
+     */
+    public String getLayerName( int index ) {
+        return layers.get( index ).getName();
+    } // end accessor
+    
+    /**
+     * Returns the layer that new shapes are added to.
+     *
+     * @return The index of the layer.
+     */
+    public int getCurrentLayer() {
+        return currentLayer;
+    } // end accessor
+    
+    /**
+     * Returns whether a layer is shown.
+     *
+     * @param index The index of the layer.
+     * @return Is visible.
+     */
+    public boolean isLayerVisible( int index ) {
+        return layers.get( index ).isVisible();
+    } // end accessor
+    
+    /**
+     * Returns how opaque a layer is shown.
+     *
+     * @param index The index of the layer.
+     * @return The opacity, from 0 to 1.
+     */
+    public float getLayerOpacity( int index ) {
+        return layers.get( index ).getOpacity();
+    } // end accessor
+    
+    /**
+     * Mutator to set the layer that new shapes are added to (the shape being
+     * drawn, if any, is completed on the old layer first).
+     */
+    public void setCurrentLayer( int index ) {
+        if ( index >= 0 && index < layers.size() && index != currentLayer ) {
+            setShapeCompleted();
+            currentLayer = index;
+        }
+    } // end mutator
+    
+    /**
+     * Mutator to show or hide a layer.
+     */
+    public void setLayerVisible( int index, boolean visible ) {
+        if ( layers.get( index ).isVisible() != visible ) {
+            layers.get( index ).setVisible( visible );
+            if ( journal != null )
+                journal.layerChanged( index, visible, layers.get( index ).getOpacity() );
+            repaintScheduler.repaint( getViewBounds() );
+        }
+    } // end mutator
+    
+    /**
+     * Mutator to set the opacity of a layer (from 0 to 1). Only the layers are
+     * composited again; no shape has to be rasterized.
+     */
+    public void setLayerOpacity( int index, float opacity ) {
+        layers.get( index ).setOpacity( opacity );
+        if ( journal != null )
+            journal.layerChanged( index, layers.get( index ).isVisible(),
+                                 layers.get( index ).getOpacity() );
+        repaintScheduler.repaint( getViewBounds() );
+    } // end mutator
+    
     /**
      * Returns the primary gradient colour.
      *
@@ -377,39 +1033,203 @@ public class DrawPanel extends JPanel {
     
     /**
      * Sets the current shape (if any) to completed, which disallows any more
-     * operations on it.
+     * operations on it. Since the shape is drawn straight into the cached
+     * tiles, only its own area is repainted.
      */
     public void setShapeCompleted() {
+        handlePendingInput();
         if ( currentShapeObject != null) {
+            // covers the temporary line of a polygon, which disappears when completed
+            Rectangle dirtyRegion = currentShapeObject.getBounds();
             currentShapeObject.setCompleted( true );
-            shapeObjects.addEnd( currentShapeObject );
+            dirtyRegion.add( currentShapeObject.getBounds() );
+            
+            layers.get( currentLayer ).addShape( currentShapeObject );
+            edited( currentLayer );
+            if ( journal != null )
+                journal.shapeAdded( currentLayer, currentShapeObject );
             currentShapeObject = null;
-            recycleBin.makeEmpty();
-            repaint();
+            repaintScheduler.repaint( toView( dirtyRegion ) );
         } // end if
     } // end method
     
     /**
-     * Selects each myShape Object from the array and calls its .draw() method.
-     * Also draws a shape that the user is currently drawing (if any).
+     * Returns the zoom level: the drawing is shown at 2^level times its size.
+     *
+     * @return The zoom level.
+     */
+    public int getZoomLevel() {
+        return zoomLevel;
+    } // end accessor
+    
+    /**
+     * Zooms the view to another power of two, keeping the drawing under a point
+     * of the panel in place.
+     *
+     * @param level The new zoom level (limited to the levels of {@link TilePyramid}).
+     * @param x The x coordinate (in the panel) to zoom around.
+     * @param y The y coordinate (in the panel) to zoom around.
+     */
+    public void setZoomLevel( int level, int x, int y ) {
+        level = Math.max( TilePyramid.MIN_LEVEL, Math.min( TilePyramid.MAX_LEVEL, level ) );
+        if ( level == zoomLevel )
+            return;
+        
+        double factor = TilePyramid.getScale( level ) / TilePyramid.getScale( zoomLevel );
+        zoomLevel = level;
+        originX = Math.max( 0, (int) Math.round( (originX + x) * factor ) - x );
+        originY = Math.max( 0, (int) Math.round( (originY + y) * factor ) - y );
+        
+        statusLabel.setText( String.format( "Zoom: %d%%", Math.round( 100 * TilePyramid.getScale( level ) ) ) );
+        repaintScheduler.repaint( getViewBounds() );
+    } // end mutator
+    
+    /**
+     * Scrolls the view by a number of pixels. The view cannot be scrolled past
+     * the upper-left corner of the drawing, since coordinates are never negative.
+     *
+     * @param dx The distance to scroll right.
+     * @param dy The distance to scroll down.
+     */
+    public void panView( int dx, int dy ) {
+        int newOriginX = Math.max( 0, originX + dx );
+        int newOriginY = Math.max( 0, originY + dy );
+        
+        if ( newOriginX != originX || newOriginY != originY ) {
+            originX = newOriginX;
+            originY = newOriginY;
+            repaintScheduler.repaint( getViewBounds() );
+        }
+    } // end mutator
+    
+    /**
+     * Returns the frame rate that repaints are limited to.
+     *
+     * @return The greatest number of frames per second.
+     */
+    public int getFrameRate() {
+        return repaintScheduler.getFrameRate();
+    } // end accessor
+    
+    /**
+     * Limits repaints (and the handling of mouse drags) to a frame rate, e.g.
+     * that of the display.
+     *
+     * @param frameRate The greatest number of frames per second.
+     */
+    public void setFrameRate( int frameRate ) {
+        repaintScheduler.setFrameRate( frameRate );
+    } // end mutator
+    
+    /**
+     * Returns the whole panel, in its own coordinates.
+     */
+    private Rectangle getViewBounds() {
+        return new Rectangle( 0, 0, getWidth(), getHeight() );
+    } // end method
+    
+    /**
+     * Converts an x coordinate of the panel to the drawing.
+     */
+    private int toDrawingX( int x ) {
+        return (int) Math.floor( (originX + x) / TilePyramid.getScale( zoomLevel ) );
+    } // end method
+    
+    /**
+     * Converts a y coordinate of the panel to the drawing.
+     */
+    private int toDrawingY( int y ) {
+        return (int) Math.floor( (originY + y) / TilePyramid.getScale( zoomLevel ) );
+    } // end method
+    
+    /**
+     * Converts a region of the drawing to the (slightly larger) region of the
+     * panel that shows it.
+     *
+     * @param bounds The region of the drawing.
+     * @return The region of the panel.
+     */
+    private Rectangle toView( Rectangle bounds ) {
+        double scale = TilePyramid.getScale( zoomLevel );
+        int x = (int) Math.floor( bounds.x * scale );
+        int y = (int) Math.floor( bounds.y * scale );
+        int width = (int) Math.ceil( (bounds.x + bounds.width) * scale ) - x;
+        int height = (int) Math.ceil( (bounds.y + bounds.height) * scale ) - y;
+        return new Rectangle( x - originX - 1, y - originY - 1, width + 2, height + 2 );
+    } // end method
+    
+    /**
+     * Copies the tiles of completed shapes under the clip, then draws the shape
+     * that the user is currently drawing (if any) on top. Tiles that are not
+     * cached yet are only rasterized for a few milliseconds per paint, and the
+     * clip is painted again until they are done (showing the progress in the
+     * status bar), so that the program stays responsive.
      */
     public void paintComponent( Graphics g ) {
+        RenderStats.framePainted();
+        long renderObjects = 0;
+        long allocatedBytes = 0;
+        long shapes = 0;
+        long batches = 0;
+        if ( RenderStats.ENABLED ) {
+            renderObjects = RenderStats.getRenderObjects();
+            allocatedBytes = RenderStats.getAllocatedBytes();
+            shapes = RenderStats.getShapes();
+            batches = RenderStats.getBatches();
+        }
+        
         super.paintComponent(g);
         Graphics2D g2d = ( Graphics2D ) g;
         
-        ListNode temp = shapeObjects.peek();
-        // Repeatedly gets the next reference from the first node ("temp") until
-        // no more shapes are found.
-        if ( !shapeObjects.isEmpty() ) {
-            while (temp != null) {
-                ((MyShape) temp.getValue()).draw(g2d);
-                temp = temp.getNext();
+        Rectangle clip = g.getClipBounds();
+        if ( clip == null )
+            clip = new Rectangle( 0, 0, getWidth(), getHeight() );
+        
+        // the layers share the time budget for rasterizing new tiles
+        long deadline = System.nanoTime() + PAINT_BUDGET;
+        Layer pendingLayer = null;
+        for ( int i = 0; i < layers.size(); i++ ) {
+            Layer layer = layers.get( i );
+            long budget = Math.max( 0, deadline - System.nanoTime() );
+            if ( !layer.paint( g2d, zoomLevel, originX, originY, clip, budget ) && pendingLayer == null )
+                pendingLayer = layer;
+            
+            // the shape being drawn belongs between its layer and the ones above
+            if ( i == currentLayer && currentShapeObject != null && layer.isVisible() ) {
+                Graphics2D shapeGraphics = (Graphics2D) g2d.create();
+                shapeGraphics.setComposite( AlphaComposite.getInstance( AlphaComposite.SRC_OVER,
+                                                                       layer.getOpacity() ) );
+                shapeGraphics.translate( -originX, -originY );
+                shapeGraphics.scale( TilePyramid.getScale( zoomLevel ), TilePyramid.getScale( zoomLevel ) );
+                currentShapeObject.draw( shapeGraphics );
+                shapeGraphics.dispose();
+            } // end if
+        } // end for
+        
+        if ( pendingLayer == null ) {
+            if ( tilesPending ) {
+                tilesPending = false;
+                statusLabel.setText( "Drawing: done" );
             }
         }
-        
-        if (currentShapeObject != null) {
-            currentShapeObject.draw(g2d);
+        else {
+            tilesPending = true;
+            statusLabel.setText( String.format( "Drawing %s: %d%%", pendingLayer.getName(),
+                                               pendingLayer.getProgress() ) );
+            repaintScheduler.repaint( clip );
         } // end if
         
+        // strokes and paints should only be created for new shapes
+        if ( RenderStats.ENABLED ) {
+            RenderStats.report( "paint: %d strokes/paints created, %d bytes allocated on the EDT, " +
+                               "%d shapes redrawn in %d batches",
+                               RenderStats.getRenderObjects() - renderObjects,
+                               RenderStats.getAllocatedBytes() - allocatedBytes,
+                               RenderStats.getShapes() - shapes,
+                               RenderStats.getBatches() - batches );
+            RenderStats.report( "input: %d mouse events received, %d coalesced, %d frames painted",
+                               RenderStats.getInputEvents(), RenderStats.getCoalescedEvents(),
+                               RenderStats.getFrames() );
+        }
     } // end method
 } // end class
\ No newline at end of file
@@ -0,0 +1,276 @@
+import java.awt.Color;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Formatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads or writes a drawing as a text file, with one shape per line. The
+ * colours are written as in settings.ini (RRR,GGG,BBB):
+ * <pre>
+ * Line x1 y1 x2 y2 colour1 colour2 strokeWidth dashLength gradient dashed
+ * Oval x1 y1 x2 y2 colour1 colour2 strokeWidth dashLength gradient dashed filled
+ * Rectangle x1 y1 x2 y2 colour1 colour2 strokeWidth dashLength gradient dashed filled
+ * Polygon colour1 colour2 strokeWidth dashLength gradient dashed filled count x,y x,y ...
+ * Pencil colour1 colour2 strokeWidth dashLength gradient dashed count x,y x,y ...
+ * </pre>
+ * Blank lines and lines starting with '#' are ignored.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+public class DrawingFile {
+    
+    /*
+     * Splits one line into tokens separated by spaces or tabs. This is much
+     * cheaper than a Scanner per line, which compiles its patterns every time.
+     */
+    private static class LineTokens {
+        private final String line;
+        private int position;
+        
+        private LineTokens( String line ) {
+            this.line = line;
+        }
+        
+        private String next() {
+            while ( position < line.length() && Character.isWhitespace( line.charAt( position ) ) )
+                position++;
+            if ( position == line.length() )
+                throw new NoSuchElementException( "missing token" );
+            int start = position;
+            while ( position < line.length() && !Character.isWhitespace( line.charAt( position ) ) )
+                position++;
+            return line.substring( start, position );
+        }
+        
+        private int nextInt() {
+            return Integer.parseInt( next() );
+        }
+        
+        private float nextFloat() {
+            return Float.parseFloat( next() );
+        }
+        
+        private boolean nextBoolean() {
+            String token = next();
+            if ( token.equalsIgnoreCase( "true" ) )
+                return true;
+            if ( token.equalsIgnoreCase( "false" ) )
+                return false;
+            throw new IllegalArgumentException( "not a boolean: " + token );
+        }
+    } // end inner class
+    
+    /**
+     * Reads every shape of a drawing file, in drawing order.
+     *
+     * @param file The file to read.
+     * @return The completed shapes.
+     * @throws IOException If the file cannot be read, or a line is not valid.
+     */
+    public static List<MyShape> read( File file ) throws IOException {
+        ArrayList<MyShape> shapes = new ArrayList<MyShape>();
+        BufferedReader fileIn = new BufferedReader( new FileReader( file ) );
+        int lineNumber = 0;
+        
+        try {
+            String line;
+            while ( (line = fileIn.readLine()) != null ) {
+                line = line.trim();
+                lineNumber++;
+                if ( line.length() == 0 || line.startsWith( "#" ) )
+                    continue;
+                
+                try {
+                    shapes.add( parseShape( new LineTokens( line ) ) );
+                } catch ( RuntimeException exception ) {
+                    // e.g. a missing token or a number that cannot be parsed
+                    throw new IOException( String.format( "%s, line %d: %s", file.getName(),
+                                                         lineNumber, line ), exception );
+                } // end try block
+            } // end while
+        } finally {
+            fileIn.close();
+        } // end try block
+        return shapes;
+    } // end method
+    
+    /**
+     * Writes every shape to a drawing file, in drawing order.
+     *
+     * @param file The file to write.
+     * @param shapes The shapes to save.
+     * @throws IOException If the file cannot be created.
+     */
+    public static void write( File file, List<MyShape> shapes ) throws IOException {
+        Formatter fileOut = new Formatter( file );
+        
+        for ( MyShape shape : shapes ) {
+            if ( shape instanceof MyPolygon ) {
+                MyPolygon polygon = (MyPolygon) shape;
+                fileOut.format( Locale.ROOT, "Polygon %s %d", formatStyle( shape ),
+                               polygon.getNumberPoints() );
+                for ( int i = 0; i < polygon.getNumberPoints(); i++ ) {
+                    fileOut.format( " %d,%d", polygon.getXCoordinate( i ),
+                                   polygon.getYCoordinate( i ) );
+                }
+                fileOut.format( "\n" );
+            }
+            else if ( shape instanceof MyPencil ) {
+                MyPencil pencil = (MyPencil) shape;
+                int[] xCoords = new int[pencil.getNumberPoints()];
+                int[] yCoords = new int[pencil.getNumberPoints()];
+                pencil.getPoints( xCoords, yCoords );
+                fileOut.format( Locale.ROOT, "Pencil %s %d", formatStyle( shape ),
+                               pencil.getNumberPoints() );
+                for ( int i = 0; i < xCoords.length; i++ )
+                    fileOut.format( " %d,%d", xCoords[i], yCoords[i] );
+                fileOut.format( "\n" );
+            }
+            else {
+                String type = ( shape instanceof MyOval ) ? "Oval" :
+                    ( (shape instanceof MyRectangle) ? "Rectangle" : "Line" );
+                fileOut.format( Locale.ROOT, "%s %d %d %d %d %s\n", type,
+                               shape.getX1Coordinate(), shape.getY1Coordinate(),
+                               shape.getX2Coordinate(), shape.getY2Coordinate(),
+                               formatStyle( shape ) );
+            } // end if
+        } // end for
+        
+        fileOut.close();
+        if ( fileOut.ioException() != null )
+            throw fileOut.ioException();
+    } // end method
+    
+    /**
+     * Reads one shape from the tokens of a line.
+     *
+     * @param tokens The tokens of the line.
+     * @return The completed shape.
+     */
+    private static MyShape parseShape( LineTokens tokens ) {
+        String type = tokens.next().toLowerCase();
+        
+        if ( type.equals( "polygon" ) ) {
+            Color colour1 = parseColour( tokens.next() );
+            Color colour2 = parseColour( tokens.next() );
+            float strokeWidth = tokens.nextFloat();
+            float[] dashLength = new float[] { tokens.nextFloat() };
+            boolean isGradient = tokens.nextBoolean();
+            boolean isDashed = tokens.nextBoolean();
+            boolean filled = tokens.nextBoolean();
+            int count = tokens.nextInt();
+            
+            MyPolygon polygon = null;
+            for ( int i = 0; i < count; i++ ) {
+                String[] point = tokens.next().split( "," );
+                int x = Integer.parseInt( point[0] );
+                int y = Integer.parseInt( point[1] );
+                if ( polygon == null )
+                    polygon = new MyPolygon( x, y, colour1, colour2, strokeWidth, dashLength,
+                                            isGradient, isDashed, filled, false );
+                else
+                    polygon.addPoint( x, y );
+            } // end for
+            
+            if ( polygon == null )
+                throw new IllegalArgumentException( "polygon without points" );
+            polygon.setCompleted( true );
+            return polygon;
+        }
+        else if ( type.equals( "pencil" ) ) {
+            Color colour1 = parseColour( tokens.next() );
+            Color colour2 = parseColour( tokens.next() );
+            float strokeWidth = tokens.nextFloat();
+            float[] dashLength = new float[] { tokens.nextFloat() };
+            boolean isGradient = tokens.nextBoolean();
+            boolean isDashed = tokens.nextBoolean();
+            int count = tokens.nextInt();
+            
+            MyPencil pencil = null;
+            for ( int i = 0; i < count; i++ ) {
+                String[] point = tokens.next().split( "," );
+                int x = Integer.parseInt( point[0] );
+                int y = Integer.parseInt( point[1] );
+                if ( pencil == null )
+                    pencil = new MyPencil( x, y, colour1, colour2, strokeWidth, dashLength,
+                                          isGradient, isDashed );
+                else
+                    pencil.addPoint( x, y );
+            } // end for
+            
+            if ( pencil == null )
+                throw new IllegalArgumentException( "pencil stroke without points" );
+            pencil.setCompleted( true );
+            return pencil;
+        } // end if
+        
+        int x1 = tokens.nextInt();
+        int y1 = tokens.nextInt();
+        int x2 = tokens.nextInt();
+        int y2 = tokens.nextInt();
+        Color colour1 = parseColour( tokens.next() );
+        Color colour2 = parseColour( tokens.next() );
+        float strokeWidth = tokens.nextFloat();
+        float[] dashLength = new float[] { tokens.nextFloat() };
+        boolean isGradient = tokens.nextBoolean();
+        boolean isDashed = tokens.nextBoolean();
+        
+        if ( type.equals( "line" ) )
+            return new MyLine( x1, y1, x2, y2, colour1, colour2, strokeWidth, dashLength,
+                              isGradient, isDashed );
+        else if ( type.equals( "oval" ) )
+            return new MyOval( x1, y1, x2, y2, colour1, colour2, strokeWidth, dashLength,
+                              isGradient, isDashed, tokens.nextBoolean() );
+        else if ( type.equals( "rectangle" ) )
+            return new MyRectangle( x1, y1, x2, y2, colour1, colour2, strokeWidth, dashLength,
+                                   isGradient, isDashed, tokens.nextBoolean() );
+        
+        throw new IllegalArgumentException( "unknown shape type " + type );
+    } // end method
+    
+    /**
+     * Returns the colours, stroke and flags of a shape as they are written in
+     * a drawing file.
+     *
+     * @param shape The shape.
+     * @return The attributes, separated by spaces.
+     */
+    private static String formatStyle( MyShape shape ) {
+        String style = String.format( Locale.ROOT, "%s %s %f %f %b %b",
+                                     formatColour( shape.getColour1() ),
+                                     formatColour( shape.getColour2() ), shape.getStrokeWidth(),
+                                     shape.getDashLength()[0], shape.isGradient(), shape.isDashed() );
+        if ( shape instanceof MyBoundedShape )
+            style += " " + ((MyBoundedShape) shape).getFilled();
+        return style;
+    } // end method
+    
+    /**
+     * Parses a colour written as RRR,GGG,BBB.
+     *
+     * @param text The colour.
+     * @return The Color object.
+     */
+    private static Color parseColour( String text ) {
+        String[] components = text.split( "," );
+        return new Color( Integer.parseInt( components[0] ), Integer.parseInt( components[1] ),
+                         Integer.parseInt( components[2] ) );
+    } // end method
+    
+    /**
+     * Returns a String representation of a Color object (that can be read by this class).
+     *
+     * @param colour The Color.
+     * @return A String of the Color.
+     */
+    private static String formatColour( Color colour ) {
+        return "" + colour.getRed() + "," + colour.getGreen() + "," + colour.getBlue();
+    } // end method
+} // end class
\ No newline at end of file
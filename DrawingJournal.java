@@ -0,0 +1,933 @@
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the edits of one drawing (of a DrawPanel), from
+ * which the drawing is rebuilt if the program stops without its window being
+ * closed (e.g. a crash, or the Exit item). Every shape completed, removed or
+ * moved, undo, redo, clear and change of the layers is recorded in a few
+ * bytes as it is made (shapes in the form of {@link ShapeCodec}, with their
+ * styles numbered as they are first used), and replayed through the same
+ * methods of the panel, so that the history of edits is rebuilt too.
+ * <p>
+ * Recording only appends to a buffer in memory. A writer thread takes all
+ * the records made since its last write, appends them to the file as one
+ * frame and forces the frame to disk, so that a whole group of records needs
+ * a single (slow) force, and the event dispatch thread never waits for the
+ * disk. Each frame is checked with a CRC-32, so that a frame cut short by a
+ * crash is dropped when the journal is replayed:
+ * <pre>
+ * header  "UPJL" version(short) 0(short)
+ * frame   length(int) crc(int) record...
+ * </pre>
+ * <p>
+ * A drawing opened or saved is not recorded shape by shape: the journal is
+ * started over (see {@link #checkpoint}) with a record of the path of the
+ * file (and of the handles of its shapes, unless they are the ones they get
+ * as the file is read), which is opened again when the journal is replayed.
+ * The journal of a drawing saved thus stays as small as the edits made since.
+ * The record also holds the length, time and CRC-32 of the file, and a
+ * journal whose file has changed since is not replayed onto it.
+ * <p>
+ * The journals are kept in the folder named by the property paint.journal
+ * ("journal" by default; empty to turn journaling off), one for each window,
+ * and are locked while in use. A journal is deleted when its window is
+ * closed, and the journals left over are replayed when the program starts.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class DrawingJournal {
+    public static final String EXTENSION = "journal";
+    // the folder of the journals, or null if journaling is off
+    public static final File DIRECTORY = getDirectory();
+    private static final int MAGIC = 0x55504A4C; // "UPJL"
+    // 2 added REMOVE and MOVE, 3 added FILE, 4 dropped the layer of UNDO and
+    // REDO and added the length, time and CRC of the file of FILE
+    private static final short VERSION = 4;
+    private static final int HEADER_LENGTH = 8;
+    private static final int FRAME_HEADER_LENGTH = 8;
+    
+    // the types of record, and what follows them
+    private static final byte STYLE = 1; // a style (see BinaryDrawingFile), numbered in order
+    private static final byte SHAPE = 2; // layer, shape: a shape drawn
+    private static final byte UNDO = 3; // (a layer before version 4)
+    private static final byte REDO = 4; // (a layer before version 4)
+    private static final byte CLEAR = 5; // (of every layer)
+    private static final byte ADD_LAYER = 6; // name
+    private static final byte SET_LAYER = 7; // layer, visible, opacity
+    private static final byte LOAD_LAYER = 8; // replace, name, visible, opacity: a layer opened
+    private static final byte LOAD_SHAPES = 9; // layer, count, shape...: shapes opened
+    private static final byte REMOVE = 10; // layer, handle
+    private static final byte MOVE = 11; // layer, handle, to the front (or the back)
+    private static final byte FILE = 12; // path, length, time, crc, layers, (count, handle...)...
+    
+    // the journals still open, which are written out when the program exits
+    private static final HashSet<DrawingJournal> openJournals = new HashSet<DrawingJournal>();
+    private static boolean exitHookAdded;
+    
+    private final File directory;
+    private final Thread writer;
+    private volatile File file; // created by the first write
+    private FileChannel channel;
+    private volatile long bytesWritten;
+    private volatile int commitCount;
+    private boolean failed; // a write failed, so nothing more is written
+    
+    // guards the buffers of records and the flags that stop the writer
+    private final Object lock = new Object();
+    private RecordBuffer pending = new RecordBuffer(); // records not written yet
+    private RecordBuffer spare = new RecordBuffer();
+    private DataOutputStream out = new DataOutputStream( pending );
+    private boolean closing;
+    private boolean discarding;
+    private boolean restarting; // the pending records start the file over
+    
+    // the number of each style recorded so far, by its id in the registry
+    // (-1 if it has not been recorded), and the styles by number as they are
+    // replayed
+    private int[] styleNumbers = new int[0];
+    private int styleCount;
+    private ShapeStyle[] styles = new ShapeStyle[0];
+    private short replayVersion = VERSION; // the version of the journal replayed
+    
+    /*
+     * A growable buffer of records, which can be written to a channel without
+     * being copied. Unlike a ByteArrayOutputStream it is not synchronized,
+     * since it is only used with the lock held (or by the writer alone).
+     */
+    private static class RecordBuffer extends OutputStream {
+        private static final int INITIAL_CAPACITY = 4096;
+        private byte[] bytes = new byte[INITIAL_CAPACITY];
+        private int size;
+        
+        public void write( int value ) {
+            if ( size == bytes.length )
+                bytes = Arrays.copyOf( bytes, 2 * size );
+            bytes[size++] = (byte) value;
+        }
+        
+        public void write( byte[] data, int offset, int length ) {
+            if ( size + length > bytes.length )
+                bytes = Arrays.copyOf( bytes, Math.max( 2 * bytes.length, size + length ) );
+            System.arraycopy( data, offset, bytes, size, length );
+            size += length;
+        }
+        
+        private int size() {
+            return size;
+        }
+        
+        // empties the buffer, letting go of the room taken by a burst of records
+        private void reset() {
+            size = 0;
+            if ( bytes.length > 256 * INITIAL_CAPACITY )
+                bytes = new byte[INITIAL_CAPACITY];
+        }
+        
+        private ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap( bytes, 0, size );
+        }
+        
+        private int getCrc() {
+            CRC32 crc = new CRC32();
+            crc.update( bytes, 0, size );
+            return (int) crc.getValue();
+        }
+    } // end inner class
+    
+    /**
+     * Constructor: creates an empty journal. Its file is only created (in the
+     * folder) when the first record is written.
+     *
+     * @param directory The folder of the journal.
+     */
+    public DrawingJournal( File directory ) {
+        this( directory, null, null );
+        start();
+    } // end constructor
+    
+    /**
+     * Constructor: creates a journal that appends to a file (if any); its
+     * writer is not started yet.
+     *
+     * @param directory The folder of the journal.
+     * @param file The file, or null to create one.
+     * @param channel The channel of the file, locked, at the end of the file.
+     */
+    private DrawingJournal( File directory, File file, FileChannel channel ) {
+        this.directory = directory;
+        this.file = file;
+        this.channel = channel;
+        writer = new Thread( new Runnable() {
+            public void run() {
+                writeFrames();
+            }
+        }, "Drawing journal" );
+        writer.setDaemon( true );
+    } // end constructor
+    
+    /**
+     * Returns the file of the journal.
+     *
+     * @return The file, or null if nothing has been written yet.
+     */
+    public File getFile() {
+        return file;
+    } // end accessor
+    
+    /**
+     * Returns the number of bytes written to the file so far.
+     *
+     * @return The number of bytes.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    } // end accessor
+    
+    /**
+     * Returns the number of frames written (and forced to disk) so far.
+     *
+     * @return The number of frames.
+     */
+    public int getCommitCount() {
+        return commitCount;
+    } // end accessor
+    
+    /**
+     * Records a shape completed on a layer.
+     *
+     * @param layer The index of the layer.
+     * @param shape The (completed) shape.
+     */
+    public void shapeAdded( int layer, MyShape shape ) {
+        synchronized ( lock ) {
+            int oldSize = pending.size();
+            try {
+                int style = getStyleNumber( shape.getStyle() );
+                out.writeByte( SHAPE );
+                ShapeCodec.writeVarInt( out, layer );
+                ShapeCodec.write( out, shape, style );
+            } catch ( IOException exception ) {
+                // the records are only written to memory here
+            } // end try block
+            wakeWriter( oldSize );
+        }
+    } // end method
+    
+    /**
+     * Records a shape removed from a layer (see {@link DrawPanel#removeShape}).
+     *
+     * @param layer The index of the layer.
+     * @param handle The handle of the shape.
+     */
+    public void shapeRemoved( int layer, int handle ) {
+        synchronized ( lock ) {
+            int oldSize = pending.size();
+            try {
+                out.writeByte( REMOVE );
+                ShapeCodec.writeVarInt( out, layer );
+                ShapeCodec.writeVarInt( out, handle );
+            } catch ( IOException exception ) {
+                // the records are only written to memory here
+            } // end try block
+            wakeWriter( oldSize );
+        }
+    } // end method
+    
+    /**
+     * Records a shape brought to the front or sent to the back (see
+     * {@link DrawPanel#moveShape}).
+     *
+     * @param layer The index of the layer.
+     * @param handle The handle of the shape.
+     * @param toFront Whether the shape was brought to the front.
+     */
+    public void shapeMoved( int layer, int handle, boolean toFront ) {
+        synchronized ( lock ) {
+            int oldSize = pending.size();
+            try {
+                out.writeByte( MOVE );
+                ShapeCodec.writeVarInt( out, layer );
+                ShapeCodec.writeVarInt( out, handle );
+                out.writeBoolean( toFront );
+            } catch ( IOException exception ) {
+                // the records are only written to memory here
+            } // end try block
+            wakeWriter( oldSize );
+        }
+    } // end method
+    
+    /**
+     * Records an undo of the last edit of the drawing, whatever its layer (see
+     * {@link DrawPanel#clearLastShape}).
+     */
+    public void undone() {
+        recordType( UNDO );
+    } // end method
+    
+    /**
+     * Records a redo of the last edit undone (see
+     * {@link DrawPanel#unclearLastShape}).
+     */
+    public void redone() {
+        recordType( REDO );
+    } // end method
+    
+    /**
+     * Records a clear of the drawing.
+     */
+    public void cleared() {
+        recordType( CLEAR );
+    } // end method
+    
+    /**
+     * Records an empty layer added on top of the others.
+     *
+     * @param name The name of the layer.
+     */
+    public void layerAdded( String name ) {
+        synchronized ( lock ) {
+            int oldSize = pending.size();
+            try {
+                out.writeByte( ADD_LAYER );
+                writeName( name );
+            } catch ( IOException exception ) {
+                // the records are only written to memory here
+            } // end try block
+            wakeWriter( oldSize );
+        }
+    } // end method
+    
+    /**
+     * Records a change to whether a layer is shown, or how opaque it is.
+     *
+     * @param layer The index of the layer.
+     * @param visible Whether or not the layer is shown.
+     * @param opacity The opacity of the layer.
+     */
+    public void layerChanged( int layer, boolean visible, float opacity ) {
+        synchronized ( lock ) {
+            int oldSize = pending.size();
+            try {
+                out.writeByte( SET_LAYER );
+                ShapeCodec.writeVarInt( out, layer );
+                out.writeBoolean( visible );
+                out.writeFloat( opacity );
+            } catch ( IOException exception ) {
+                // the records are only written to memory here
+            } // end try block
+            wakeWriter( oldSize );
+        }
+    } // end method
+    
+    /**
+     * Records a layer of a drawing being opened (see
+     * {@link DrawPanel#addLoadedLayer}).
+     *
+     * @param layer The layer, without its shapes.
+     * @param replace Whether or not the layer replaces the drawing.
+     */
+    public void layerLoaded( Layer layer, boolean replace ) {
+        synchronized ( lock ) {
+            int oldSize = pending.size();
+            try {
+                out.writeByte( LOAD_LAYER );
+                out.writeBoolean( replace );
+                writeName( layer.getName() );
+                out.writeBoolean( layer.isVisible() );
+                out.writeFloat( layer.getOpacity() );
+            } catch ( IOException exception ) {
+                // the records are only written to memory here
+            } // end try block
+            wakeWriter( oldSize );
+        }
+    } // end method
+    
+    /**
+     * Records shapes of a drawing being opened (see
+     * {@link DrawPanel#addLoadedShapes}).
+     *
+     * @param layer The index of the layer.
+     * @param shapes The (completed) shapes, bottom-most first.
+     */
+    public void shapesLoaded( int layer, MyShape[] shapes ) {
+        synchronized ( lock ) {
+            int oldSize = pending.size();
+            try {
+                // the styles are recorded before the shapes that use them
+                int[] styles = new int[shapes.length];
+                for ( int i = 0; i < shapes.length; i++ )
+                    styles[i] = getStyleNumber( shapes[i].getStyle() );
+                
+                out.writeByte( LOAD_SHAPES );
+                ShapeCodec.writeVarInt( out, layer );
+                ShapeCodec.writeVarInt( out, shapes.length );
+                for ( int i = 0; i < shapes.length; i++ )
+                    ShapeCodec.write( out, shapes[i], styles[i] );
+            } catch ( IOException exception ) {
+                // the records are only written to memory here
+            } // end try block
+            wakeWriter( oldSize );
+        }
+    } // end method
+    
+    /**
+     * Starts the journal over from a drawing that is now the same as a file
+     * (once opened, or saved): the records made so far are dropped, and the
+     * file is cut back to a single record of the path of the drawing file,
+     * and of the handles of the shapes (which the records that follow refer
+     * to). The edits made before are not rebuilt when the journal is
+     * replayed, so the panel must forget its history (see
+     * {@link DrawPanel#saveDrawing}). The file is read again, for its CRC.
+     *
+     * @param drawingFile The file of the drawing, which must be on disk.
+     * @param layers The layers of the drawing, as they are in the file.
+     * @throws IOException If the file cannot be read; the journal is left as
+     * it was.
+     */
+    public void checkpoint( File drawingFile, List<Layer> layers ) throws IOException {
+        long length = drawingFile.length();
+        long time = drawingFile.lastModified();
+        int crc = getCrc( drawingFile );
+        
+        // the shapes of a layer read from the file get handles 0, 1, ... in
+        // drawing order; only the handles of other layers are recorded
+        int[][] handles = new int[layers.size()][];
+        for ( int i = 0; i < handles.length; i++ ) {
+            int[] order = layers.get( i ).getSnapshot().getDrawingOrder();
+            for ( int j = 0; j < order.length && handles[i] == null; j++ ) {
+                if ( order[j] != j )
+                    handles[i] = order;
+            }
+        } // end for
+        
+        synchronized ( lock ) {
+            pending.reset();
+            // the styles are numbered again from the start of the file
+            Arrays.fill( styleNumbers, -1 );
+            styleCount = 0;
+            try {
+                out.writeByte( FILE );
+                writeName( drawingFile.getAbsolutePath() );
+                out.writeLong( length );
+                out.writeLong( time );
+                out.writeInt( crc );
+                ShapeCodec.writeVarInt( out, handles.length );
+                for ( int[] layer : handles ) {
+                    ShapeCodec.writeVarInt( out, layer == null ? 0 : layer.length );
+                    if ( layer != null ) {
+                        for ( int handle : layer )
+                            ShapeCodec.writeVarInt( out, handle );
+                    }
+                } // end for
+            } catch ( IOException exception ) {
+                // the records are only written to memory here
+            } // end try block
+            restarting = true;
+            lock.notifyAll();
+        }
+    } // end method
+    
+    /**
+     * Writes the records made so far, and stops the journal. The file is
+     * kept, to be replayed (see {@link #recover}).
+     */
+    public void close() {
+        synchronized ( lock ) {
+            closing = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch ( InterruptedException exception ) {
+            Thread.currentThread().interrupt();
+        } // end try block
+    } // end method
+    
+    /**
+     * Stops the journal and deletes its file (e.g. as its window is closed).
+     * Returns at once; the file is deleted by the writer.
+     */
+    public void discard() {
+        synchronized ( lock ) {
+            closing = true;
+            discarding = true;
+            lock.notifyAll();
+        }
+    } // end method
+    
+    /**
+     * Returns the journals left in the folder of journals.
+     *
+     * @return The files, in order of their names.
+     */
+    public static File[] findJournals() {
+        File[] files = null;
+        if ( DIRECTORY != null ) {
+            files = DIRECTORY.listFiles( new FileFilter() {
+                public boolean accept( File file ) {
+                    return file.isFile() && file.getName().endsWith( "." + EXTENSION );
+                }
+            } );
+        }
+        if ( files == null )
+            return new File[0];
+        Arrays.sort( files );
+        return files;
+    } // end method
+    
+    /**
+     * Rebuilds a drawing from a journal, and returns the journal, which then
+     * records the next edits of the drawing after the others. Frames cut
+     * short (by a crash) at the end of the file are dropped.
+     *
+     * @param file The journal.
+     * @param drawPanel A new panel (with its first, empty layer), which must
+     * not have a journal while the edits are replayed.
+     * @return The journal, or null if it is used by another window (of
+     * another instance of the program) or has no records (and is deleted).
+     * @throws IOException If the file cannot be read, or is not a valid journal.
+     */
+    public static DrawingJournal recover( File file, DrawPanel drawPanel ) throws IOException {
+        FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE );
+        boolean isEmpty = false;
+        boolean isRecovered = false;
+        try {
+            try {
+                if ( channel.tryLock() == null )
+                    return null;
+            } catch ( OverlappingFileLockException exception ) {
+                return null; // in use by this instance
+            } // end try block
+            if ( channel.size() > Integer.MAX_VALUE )
+                throw new IOException( file.getName() + ": journal is too large" );
+            ByteBuffer in = ByteBuffer.allocate( (int) channel.size() );
+            while ( in.hasRemaining() && channel.read( in ) >= 0 ) {
+                // read the whole file
+            }
+            in.flip();
+            
+            // a crash may leave the file without its header
+            isEmpty = in.remaining() <= HEADER_LENGTH;
+            if ( isEmpty )
+                return null;
+            if ( in.getInt() != MAGIC )
+                throw new IOException( file.getName() + ": not a journal" );
+            short version = in.getShort();
+            if ( version > VERSION )
+                throw new IOException( file.getName() + ": made by a newer version (" + version + ")" );
+            in.getShort();
+            
+            DrawingJournal journal = new DrawingJournal( file.getParentFile(), file, channel );
+            journal.replayVersion = version;
+            long end = journal.replay( in, drawPanel );
+            isEmpty = end == HEADER_LENGTH;
+            if ( isEmpty )
+                return null;
+            channel.truncate( end );
+            channel.position( end );
+            journal.start();
+            isRecovered = true;
+            return journal;
+        } finally {
+            if ( !isRecovered ) {
+                channel.close();
+                if ( isEmpty )
+                    file.delete();
+            } // end if
+        } // end try block
+    } // end method
+    
+    /**
+     * Replays the frames of a journal in a panel, up to the first one that is
+     * cut short (or the end).
+     *
+     * @param in The bytes of the journal, positioned after its header.
+     * @param drawPanel The panel.
+     * @return The position of the end of the last whole frame.
+     * @throws IOException If a record is not valid.
+     */
+    private long replay( ByteBuffer in, DrawPanel drawPanel ) throws IOException {
+        CRC32 crc = new CRC32();
+        int end = in.position();
+        while ( in.remaining() >= FRAME_HEADER_LENGTH ) {
+            int length = in.getInt();
+            int expected = in.getInt();
+            if ( length < 0 || length > in.remaining() )
+                break;
+            ByteBuffer frame = in.slice();
+            frame.limit( length );
+            crc.reset();
+            crc.update( frame.duplicate() );
+            if ( (int) crc.getValue() != expected )
+                break;
+            
+            try {
+                while ( frame.hasRemaining() )
+                    replayRecord( frame, drawPanel );
+            } catch ( BufferUnderflowException exception ) {
+                throw new IOException( file.getName() + ": record cut short", exception );
+            } catch ( IndexOutOfBoundsException exception ) {
+                throw new IOException( file.getName() + ": no such layer", exception );
+            } catch ( IOException exception ) {
+                throw new IOException( file.getName() + ": " + exception.getMessage(), exception );
+            } // end try block
+            end += FRAME_HEADER_LENGTH + length;
+            in.position( end );
+        } // end while
+        
+        styles = null; // only needed to replay
+        return end;
+    } // end method
+    
+    /**
+     * Replays one record in a panel.
+     *
+     * @param in The frame, at the start of the record.
+     * @param drawPanel The panel.
+     * @throws IOException If the record is not valid.
+     */
+    private void replayRecord( ByteBuffer in, DrawPanel drawPanel ) throws IOException {
+        byte type = in.get();
+        switch ( type ) {
+            case STYLE:
+                ShapeStyle style = BinaryDrawingFile.readStyle( in );
+                if ( styleCount == styles.length )
+                    styles = Arrays.copyOf( styles, Math.max( 2 * styleCount, 16 ) );
+                styles[styleCount] = style;
+                setStyleNumber( style.getId(), styleCount++ );
+                break;
+            case SHAPE:
+                int layer = ShapeCodec.readVarInt( in );
+                drawPanel.addShape( layer, ShapeCodec.read( in, styles ) );
+                break;
+            case UNDO:
+                if ( replayVersion < 4 )
+                    drawPanel.setCurrentLayer( ShapeCodec.readVarInt( in ) );
+                drawPanel.clearLastShape();
+                break;
+            case REDO:
+                if ( replayVersion < 4 )
+                    drawPanel.setCurrentLayer( ShapeCodec.readVarInt( in ) );
+                drawPanel.unclearLastShape();
+                break;
+            case CLEAR:
+                drawPanel.clearDrawing();
+                break;
+            case ADD_LAYER:
+                drawPanel.addLayer( readName( in ) );
+                break;
+            case SET_LAYER:
+                layer = ShapeCodec.readVarInt( in );
+                drawPanel.setLayerVisible( layer, in.get() != 0 );
+                drawPanel.setLayerOpacity( layer, in.getFloat() );
+                break;
+            case LOAD_LAYER:
+                boolean replace = in.get() != 0;
+                Layer loaded = new Layer( readName( in ) );
+                loaded.setVisible( in.get() != 0 );
+                loaded.setOpacity( in.getFloat() );
+                drawPanel.addLoadedLayer( loaded, replace );
+                break;
+            case LOAD_SHAPES:
+                layer = ShapeCodec.readVarInt( in );
+                MyShape[] shapes = new MyShape[ShapeCodec.readVarInt( in )];
+                for ( int i = 0; i < shapes.length; i++ )
+                    shapes[i] = ShapeCodec.read( in, styles );
+                drawPanel.addLoadedShapes( drawPanel.getLayer( layer ), shapes );
+                break;
+            case REMOVE:
+                layer = ShapeCodec.readVarInt( in );
+                drawPanel.removeShape( layer, ShapeCodec.readVarInt( in ) );
+                break;
+            case MOVE:
+                layer = ShapeCodec.readVarInt( in );
+                int handle = ShapeCodec.readVarInt( in );
+                drawPanel.moveShape( layer, handle, in.get() != 0 );
+                break;
+            case FILE:
+                File drawingFile = new File( readName( in ) );
+                if ( replayVersion >= 4 )
+                    checkFile( drawingFile, in.getLong(), in.getLong(), in.getInt() );
+                int[][] handles = new int[ShapeCodec.readVarInt( in )][];
+                for ( int i = 0; i < handles.length; i++ ) {
+                    int count = ShapeCodec.readVarInt( in );
+                    if ( count > 0 )
+                        handles[i] = new int[count];
+                    for ( int j = 0; j < count; j++ )
+                        handles[i][j] = ShapeCodec.readVarInt( in );
+                } // end for
+                drawPanel.openDrawing( drawingFile, handles );
+                break;
+            default:
+                throw new IOException( "unknown record " + type );
+        } // end switch
+    } // end method
+    
+    /**
+     * Starts the writer, and has the journal written out when the program
+     * exits.
+     */
+    private void start() {
+        synchronized ( openJournals ) {
+            if ( !exitHookAdded ) {
+                Runtime.getRuntime().addShutdownHook( new Thread( new Runnable() {
+                    public void run() {
+                        closeAll();
+                    }
+                }, "Drawing journal exit" ) );
+                exitHookAdded = true;
+            }
+            openJournals.add( this );
+        }
+        writer.start();
+    } // end method
+    
+    /**
+     * Writes out and closes every journal still open.
+     */
+    private static void closeAll() {
+        DrawingJournal[] journals;
+        synchronized ( openJournals ) {
+            journals = openJournals.toArray( new DrawingJournal[0] );
+        }
+        for ( DrawingJournal journal : journals )
+            journal.close();
+    } // end method
+    
+    /**
+     * Runs the writer: writes out each group of records made while the one
+     * before was being written, until the journal is closed.
+     */
+    private void writeFrames() {
+        boolean isLast = false;
+        while ( !isLast ) {
+            RecordBuffer frame;
+            boolean discard;
+            boolean restart;
+            synchronized ( lock ) {
+                while ( pending.size() == 0 && !closing ) {
+                    try {
+                        lock.wait();
+                    } catch ( InterruptedException exception ) {
+                        // only closing the journal stops the writer
+                    } // end try block
+                }
+                frame = pending;
+                pending = spare;
+                out = new DataOutputStream( pending );
+                isLast = closing;
+                discard = discarding;
+                restart = restarting;
+                restarting = false;
+            }
+            
+            if ( frame.size() > 0 && !failed && !discard ) {
+                try {
+                    if ( restart && channel != null ) {
+                        channel.truncate( HEADER_LENGTH );
+                        channel.position( HEADER_LENGTH );
+                    }
+                    commit( frame );
+                } catch ( IOException exception ) {
+                    System.err.println( "Cannot write the drawing journal: " + exception );
+                    failed = true;
+                } // end try block
+            } // end if
+            frame.reset();
+            synchronized ( lock ) {
+                spare = frame;
+            }
+        } // end while
+        
+        if ( channel != null ) {
+            try {
+                channel.close(); // releases the lock
+            } catch ( IOException exception ) {
+                // nothing more can be done with it
+            } // end try block
+            if ( discarding )
+                file.delete();
+        } // end if
+        synchronized ( openJournals ) {
+            openJournals.remove( this );
+        }
+    } // end method
+    
+    /**
+     * Appends a group of records to the file as one frame, and forces it to
+     * disk. The file is created by the first frame.
+     *
+     * @param frame The records.
+     * @throws IOException If the file cannot be created or written.
+     */
+    private void commit( RecordBuffer frame ) throws IOException {
+        if ( channel == null ) {
+            directory.mkdirs();
+            File created = File.createTempFile( "drawing", "." + EXTENSION, directory );
+            channel = FileChannel.open( created.toPath(), StandardOpenOption.READ,
+                                       StandardOpenOption.WRITE );
+            channel.tryLock(); // held until the channel is closed
+            file = created;
+            ByteBuffer header = ByteBuffer.allocate( HEADER_LENGTH );
+            header.putInt( MAGIC ).putShort( VERSION ).putShort( (short) 0 ).flip();
+            while ( header.hasRemaining() )
+                channel.write( header );
+            bytesWritten += HEADER_LENGTH;
+        } // end if
+        
+        ByteBuffer header = ByteBuffer.allocate( FRAME_HEADER_LENGTH );
+        header.putInt( frame.size() ).putInt( frame.getCrc() ).flip();
+        ByteBuffer[] buffers = { header, frame.toByteBuffer() };
+        while ( buffers[1].hasRemaining() )
+            channel.write( buffers );
+        channel.force( false );
+        bytesWritten += FRAME_HEADER_LENGTH + frame.size();
+        commitCount++;
+    } // end method
+    
+    /**
+     * Records a type of record that has nothing else.
+     *
+     * @param type The type of record.
+     */
+    private void recordType( byte type ) {
+        synchronized ( lock ) {
+            int oldSize = pending.size();
+            pending.write( type );
+            wakeWriter( oldSize );
+        }
+    } // end method
+    
+    /**
+     * Checks that the file of a drawing is still the one a FILE record was
+     * made for.
+     *
+     * @param drawing The file.
+     * @param length The length the file had.
+     * @param time The time the file was last changed then.
+     * @param crc The CRC-32 of the file then.
+     * @throws IOException If the file cannot be read, or has changed.
+     */
+    private static void checkFile( File drawing, long length, long time, int crc ) throws IOException {
+        if ( drawing.length() != length || drawing.lastModified() != time || getCrc( drawing ) != crc )
+            throw new IOException( drawing.getPath() + " has changed since it was saved" );
+    } // end method
+    
+    /**
+     * Returns the CRC-32 of a whole file.
+     *
+     * @param file The file.
+     * @return The CRC.
+     * @throws IOException If the file cannot be read.
+     */
+    private static int getCrc( File file ) throws IOException {
+        CRC32 crc = new CRC32();
+        FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate( 1 << 16 );
+            while ( channel.read( buffer ) >= 0 ) {
+                buffer.flip();
+                crc.update( buffer );
+                buffer.clear();
+            } // end while
+        } finally {
+            channel.close();
+        } // end try block
+        return (int) crc.getValue();
+    } // end method
+    
+    /**
+     * Wakes the writer up if it waits for records, i.e. if there were none
+     * before the last one. Must be called with the lock held.
+     *
+     * @param oldSize The number of bytes recorded before the last record.
+     */
+    private void wakeWriter( int oldSize ) {
+        if ( oldSize == 0 )
+            lock.notifyAll();
+    } // end method
+    
+    /**
+     * Returns the number of a style, recording the style first if it has not
+     * been recorded yet. Must be called with the lock held.
+     *
+     * @param style The style.
+     * @return The number of the style in the journal.
+     * @throws IOException If the record cannot be written.
+     */
+    private int getStyleNumber( ShapeStyle style ) throws IOException {
+        int id = style.getId();
+        if ( id >= styleNumbers.length || styleNumbers[id] < 0 ) {
+            out.writeByte( STYLE );
+            BinaryDrawingFile.writeStyle( out, style );
+            setStyleNumber( id, styleCount++ );
+        }
+        return styleNumbers[id];
+    } // end method
+    
+    /**
+     * Notes the number of a style in the journal.
+     *
+     * @param id The id of the style in the registry.
+     * @param number The number of the style.
+     */
+    private void setStyleNumber( int id, int number ) {
+        if ( id >= styleNumbers.length ) {
+            int oldLength = styleNumbers.length;
+            styleNumbers = Arrays.copyOf( styleNumbers, Math.max( 2 * oldLength, id + 16 ) );
+            Arrays.fill( styleNumbers, oldLength, styleNumbers.length, -1 );
+        }
+        styleNumbers[id] = number;
+    } // end method
+    
+    /**
+     * Writes the name of a layer or a file (its length, then its UTF-8 bytes).
+     *
+     * @param name The name.
+     * @throws IOException If the record cannot be written.
+     */
+    private void writeName( String name ) throws IOException {
+        byte[] bytes = name.getBytes( StandardCharsets.UTF_8 );
+        int length = Math.min( bytes.length, 0xFFFF );
+        out.writeShort( length );
+        out.write( bytes, 0, length );
+    } // end method
+    
+    /**
+     * Reads the name of a layer or a file.
+     *
+     * @param in The buffer.
+     * @return The name.
+     */
+    private static String readName( ByteBuffer in ) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    } // end method
+    
+    /**
+     * Returns the folder of the journals, from the property paint.journal.
+     *
+     * @return The folder, or null if journaling is off.
+     */
+    private static File getDirectory() {
+        String path = System.getProperty( "paint.journal", "journal" );
+        return path.isEmpty() ? null : new File( path );
+    } // end method
+} // end class
\ No newline at end of file
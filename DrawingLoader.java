@@ -0,0 +1,156 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+
+/**
+ * Opens a drawing file (see {@link BinaryDrawingFile}) in a DrawPanel without
+ * waiting for the whole file to be read. The shapes are decoded on a
+ * background thread, and handed to the panel in chunks; each chunk is added
+ * (and painted) in one go on the event dispatch thread, so the drawing appears
+ * bit by bit. The first chunks are small, so that the first shapes are shown
+ * at once, and later ones larger, so that fewer repaints are needed. Only a
+ * couple of chunks are decoded ahead of the panel, so that the panel still
+ * paints (and pans, and zooms) between them.
+ * <p>
+ * The panel is disabled (the drawing cannot be edited) until the load is
+ * done. A load that is cancelled, or that fails partway, keeps the shapes
+ * added so far. The result is the number of shapes read.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class DrawingLoader extends SwingWorker<Integer, Void> {
+    private static final int FIRST_CHUNK = 256;
+    private static final int LARGEST_CHUNK = 8192;
+    private static final int CHUNKS_AHEAD = 2;
+    
+    private final DrawPanel drawPanel;
+    private final File file;
+    // chunks that may be decoded before the panel has added the earlier ones
+    private final Semaphore chunksAhead = new Semaphore( CHUNKS_AHEAD );
+    private boolean drawingReplaced; // by the event dispatch thread
+    
+    /*
+     * Shapes read from a layer, added to the panel when run (on the event
+     * dispatch thread); the first chunk of each layer brings the (empty)
+     * layer itself. Chunks are posted straight to the event queue, rather
+     * than published, so that they are not held back to be coalesced.
+     */
+    private class Chunk implements Runnable {
+        private final Layer layer;
+        private final boolean isNewLayer;
+        private final MyShape[] shapes;
+        
+        private Chunk( Layer layer, boolean isNewLayer, MyShape[] shapes ) {
+            this.layer = layer;
+            this.isNewLayer = isNewLayer;
+            this.shapes = shapes;
+        }
+        
+        public void run() {
+            try {
+                // chunks posted before a cancel may still arrive
+                if ( !isCancelled() ) {
+                    if ( isNewLayer ) {
+                        drawPanel.addLoadedLayer( layer, !drawingReplaced );
+                        drawingReplaced = true;
+                    }
+                    drawPanel.addLoadedShapes( layer, shapes );
+                }
+            } finally {
+                // the reader must not wait for a chunk that failed
+                chunksAhead.release();
+            }
+        }
+    } // end inner class
+    
+    /**
+     * Constructor: prepares to open a file in a panel, and disables the
+     * panel. Call {@link #execute} to start.
+     *
+     * @param drawPanel The panel, whose drawing is replaced once the first
+     * layer has been read.
+     * @param file The file to open.
+     */
+    public DrawingLoader( DrawPanel drawPanel, File file ) {
+        this.drawPanel = drawPanel;
+        this.file = file;
+        drawPanel.setEnabled( false );
+    } // end constructor
+    
+    /**
+     * Returns whether the drawing of the panel has been replaced yet (i.e.
+     * the first layer has been added to it).
+     *
+     * @return Whether or not any layer has been added.
+     */
+    public boolean isDrawingReplaced() {
+        return drawingReplaced;
+    } // end accessor
+    
+    /**
+     * Reads the file, and hands its shapes to the panel in chunks.
+     *
+     * @return The number of shapes read.
+     * @throws IOException If the file cannot be read, or is not a valid drawing.
+     */
+    protected Integer doInBackground() throws IOException {
+        int read = 0;
+        try {
+            BinaryDrawingFile.Reader reader = new BinaryDrawingFile.Reader( file );
+            long total = Math.max( reader.getShapeCount(), 1 );
+            int chunkSize = FIRST_CHUNK;
+            for ( Layer layer = reader.readLayer(); layer != null; layer = reader.readLayer() ) {
+                boolean isNewLayer = true;
+                do {
+                    MyShape[] shapes = new MyShape[Math.min( chunkSize, reader.getShapesLeft() )];
+                    for ( int i = 0; i < shapes.length; i++ )
+                        shapes[i] = reader.readShape();
+                    
+                    chunksAhead.acquireUninterruptibly();
+                    if ( isCancelled() ) {
+                        chunksAhead.release();
+                        return read;
+                    }
+                    SwingUtilities.invokeLater( new Chunk( layer, isNewLayer, shapes ) );
+                    isNewLayer = false;
+                    read += shapes.length;
+                    setProgress( (int) Math.min( 100 * read / total, 100 ) );
+                    chunkSize = Math.min( 2 * chunkSize, LARGEST_CHUNK );
+                } while ( reader.getShapesLeft() > 0 );
+            } // end for
+            return read;
+        } finally {
+            // returns once every chunk posted has been run, so that done()
+            // comes after them; a cancel calls done() at once instead, and
+            // the chunks still queued then add nothing
+            chunksAhead.acquireUninterruptibly( CHUNKS_AHEAD );
+        } // end try block
+    } // end method
+    
+    /**
+     * Enables the panel again, once the load is done, and has the drawing
+     * journaled (see {@link DrawPanel#finishLoading}).
+     */
+    protected void done() {
+        drawPanel.setEnabled( true );
+        if ( !drawingReplaced )
+            return;
+        boolean isWhole = false;
+        try {
+            get();
+            isWhole = true;
+        } catch ( CancellationException exception ) {
+            // only part of the drawing was read
+        } catch ( InterruptedException exception ) {
+            // the load is done, so get() does not wait
+        } catch ( ExecutionException exception ) {
+            // only part of the drawing was read
+        } // end try block
+        drawPanel.finishLoading( file, isWhole );
+    } // end method
+} // end class
\ No newline at end of file
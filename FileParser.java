@@ -54,6 +54,8 @@ public class FileParser {
                             drawPanel.setShapeType( DrawPanel.ShapeTypes.RECTANGLE );
                         else if ( data.equals( "polygon" ) )
                             drawPanel.setShapeType( DrawPanel.ShapeTypes.POLYGON );
+                        else if ( data.equals( "pencil" ) )
+                            drawPanel.setShapeType( DrawPanel.ShapeTypes.PENCIL );
                     }
                     // if filled
                     else if ( data.equals( "filled") ) {
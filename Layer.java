@@ -0,0 +1,561 @@
+import java.awt.AlphaComposite;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A named layer of a drawing: its own store of shapes (with a history of edits
+ * to undo and redo, see {@link UndoHistory}), the index of those shapes and a
+ * cache of their rasterized tiles. Layers are painted bottom-most first by
+ * compositing their cached tiles, so that a change to one layer only
+ * rasterizes that layer again. A layer can be hidden, or shown translucent.
+ * <p>
+ * Other threads read the shapes through a snapshot of the store (see
+ * {@link #getSnapshot}), which costs nothing with the persistent store that
+ * layers keep on the heap (see {@link PersistentShapeStore}).
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class Layer {
+    private static final int INDEX_CELL_SIZE = 64;
+    
+    private String name;
+    private boolean visible;
+    private float opacity;
+    
+    private ShapeStore shapeObjects;
+    private ShapeGrid shapeIndex; // finds the shapes covering a region of the drawing
+    private Rectangle extent; // covers every shape added since the layer was empty
+    private TilePyramid shapeTiles;
+    private UndoHistory history; // allows for "undo" and "redo" operations
+    
+    /*
+     * The shapes of a layer, with their index, as swapped in and out of the
+     * layer whole (e.g. by a clear, and by undoing it).
+     */
+    static class Contents {
+        private ShapeStore store;
+        private ShapeGrid index;
+        private Rectangle extent;
+        
+        private Contents( ShapeStore store, ShapeGrid index, Rectangle extent ) {
+            this.store = store;
+            this.index = index;
+            this.extent = extent;
+        }
+        
+        // the memory held by the shapes and their index
+        public long getMemoryUsed() {
+            return store.getMemoryUsed() + index.getMemoryUsed();
+        }
+        
+        // writes the shapes, in the order of their handles, with their handles
+        // and order keys
+        public void write( DataOutput out ) throws IOException {
+            out.writeInt( extent.x );
+            out.writeInt( extent.y );
+            out.writeInt( extent.width );
+            out.writeInt( extent.height );
+            ShapeCodec.writeVarInt( out, store.getSize() );
+            for ( int handle = 0; handle < store.getEnd(); handle++ ) {
+                if ( store.contains( handle ) ) {
+                    ShapeCodec.writeVarInt( out, handle );
+                    ShapeCodec.writeVarInt( out, store.getOrder( handle ) );
+                    ShapeCodec.write( out, store.getShape( handle ) );
+                }
+            } // end for
+        }
+        
+        // reads contents written by write(); the shapes keep their handles
+        // (which older edits in the history refer to) and drawing order
+        public static Contents read( ByteBuffer in ) throws IOException {
+            Rectangle extent = new Rectangle( in.getInt(), in.getInt(), in.getInt(), in.getInt() );
+            ShapeStore store = createStore();
+            ShapeGrid index = new ShapeGrid( INDEX_CELL_SIZE );
+            int count = ShapeCodec.readVarInt( in );
+            for ( int i = 0; i < count; i++ ) {
+                int handle = ShapeCodec.readVarInt( in );
+                int order = ShapeCodec.readVarInt( in );
+                MyShape shape = ShapeCodec.read( in, null );
+                store.put( handle, shape, order );
+                index.insert( handle, shape.getBounds(), order );
+            } // end for
+            return new Contents( store, index, extent );
+        }
+    } // end inner class
+    
+    /**
+     * Constructor: an empty, visible and opaque layer.
+     *
+     * @param name The name shown to the user.
+     */
+    public Layer( String name ) {
+        this.name = name;
+        visible = true;
+        opacity = 1;
+        shapeObjects = createStore();
+        shapeIndex = new ShapeGrid( INDEX_CELL_SIZE );
+        extent = new Rectangle( 0, 0, -1, -1 ); // no shapes
+        shapeTiles = new TilePyramid( shapeObjects, shapeIndex );
+        history = new UndoHistory();
+    } // end constructor
+    
+    /**
+     * Returns the name of the layer.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        return name;
+    } // end accessor
+    
+    /**
+     * Returns whether the layer is painted.
+     *
+     * @return Is visible.
+     */
+    public boolean isVisible() {
+        return visible;
+    } // end accessor
+    
+    /**
+     * Returns how opaque the layer is painted.
+     *
+     * @return The opacity, from 0 (invisible) to 1 (opaque).
+     */
+    public float getOpacity() {
+        return opacity;
+    } // end accessor
+    
+    /**
+     * Returns the number of shapes in the layer.
+     *
+     * @return The number of shapes.
+     */
+    public int getSize() {
+        return shapeObjects.getSize();
+    } // end accessor
+    
+    /**
+     * Returns the shapes of the layer as they are now (see
+     * {@link ShapeStore#snapshot}). The snapshot never changes, so it may be
+     * kept, and read on any thread, e.g. to save the drawing in the background
+     * while it is still being edited.
+     *
+     * @return A store with the shapes.
+     */
+    public ShapeStore getSnapshot() {
+        return shapeObjects.snapshot();
+    } // end accessor
+    
+    /**
+     * Returns how much of the visible tiles had been rasterized at the end of
+     * the last paint.
+     *
+     * @return The percentage of their shapes drawn.
+     */
+    public int getProgress() {
+        return shapeTiles.getProgress();
+    } // end accessor
+    
+    /**
+     * Mutator to set whether the layer is painted.
+     */
+    public void setVisible( boolean visible ) {
+        this.visible = visible;
+    } // end mutator
+    
+    /**
+     * Mutator to set the opacity (limited to 0-1). The cached tiles do not
+     * change, since the opacity is only applied when they are painted.
+     */
+    public void setOpacity( float opacity ) {
+        this.opacity = Math.max( 0, Math.min( 1, opacity ) );
+    } // end mutator
+    
+    /**
+     * Returns the history of edits to undo and redo.
+     *
+     * @return The history.
+     */
+    public UndoHistory getHistory() {
+        return history;
+    } // end accessor
+    
+    /**
+     * Adds a completed shape on top of the layer. Edits that were undone can
+     * no longer be redone.
+     *
+     * @param shape The shape.
+     */
+    public void addShape( MyShape shape ) {
+        history.record( new UndoHistory.ShapesAdded( store( shape ) ) );
+    } // end method
+    
+    /**
+     * Removes every shape of the layer, so that the clear can be undone. The
+     * shapes are not copied: the store and index of the layer are kept by the
+     * history, and new empty ones take their place.
+     *
+     * @param group The group of the edit (e.g. to undo the clear of every
+     * layer at once, see {@link UndoHistory#getUndoGroup}), or 0 for none.
+     * @return Whether there was anything to clear.
+     */
+    public boolean clear( int group ) {
+        if ( shapeObjects.getSize() == 0 )
+            return false;
+        
+        Contents empty = new Contents( createStore(), new ShapeGrid( INDEX_CELL_SIZE ),
+                                      new Rectangle( 0, 0, -1, -1 ) );
+        swapContents( empty );
+        history.record( new UndoHistory.LayerCleared( empty, group ) );
+        return true;
+    } // end method
+    
+    /**
+     * Undoes the last edit (or a step of it, e.g. the last shape of a run of
+     * shapes) of the layer.
+     *
+     * @return The region of the drawing that changed, or null if there was
+     * nothing to undo.
+     */
+    public Rectangle undo() {
+        return history.undo( this );
+    } // end method
+    
+    /**
+     * Redoes the last edit undone (or a step of it).
+     *
+     * @return The region of the drawing that changed, or null if there was
+     * nothing to redo.
+     */
+    public Rectangle redo() {
+        return history.redo( this );
+    } // end method
+    
+    /**
+     * Forgets the edits that were undone, once they can no longer be redone.
+     */
+    public void forgetRedo() {
+        history.forgetRedo();
+    } // end method
+    
+    /**
+     * Forgets every edit of the layer, so that none can be undone or redone
+     * (the shapes are kept).
+     */
+    public void forgetHistory() {
+        history.makeEmpty();
+    } // end method
+    
+    /**
+     * Returns the group of the next edit to undo.
+     *
+     * @return The group, or 0 for none.
+     */
+    public int getUndoGroup() {
+        return history.getUndoGroup();
+    } // end accessor
+    
+    /**
+     * Returns the group of the next edit to redo.
+     *
+     * @return The group, or 0 for none.
+     */
+    public int getRedoGroup() {
+        return history.getRedoGroup();
+    } // end accessor
+    
+    /**
+     * Returns a shape of the layer (as a new object, so changing it does not
+     * change the layer).
+     *
+     * @param handle The handle of the shape.
+     * @return The shape, or null if it is not in the layer.
+     */
+    public MyShape getShape( int handle ) {
+        return shapeObjects.contains( handle ) ? shapeObjects.getShape( handle ) : null;
+    } // end method
+    
+    /**
+     * Returns the area covered by a shape of the layer.
+     *
+     * @param handle The handle of the shape.
+     * @return The bounds, or an empty rectangle if the shape is not in the layer.
+     */
+    public Rectangle getShapeBounds( int handle ) {
+        if ( !shapeObjects.contains( handle ) )
+            return new Rectangle( 0, 0, -1, -1 );
+        return shapeObjects.getBounds( handle );
+    } // end accessor
+    
+    /**
+     * Finds the top-most shape under a point of the drawing: a filled shape
+     * is hit anywhere inside it, any other shape only on its outline.
+     *
+     * @param x The x coordinate.
+     * @param y The y coordinate.
+     * @return The handle of the shape, or -1 if there is none.
+     */
+    public int findShape( int x, int y ) {
+        int[] candidates = shapeIndex.query( new Rectangle( x, y, 1, 1 ) );
+        for ( int i = candidates.length - 1; i >= 0; i-- ) {
+            MyShape shape = shapeObjects.getShape( candidates[i] );
+            Shape geometry = shape.getGeometry();
+            if ( shape instanceof MyBoundedShape && ((MyBoundedShape) shape).getFilled() &&
+                geometry.contains( x, y ) )
+                return candidates[i];
+            if ( shape.getStroke().createStrokedShape( geometry ).contains( x, y ) )
+                return candidates[i];
+        } // end for
+        return -1;
+    } // end method
+    
+    /**
+     * Removes a shape from the layer, so that the removal can be undone.
+     *
+     * @param handle The handle of the shape.
+     * @return Whether the shape was in the layer.
+     */
+    public boolean removeShape( int handle ) {
+        if ( !shapeObjects.contains( handle ) )
+            return false;
+        
+        int order = shapeObjects.getOrder( handle );
+        MyShape shape = unstoreShape( handle );
+        history.record( new UndoHistory.ShapesRemoved( handle, order, shape ) );
+        return true;
+    } // end method
+    
+    /**
+     * Moves a shape above every other shape of the layer, so that the move can
+     * be undone.
+     *
+     * @param handle The handle of the shape.
+     * @return Whether the shape was in the layer.
+     */
+    public boolean bringToFront( int handle ) {
+        if ( !shapeObjects.contains( handle ) )
+            return false;
+        
+        int order = shapeObjects.getOrder( handle );
+        reorder( handle, shapeObjects.bringToFront( handle ) );
+        history.record( new UndoHistory.ShapeMoved( handle, order ) );
+        return true;
+    } // end method
+    
+    /**
+     * Moves a shape below every other shape of the layer, so that the move can
+     * be undone.
+     *
+     * @param handle The handle of the shape.
+     * @return Whether the shape was in the layer.
+     */
+    public boolean sendToBack( int handle ) {
+        if ( !shapeObjects.contains( handle ) )
+            return false;
+        
+        int order = shapeObjects.getOrder( handle );
+        reorder( handle, shapeObjects.sendToBack( handle ) );
+        history.record( new UndoHistory.ShapeMoved( handle, order ) );
+        return true;
+    } // end method
+    
+    /**
+     * Gives a shape a new place in the drawing order, and drops the tiles
+     * that show it.
+     *
+     * @param handle The handle of the shape.
+     * @param order The new order key of the shape.
+     * @return The region of the drawing that changed.
+     */
+    private Rectangle reorder( int handle, int order ) {
+        Rectangle bounds = shapeObjects.getBounds( handle );
+        shapeIndex.setOrder( handle, order );
+        shapeTiles.invalidate( bounds );
+        return bounds;
+    } // end method
+    
+    /**
+     * Returns the drawing order of a shape, for the history.
+     *
+     * @param handle The handle of the shape.
+     * @return The order key.
+     */
+    int getShapeOrder( int handle ) {
+        return shapeObjects.getOrder( handle );
+    } // end method
+    
+    /**
+     * Gives a shape an order key it had before, for the history.
+     *
+     * @param handle The handle of the shape.
+     * @param order The order key.
+     * @return The region of the drawing that changed.
+     */
+    Rectangle setShapeOrder( int handle, int order ) {
+        shapeObjects.setOrder( handle, order );
+        return reorder( handle, order );
+    } // end method
+    
+    /**
+     * Removes a shape from the layer without recording it, for the history.
+     *
+     * @param handle The handle of the shape.
+     * @return The shape removed.
+     */
+    MyShape unstoreShape( int handle ) {
+        MyShape shape = shapeObjects.getShape( handle );
+        Rectangle bounds = shapeObjects.getBounds( handle );
+        shapeObjects.remove( handle );
+        shapeIndex.remove( handle );
+        shapeTiles.invalidate( bounds );
+        return shape;
+    } // end method
+    
+    /**
+     * Puts a shape back where it was (its handle, and its place in the
+     * drawing order), for the history.
+     *
+     * @param shape The shape.
+     * @param handle The handle it had; if another shape has it now, the shape
+     * is put back under a new handle.
+     * @param order The order key it had.
+     * @return The handle of the shape.
+     */
+    int restoreShape( MyShape shape, int handle, int order ) {
+        if ( shapeObjects.contains( handle ) )
+            handle = shapeObjects.getEnd();
+        boolean onTop = order >= shapeObjects.getTopOrder();
+        
+        shapeObjects.put( handle, shape, order );
+        Rectangle bounds = shape.getBounds();
+        shapeIndex.insert( handle, bounds, order );
+        extent.add( bounds );
+        // a shape that is not on top cannot be drawn over the tiles
+        if ( onTop )
+            shapeTiles.addShape( handle, shape );
+        else
+            shapeTiles.invalidate( bounds );
+        return handle;
+    } // end method
+    
+    /**
+     * Adds a shape on top of the layer as a drawing is opened, without
+     * recording it in the history.
+     *
+     * @param shape The (completed) shape.
+     */
+    void loadShape( MyShape shape ) {
+        store( shape );
+    } // end method
+    
+    /**
+     * Gives the shapes of a layer just opened the handles they had in the
+     * drawing that was saved (see {@link DrawingJournal#checkpoint}), without
+     * recording it in the history.
+     *
+     * @param handles The handles of the shapes, bottom-most first.
+     */
+    void setHandles( int[] handles ) {
+        ShapeStore snapshot = shapeObjects.snapshot();
+        int[] order = snapshot.getDrawingOrder();
+        makeEmpty();
+        for ( int i = 0; i < order.length; i++ )
+            restoreShape( snapshot.getShape( order[i] ), handles[i], i + 1 );
+    } // end method
+    
+    /**
+     * Exchanges the shapes of the layer with other contents, for the history.
+     * Only the tiles of the layer are dropped; nothing is copied.
+     *
+     * @param contents The contents to put in the layer; receives the contents
+     * taken out of it.
+     * @return The region of the drawing that changed.
+     */
+    Rectangle swapContents( Contents contents ) {
+        ShapeStore store = shapeObjects;
+        ShapeGrid index = shapeIndex;
+        Rectangle oldExtent = extent;
+        shapeObjects = contents.store;
+        shapeIndex = contents.index;
+        extent = contents.extent;
+        contents.store = store;
+        contents.index = index;
+        contents.extent = oldExtent;
+        
+        // the shapes put aside are not drawn until they are swapped back in
+        store.forgetRenderings();
+        shapeTiles = new TilePyramid( shapeObjects, shapeIndex );
+        return extent.union( oldExtent );
+    } // end method
+    
+    /**
+     * Copies a shape to the top of the store, and adds it to the index and the
+     * cached tiles.
+     *
+     * @param shape The shape.
+     * @return The handle of the shape.
+     */
+    private int store( MyShape shape ) {
+        int id = shapeObjects.add( shape );
+        Rectangle bounds = shape.getBounds();
+        shapeIndex.insert( id, bounds, shapeObjects.getOrder( id ) );
+        shapeTiles.addShape( id, shape );
+        extent.add( bounds );
+        return id;
+    } // end method
+    
+    /**
+     * Creates an empty store for the shapes: a {@link PersistentShapeStore}, or
+     * an {@link OffHeapShapeStore} if enabled.
+     *
+     * @return The store.
+     */
+    private static ShapeStore createStore() {
+        return OffHeapShapeStore.ENABLED ? new OffHeapShapeStore() : new PersistentShapeStore();
+    } // end method
+    
+    /**
+     * Removes all shapes of the layer, and forgets its history, deleting the
+     * temporary file it spilled to (see {@link #clear} to clear it so that it
+     * can be undone).
+     */
+    public void makeEmpty() {
+        shapeObjects.makeEmpty();
+        shapeIndex.makeEmpty();
+        shapeTiles.makeEmpty();
+        extent = new Rectangle( 0, 0, -1, -1 );
+        history.makeEmpty();
+    } // end method
+    
+    /**
+     * Paints the cached tiles of the layer under a region of the view, with
+     * the layer's opacity (see {@link TilePyramid#paint}).
+     *
+     * @param g2d {@link Graphics2D} of the view, in pixels.
+     * @param level The zoom level being shown.
+     * @param originX The pixel (at the zoom level) shown at the left of the view.
+     * @param originY The pixel (at the zoom level) shown at the top of the view.
+     * @param region The region of the view to paint.
+     * @param budget The time (in nanoseconds) to spend rasterizing.
+     * @return Whether every tile in the region is done.
+     */
+    public boolean paint( Graphics2D g2d, int level, int originX, int originY, Rectangle region,
+                         long budget ) {
+        if ( !visible || opacity == 0 )
+            return true;
+        
+        Composite oldComposite = g2d.getComposite();
+        if ( opacity < 1 )
+            g2d.setComposite( AlphaComposite.getInstance( AlphaComposite.SRC_OVER, opacity ) );
+        boolean done = shapeTiles.paint( g2d, level, originX, originY, region, budget );
+        g2d.setComposite( oldComposite );
+        return done;
+    } // end method
+} // end class
\ No newline at end of file
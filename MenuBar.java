@@ -1,9 +1,11 @@
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.InputEvent;
 import java.awt.event.KeyEvent;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
+import javax.swing.KeyStroke;
 
 /**
  * Creates a menubar, with some minor features.
@@ -18,6 +20,8 @@ public class MenuBar extends JMenuBar {
     
     // File
     private JMenu file;
+    private JMenuItem open;
+    private JMenuItem save;
     private JMenuItem about;
     private JMenuItem preferences;
     private JMenuItem exit;
@@ -35,10 +39,17 @@ public class MenuBar extends JMenuBar {
         file = new JMenu( "File" );
         file.setMnemonic( KeyEvent.VK_F );
         // submenus of "File"
+        open = new JMenuItem( "Open...", KeyEvent.VK_O );
+        save = new JMenuItem( "Save...", KeyEvent.VK_S );
+        open.setAccelerator( KeyStroke.getKeyStroke( KeyEvent.VK_O, InputEvent.CTRL_DOWN_MASK ) );
+        save.setAccelerator( KeyStroke.getKeyStroke( KeyEvent.VK_S, InputEvent.CTRL_DOWN_MASK ) );
         about = new JMenuItem( "About", KeyEvent.VK_A );
         preferences = new JMenuItem( "Preferences", KeyEvent.VK_P );
         exit = new JMenuItem( "Exit", KeyEvent.VK_X );
         
+        file.add( open );
+        file.add( save );
+        file.addSeparator();
         file.add( about );
         file.add( preferences );
         file.add( exit );
@@ -53,6 +64,8 @@ public class MenuBar extends JMenuBar {
         window.setMnemonic( KeyEvent.VK_W );
         
         // all add menu handlers
+        open.addActionListener( new MenuHandler() );
+        save.addActionListener( new MenuHandler() );
         about.addActionListener( new MenuHandler() );
         preferences.addActionListener( new MenuHandler() );
         exit.addActionListener( new MenuHandler() );
@@ -68,7 +81,13 @@ public class MenuBar extends JMenuBar {
      */
     private class MenuHandler implements ActionListener {
         public void actionPerformed( ActionEvent event ) {
-            if ( event.getSource() == about ) {
+            if ( event.getSource() == open ) {
+                drawFrame.openDrawing();
+            }
+            else if ( event.getSource() == save ) {
+                drawFrame.saveDrawing();
+            }
+            else if ( event.getSource() == about ) {
                 aboutWindow.setVisible( true );
             }
             else if ( event.getSource() == preferences ) {
@@ -85,4 +104,4 @@ public class MenuBar extends JMenuBar {
             } // end if
         } // end method
     } // end inner class
-} // end class
+} // end class
\ No newline at end of file
@@ -10,7 +10,6 @@ import java.awt.Color;
  * @version May 31, 2012
  */
 public abstract class MyBoundedShape extends MyShape {
-    private boolean isFilled; // a boolean field to determine whether the shape is filled in or not
     
     /*
      * Class constructor.
@@ -18,11 +17,17 @@ public abstract class MyBoundedShape extends MyShape {
     public MyBoundedShape( int x1Coord, int y1Coord, int x2Coord, int y2Coord,
                           Color colour1, Color colour2, float strokeWidth, float[] dashLength,
                           boolean isGradient, boolean isDashed, boolean filled ) {
-        // calls the superclass's constructor with specific parameters
-        super(x1Coord, y1Coord, x2Coord, y2Coord, colour1, colour2,
-              strokeWidth, dashLength, isGradient, isDashed);
-        
-        setFilled( filled );
+        // calls the superclass's constructor with the shared style
+        super(x1Coord, y1Coord, x2Coord, y2Coord,
+              StyleRegistry.getStyle( colour1, colour2, strokeWidth, dashLength, isGradient,
+                                     isDashed, filled ));
+    } // end constructor
+    
+    /*
+     * Class constructor with a shared style.
+     */
+    public MyBoundedShape( int x1Coord, int y1Coord, int x2Coord, int y2Coord, ShapeStyle style ) {
+        super(x1Coord, y1Coord, x2Coord, y2Coord, style);
     } // end constructor
     
     /**
@@ -31,7 +36,7 @@ public abstract class MyBoundedShape extends MyShape {
      * @return The boolean value of whether the shape is filled or not.
      */
     public boolean getFilled() {
-        return isFilled;
+        return getStyle().isFilled();
     } // end getFilled
     
     /**
@@ -40,7 +45,7 @@ public abstract class MyBoundedShape extends MyShape {
      * @param filled Replaces the current private boolean <code>isFilled</code> field with this.
      */
     public void setFilled( boolean filled ) {
-        isFilled = filled;
+        setStyle( getStyle().withFilled( filled ) );
     } // end setFilled
     
     /**
@@ -1,5 +1,6 @@
 import java.awt.Graphics2D;
 import java.awt.Color;
+import java.awt.Shape;
 import java.awt.geom.Line2D;
 
 /**
@@ -22,11 +23,25 @@ public class MyLine extends MyShape {
               strokeWidth, dashLength, isGradient, isDashed);
     } // end constructor
     
+    /*
+     * Class constructor with a shared style.
+     */
+    public MyLine( int x1Coord, int y1Coord, int x2Coord, int y2Coord, ShapeStyle style ) {
+        super(x1Coord, y1Coord, x2Coord, y2Coord, style);
+    } // end constructor
+    
+    /**
+     * Builds the line from its coordinates.
+     */
+    protected Shape buildGeometry() {
+        return new Line2D.Double(getX1Coordinate(), getY1Coordinate(), getX2Coordinate(), getY2Coordinate());
+    } // end buildGeometry
+    
     /**
      * Draws a line based on the current colour and coordinates.
      */
     public void draw ( Graphics2D g2d ) {
         setupShape( g2d );
-        g2d.draw( new Line2D.Double(getX1Coordinate(), getY1Coordinate(), getX2Coordinate(), getY2Coordinate()) );
+        drawOutline( g2d );
     } // end draw
 } // end class
\ No newline at end of file
@@ -1,5 +1,6 @@
 import java.awt.Graphics2D;
 import java.awt.Color;
+import java.awt.Shape;
 import java.awt.geom.Ellipse2D;
 
 /**
@@ -24,16 +25,30 @@ public class MyOval extends MyBoundedShape {
               strokeWidth, dashLength, isGradient, isDashed, filled );
     } // end constructor
     
+    /*
+     * Class constructor with a shared style.
+     */
+    public MyOval( int x1Coord, int y1Coord, int x2Coord, int y2Coord, ShapeStyle style ) {
+        super( x1Coord, y1Coord, x2Coord, y2Coord, style );
+    } // end constructor
+    
     /**
-     * Draws the oval from the current colour, the initial x and y starting coordinates,
-     * the width, and the height (all gathered from the accessor methods).
+     * Builds the oval from the initial x and y starting coordinates, the width,
+     * and the height (all gathered from the accessor methods).
+     */
+    protected Shape buildGeometry() {
+        return new Ellipse2D.Double( getUpperLeftX(), getUpperLeftY(), getWidth(), getHeight() );
+    } // end buildGeometry
+    
+    /**
+     * Draws the oval from the current colour and its geometry.
      */
     public void draw ( Graphics2D g2d ) {
         setupShape( g2d );
+        
         if ( getFilled() )
-            g2d.fill( new Ellipse2D.Double(getUpperLeftX(), getUpperLeftY(), getWidth(), getHeight()) );
+            g2d.fill( getGeometry() );
         else
-            g2d.draw( new Ellipse2D.Double(getUpperLeftX(), getUpperLeftY(), getWidth(), getHeight()) );
-        
+            drawOutline( g2d );
     } // end draw
 } // end class
\ No newline at end of file
@@ -0,0 +1,257 @@
+import java.awt.Graphics2D;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Line2D;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Contains the class for a freehand (pencil) stroke: an open path through every
+ * point that the mouse was dragged over. A stroke easily has thousands of
+ * points, so they are not kept as pairs of ints: each point is saved as its
+ * distance from the point before, in a variable-length code (7 bits per byte,
+ * read back by {@link ShapeCodec#readNumber} wherever the points are used),
+ * which takes a single byte per coordinate for a normal drag.
+ * <p>
+ * While the stroke is being drawn, each new point only extends the path by one
+ * segment, and only that segment has to be painted again.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+public class MyPencil extends MyShape {
+    private static final int INITIAL_CAPACITY = 64; // bytes, doubled whenever it is full
+    
+    // the first point is saved as its distance from (0, 0)
+    private byte[] encodedPoints;
+    private int encodedLength;
+    private int numberPoints;
+    
+    // extent of the points, and the point before the last one (the last one is
+    // the x2, y2 coordinate)
+    private int minX;
+    private int minY;
+    private int maxX;
+    private int maxY;
+    private int previousX;
+    private int previousY;
+    
+    // the path of a stroke that is still being drawn; each new point extends
+    // it by one segment instead of rebuilding it
+    private GeneralPath savedPath;
+    
+    /*
+     * Class constructor that takes in the first point of the stroke.
+     */
+    public MyPencil( int xCoord, int yCoord, Color colour1, Color colour2, float strokeWidth,
+                    float[] dashLength, boolean isGradient, boolean isDashed ) {
+        super(xCoord, yCoord, xCoord, yCoord, colour1, colour2, strokeWidth, dashLength,
+              isGradient, isDashed);
+        setCompleted( false );
+        
+        encodedPoints = new byte[INITIAL_CAPACITY];
+        int x = getX1Coordinate();
+        int y = getY1Coordinate();
+        encode( x );
+        encode( y );
+        numberPoints = 1;
+        minX = maxX = previousX = x;
+        minY = maxY = previousY = y;
+    } // end constructor
+    
+    /*
+     * Class constructor for a completed stroke, copying its encoded points
+     * from an array (e.g. that of a ShapeStore).
+     */
+    public MyPencil( byte[] encodedPoints, int offset, int length, ShapeStyle style ) {
+        super(0, 0, 0, 0, style);
+        
+        this.encodedPoints = Arrays.copyOfRange( encodedPoints, offset, offset + length );
+        encodedLength = length;
+        
+        ByteBuffer points = ByteBuffer.wrap( this.encodedPoints );
+        int x = 0;
+        int y = 0;
+        while ( points.hasRemaining() ) {
+            x += ShapeCodec.readNumber( points );
+            y += ShapeCodec.readNumber( points );
+            if ( numberPoints == 0 ) {
+                setX1Coordinate( x );
+                setY1Coordinate( y );
+                setX2Coordinate( x );
+                setY2Coordinate( y );
+                minX = maxX = x;
+                minY = maxY = y;
+            }
+            previousX = getX2Coordinate();
+            previousY = getY2Coordinate();
+            setX2Coordinate( x );
+            setY2Coordinate( y );
+            minX = Math.min( minX, x );
+            minY = Math.min( minY, y );
+            maxX = Math.max( maxX, x );
+            maxY = Math.max( maxY, y );
+            numberPoints++;
+        } // end while
+    } // end constructor
+    
+    /**
+     * Adds a point to the end of the stroke (unless it is the same as the last
+     * point, or the stroke is completed).
+     *
+     * @param x The X coordinate.
+     * @param y The Y coordinate.
+     */
+    public void addPoint( int x, int y ) {
+        x = Math.max( x, 0 );
+        y = Math.max( y, 0 );
+        if ( isCompleted || (x == getX2Coordinate() && y == getY2Coordinate()) )
+            return;
+        
+        encode( x - getX2Coordinate() );
+        encode( y - getY2Coordinate() );
+        numberPoints++;
+        minX = Math.min( minX, x );
+        minY = Math.min( minY, y );
+        maxX = Math.max( maxX, x );
+        maxY = Math.max( maxY, y );
+        if ( savedPath != null )
+            savedPath.lineTo( x, y );
+        
+        previousX = getX2Coordinate();
+        previousY = getY2Coordinate();
+        setX2Coordinate( x );
+        setY2Coordinate( y );
+    } // end method
+    
+    /**
+     * Return The number of points.
+     * @return The number of points.
+     */
+    public int getNumberPoints() {
+        return numberPoints;
+    } // end method
+    
+    /**
+     * Returns the encoded points (see the class comment), e.g. to save them.
+     *
+     * @return A copy of the encoded points.
+     */
+    public byte[] getEncodedPoints() {
+        return Arrays.copyOf( encodedPoints, encodedLength );
+    } // end method
+    
+    /**
+     * Copies the coordinates of every point.
+     *
+     * @param xCoords Receives the x coordinates (at least getNumberPoints() long).
+     * @param yCoords Receives the y coordinates (at least getNumberPoints() long).
+     */
+    public void getPoints( int[] xCoords, int[] yCoords ) {
+        ByteBuffer points = ByteBuffer.wrap( encodedPoints );
+        int x = 0;
+        int y = 0;
+        for ( int i = 0; i < numberPoints; i++ ) {
+            x += ShapeCodec.readNumber( points );
+            y += ShapeCodec.readNumber( points );
+            xCoords[i] = x;
+            yCoords[i] = y;
+        } // end for
+    } // end method
+    
+    /**
+     * An overrided method of "MyShapes". Covers every point of the stroke.
+     *
+     * @return A {@link Rectangle} enclosing the drawn stroke.
+     */
+    public Rectangle getBounds() {
+        return inflateBounds( minX, minY, maxX, maxY );
+    } // end method
+    
+    /**
+     * Returns the area covered by the last segment added, which is all that
+     * has to be painted again after a point is added.
+     *
+     * @return A {@link Rectangle} enclosing the last segment.
+     */
+    public Rectangle getLastSegmentBounds() {
+        return inflateBounds( Math.min( previousX, getX2Coordinate() ),
+                             Math.min( previousY, getY2Coordinate() ),
+                             Math.max( previousX, getX2Coordinate() ),
+                             Math.max( previousY, getY2Coordinate() ) );
+    } // end method
+    
+    /**
+     * An overrided method of "MyShapes". Trims the encoded points of a
+     * completed stroke to their length, and forgets the path used while it was
+     * drawn.
+     */
+    public void setCompleted( boolean isCompleted ) {
+        this.isCompleted = isCompleted;
+        invalidateGeometry();
+        if ( isCompleted && encodedPoints != null ) {
+            savedPath = null;
+            encodedPoints = Arrays.copyOf( encodedPoints, encodedLength );
+        }
+    } // end method
+    
+    /**
+     * Builds the open path through every point of the stroke.
+     */
+    protected Shape buildGeometry() {
+        GeneralPath path = new GeneralPath( GeneralPath.WIND_NON_ZERO, numberPoints );
+        ByteBuffer points = ByteBuffer.wrap( encodedPoints );
+        int x = 0;
+        int y = 0;
+        for ( int i = 0; i < numberPoints; i++ ) {
+            x += ShapeCodec.readNumber( points );
+            y += ShapeCodec.readNumber( points );
+            if ( i == 0 )
+                path.moveTo( x, y );
+            else
+                path.lineTo( x, y );
+        } // end for
+        
+        // a single point is drawn as a dot
+        if ( numberPoints == 1 )
+            return new Line2D.Double( x, y, x, y );
+        return path;
+    } // end buildGeometry
+    
+    /**
+     * Draws the stroke from the current colour and its points. While it is
+     * still being drawn, the path that grows with each point is drawn.
+     */
+    public void draw( Graphics2D g2d ) {
+        setupShape( g2d );
+        if ( !isCompleted && numberPoints > 1 ) {
+            if ( savedPath == null )
+                savedPath = (GeneralPath) buildGeometry();
+            g2d.draw( savedPath );
+        }
+        else {
+            drawOutline( g2d );
+        } // end if
+    } // end draw
+    
+    /**
+     * Appends a signed number to the encoded points: zig-zag encoded (so that
+     * small negative numbers are small too), then 7 bits per byte, lowest
+     * first, with the top bit set on every byte but the last.
+     *
+     * @param value The number.
+     */
+    private void encode( int value ) {
+        if ( encodedLength + 5 > encodedPoints.length )
+            encodedPoints = Arrays.copyOf( encodedPoints, 2 * encodedPoints.length + 5 );
+        
+        int bits = (value << 1) ^ (value >> 31);
+        while ( (bits & ~0x7F) != 0 ) {
+            encodedPoints[encodedLength++] = (byte) ((bits & 0x7F) | 0x80);
+            bits >>>= 7;
+        }
+        encodedPoints[encodedLength++] = (byte) bits;
+    } // end method
+} // end class
\ No newline at end of file
@@ -1,6 +1,9 @@
 import java.awt.Graphics2D;
 import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.geom.GeneralPath;
+import java.awt.geom.Line2D;
 import java.util.Arrays;
 
 /**
@@ -13,6 +16,21 @@ public class MyPolygon extends MyBoundedShape {
     private int xCoords[];
     private int yCoords[];
     private int numberPoints;
+    private static final int INITIAL_CAPACITY = 16; // points, doubled whenever it is full
+    
+    // extent of the saved points (the temporary point is added in getBounds)
+    private int minX;
+    private int minY;
+    private int maxX;
+    private int maxY;
+    
+    // the saved points of a polygon that is still being drawn; each new point
+    // extends the path by one segment instead of rebuilding it
+    private GeneralPath savedPath;
+    
+    // simplified versions of a completed polygon, each one twice as coarse as
+    // the one before (the first entry is unused: it is the full polygon)
+    private volatile Shape[] detailLevels;
     
     /*
      * Class constructor that takes in one set of points initially.
@@ -25,14 +43,39 @@ public class MyPolygon extends MyBoundedShape {
               dashLength, isGradient, isDashed, filled);
         setCompleted(isCompleted);
         
-        // initialize the array and propagate the array with the starting point
-        xCoords = new int[10000];
-        yCoords = new int[10000];
-        Arrays.fill( this.xCoords, xCoord );
-        Arrays.fill( this.yCoords, yCoord );
+        // initialize the arrays with the starting point (and the temporary
+        // point after it, which starts there too)
+        xCoords = new int[INITIAL_CAPACITY];
+        yCoords = new int[INITIAL_CAPACITY];
+        xCoords[0] = xCoords[1] = xCoord;
+        yCoords[0] = yCoords[1] = yCoord;
         
         this.isCompleted = isCompleted;
         this.numberPoints = 1;
+        minX = maxX = xCoords[0];
+        minY = maxY = yCoords[0];
+    } // end constructor
+    
+    /*
+     * Class constructor for a completed polygon, copying its points from
+     * arrays (e.g. those of a ShapeStore).
+     */
+    public MyPolygon( int[] xCoords, int[] yCoords, int offset, int numberPoints,
+                     ShapeStyle style ) {
+        super(xCoords[offset], yCoords[offset], xCoords[offset], yCoords[offset], style);
+        
+        this.xCoords = Arrays.copyOfRange( xCoords, offset, offset + numberPoints );
+        this.yCoords = Arrays.copyOfRange( yCoords, offset, offset + numberPoints );
+        this.numberPoints = numberPoints;
+        minX = maxX = this.xCoords[0];
+        minY = maxY = this.yCoords[0];
+        for ( int i = 1; i < numberPoints; i++ ) {
+            minX = Math.min( minX, this.xCoords[i] );
+            minY = Math.min( minY, this.yCoords[i] );
+            maxX = Math.max( maxX, this.xCoords[i] );
+            maxY = Math.max( maxY, this.yCoords[i] );
+        }
+        setCompleted( true );
     } // end constructor
     
     /**
@@ -43,10 +86,21 @@ public class MyPolygon extends MyBoundedShape {
      */
     public void addPoint( int x, int y ) {
         if ( addTempPoint( x, y ) ) {
+            minX = Math.min( minX, xCoords[numberPoints] );
+            minY = Math.min( minY, yCoords[numberPoints] );
+            maxX = Math.max( maxX, xCoords[numberPoints] );
+            maxY = Math.max( maxY, yCoords[numberPoints] );
+            if ( savedPath != null )
+                savedPath.lineTo( xCoords[numberPoints], yCoords[numberPoints] );
             numberPoints++;
-        }
-        else if ( !isCompleted ) {
-            setCompleted( true );
+            
+            // make room for the next temporary point, which starts at the first point
+            if ( numberPoints == xCoords.length ) {
+                xCoords = Arrays.copyOf( xCoords, 2 * numberPoints );
+                yCoords = Arrays.copyOf( yCoords, 2 * numberPoints );
+            }
+            xCoords[numberPoints] = xCoords[0];
+            yCoords[numberPoints] = yCoords[0];
         }
     } // end method
     
@@ -59,7 +113,7 @@ public class MyPolygon extends MyBoundedShape {
      */
     public boolean addTempPoint( int x, int y ) {
         // Does not allow to draw if completed.
-        if ( (isCompleted)  || (numberPoints >= xCoords.length - 2))
+        if ( isCompleted )
             return false;
         
         // set a temporary point (the "numberPoints" counter does not increase)
@@ -87,6 +141,42 @@ public class MyPolygon extends MyBoundedShape {
         return numberPoints;
     } // end method
     
+    /**
+     * Returns the x coordinate of a saved point.
+     *
+     * @param index The index of the point (0 is the first point).
+     * @return The x coordinate.
+     */
+    public int getXCoordinate( int index ) {
+        return xCoords[index];
+    } // end method
+    
+    /**
+     * Returns the y coordinate of a saved point.
+     *
+     * @param index The index of the point (0 is the first point).
+     * @return The y coordinate.
+     */
+    public int getYCoordinate( int index ) {
+        return yCoords[index];
+    } // end method
+    
+    /**
+     * An overrided method of "MyShapes". Covers every saved point, plus the
+     * temporary point while the polygon is still being drawn.
+     *
+     * @return A {@link Rectangle} enclosing the drawn polygon.
+     */
+    public Rectangle getBounds() {
+        if ( isCompleted )
+            return inflateBounds( minX, minY, maxX, maxY );
+        
+        return inflateBounds( Math.min( minX, xCoords[numberPoints] ),
+                             Math.min( minY, yCoords[numberPoints] ),
+                             Math.max( maxX, xCoords[numberPoints] ),
+                             Math.max( maxY, yCoords[numberPoints] ) );
+    } // end method
+    
     /**
      * An overrided method of "MyShapes". Sets the specified shape to the
      * parameter, then, for memory-efficiency, creates a new array with a
@@ -95,7 +185,10 @@ public class MyPolygon extends MyBoundedShape {
      */
     public void setCompleted( boolean isCompleted ) {
         this.isCompleted = isCompleted;
+        invalidateGeometry();
+        detailLevels = null;
         if ( isCompleted ) {
+            savedPath = null;
             int tempX[] = new int[numberPoints];
             int tempY[] = new int[numberPoints];
             
@@ -115,38 +208,85 @@ public class MyPolygon extends MyBoundedShape {
                 setX2Coordinate( xCoords[numberPoints - 2] );
                 setY2Coordinate( yCoords[numberPoints - 2] );
             }
-            
+        
         } // end if
     } // end method
     
     /**
-     * Draws the oval from the current colour, the initial x and y starting coordinates,
-     * the width, and the height (all gathered from the accessor methods).
+     * Builds the closed polygon from the saved points (using the xCoords,
+     * yCoords array).
      */
-    public void draw ( Graphics2D g2d ) {
-        setupShape( g2d );
+    protected Shape buildGeometry() {
+        GeneralPath polygon = buildPath();
+        polygon.closePath();
+        return polygon;
+    } // end buildGeometry
+    
+    /**
+     * Returns the coarsest simplified version of the polygon that stays within
+     * half a device pixel of the full polygon at the given scale (see
+     * {@link PolygonSimplifier#buildDetailLevels}), so the full polygon is used
+     * whenever the scale is at least 1.
+     *
+     * @param scale Device pixels per unit, e.g. 0.5 for a half-size view.
+     * @return The geometry to draw.
+     */
+    public Shape getGeometry( double scale ) {
+        if ( !isCompleted || numberPoints < PolygonSimplifier.DETAIL_THRESHOLD || scale >= 1 )
+            return getGeometry();
+        
+        Shape[] levels = detailLevels;
+        if ( levels == null ) {
+            levels = PolygonSimplifier.buildDetailLevels( xCoords, yCoords, numberPoints );
+            detailLevels = levels;
+        }
         
-        // Create a custom polygon object by drawing each individual line of a
-        // polygon (using the xCoords, yCoords array)
+        int level = PolygonSimplifier.getDetailLevel( levels.length, scale );
+        return ( level == 0 ) ? getGeometry() : levels[level];
+    } // end method
+    
+    /**
+     * Creates an open path through each saved point of the polygon.
+     *
+     * @return A new GeneralPath.
+     */
+    private GeneralPath buildPath() {
         GeneralPath polygon = new GeneralPath(GeneralPath.WIND_EVEN_ODD,
                                               numberPoints);
-        // draws each component in the polygon
         polygon.moveTo(xCoords[0], yCoords[0]);
         for ( int i = 1; i < numberPoints; i++ ) {
             polygon.lineTo( xCoords[i], yCoords[i]);
         }
+        return polygon;
+    } // end method
+    
+    /**
+     * Draws the polygon from the current colour and its saved points. While it
+     * is still being drawn, the temporary line to the mouse is drawn on its own,
+     * so that the path of the saved points never has to be rebuilt.
+     */
+    public void draw ( Graphics2D g2d ) {
+        setupShape( g2d );
         
-        // if not completed, just draw the temporary line
+        // if not completed, just draw the saved points and the temporary line
         if ( !isCompleted ) {
-            polygon.lineTo( xCoords[numberPoints], yCoords[numberPoints] );
+            if ( savedPath == null )
+                savedPath = buildPath();
+            g2d.draw( savedPath );
+            g2d.draw( new Line2D.Double( xCoords[numberPoints - 1], yCoords[numberPoints - 1],
+                                        xCoords[numberPoints], yCoords[numberPoints] ) );
         }
         else {
-            // else if it is filled, make a filled polygon and close the edges
+            // at a small scale, a simplified polygon looks the same
+            Shape polygon = getGeometry( PolygonSimplifier.getScale( g2d.getTransform() ) );
+            
+            // else if it is filled, make a filled polygon with closed edges
             if ( getFilled() )
-                g2d.fill(polygon);
-            polygon.closePath();
+                g2d.fill( polygon );
+            if ( polygon == getGeometry() )
+                drawOutline( g2d );
+            else
+                g2d.draw( polygon );
         } // end if
-        
-        g2d.draw( polygon );
     } // end draw
 } // end class
\ No newline at end of file
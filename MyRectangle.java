@@ -1,5 +1,6 @@
 import java.awt.Graphics2D;
 import java.awt.Color;
+import java.awt.Shape;
 import java.awt.geom.Rectangle2D;
 
 /**
@@ -25,16 +26,30 @@ public class MyRectangle extends MyBoundedShape {
               strokeWidth, dashLength, isGradient, isDashed, filled );
     } // end constructor
     
+    /*
+     * Class constructor with a shared style.
+     */
+    public MyRectangle( int x1Coord, int y1Coord, int x2Coord, int y2Coord, ShapeStyle style ) {
+        super( x1Coord, y1Coord, x2Coord, y2Coord, style );
+    } // end constructor
+    
+    /**
+     * Builds the rectangle from the initial x and y starting coordinates, the width,
+     * and the height (all gathered from the accessor methods).
+     */
+    protected Shape buildGeometry() {
+        return new Rectangle2D.Double( getUpperLeftX(), getUpperLeftY(), getWidth(), getHeight() );
+    } // end buildGeometry
+    
     /**
-     * Draws the rectangle from the current colour, the initial x and y starting coordinates,
-     * the width, and the height (all gathered from the accessor methods).
+     * Draws the rectangle from the current colour and its geometry.
      */
     public void draw ( Graphics2D g2d ) {
         setupShape( g2d );
         
         if ( getFilled() )
-            g2d.fill( new Rectangle2D.Double( getUpperLeftX(), getUpperLeftY(), getWidth(), getHeight() ));
+            g2d.fill( getGeometry() );
         else
-            g2d.draw( new Rectangle2D.Double( getUpperLeftX(), getUpperLeftY(), getWidth(), getHeight() ));
+            drawOutline( g2d );
     } // end draw
 } // end class
\ No newline at end of file
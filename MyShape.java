@@ -2,6 +2,9 @@ import java.awt.BasicStroke;
 import java.awt.GradientPaint;
 import java.awt.Graphics2D;
 import java.awt.Color;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.Shape;
 
 /**
  * This is an abstract class that contains information of a generic shape. It
@@ -18,16 +21,21 @@ public abstract class MyShape {
     private int y1Coordinate; // the first y coordinate
     private int x2Coordinate; // the second x coordinate
     private int y2Coordinate; // the second y coordinate
-    private Color myColour1;   // the first colour
-    private Color myColour2;   // the second colour
-    
-    // Graphics2D-related attributes
-    private float strokeWidth;
-    private float[] dashLength;
-    private boolean isGradient;
-    private boolean isDashed;
+    
+    // Graphics2D-related attributes (colours, stroke, gradient), shared with
+    // every shape that looks the same
+    private ShapeStyle style;
     protected boolean isCompleted;
     
+    // gradient, created on the first draw and forgotten whenever an attribute
+    // it depends on changes
+    private volatile Paint gradient;
+    
+    // java.awt.geom version of the shape (and its dashed outline), built on the
+    // first draw and kept until the shape is changed
+    private volatile Shape geometry;
+    private volatile Shape dashedOutline;
+    
     /**
      * Class constructor. Calls its own methods to set up.
      *
@@ -45,17 +53,27 @@ public abstract class MyShape {
     public MyShape( int x1Coord, int y1Coord, int x2Coord, int y2Coord,
                    Color colour1, Color colour2, float strokeWidth, float[] dashLength,
                    boolean isGradient, boolean isDashed ) {
+        this(x1Coord, y1Coord, x2Coord, y2Coord,
+             StyleRegistry.getStyle( colour1, colour2, strokeWidth, dashLength, isGradient,
+                                    isDashed, false ));
+    } // end constructor
+    
+    /**
+     * Class constructor with a shared style.
+     *
+     * @param x1Coord X1 coordinate.
+     * @param y1Coord Y1 coordinate
+     * @param x2Coord X2 coordinate.
+     * @param y2Coord Y2 coordinate.
+     * @param style The colours, stroke and flags (see {@link StyleRegistry}).
+     */
+    public MyShape( int x1Coord, int y1Coord, int x2Coord, int y2Coord, ShapeStyle style ) {
         // calls the mutator methods
         setX1Coordinate( x1Coord );
         setX2Coordinate( x2Coord );
         setY1Coordinate( y1Coord );
         setY2Coordinate( y2Coord );
-        setColour1( colour1 );
-        setColour2( colour2 );
-        setStrokeWidth( strokeWidth );
-        setDashLength( dashLength );
-        setGradient(isGradient);
-        setDashed(isDashed);
+        setStyle( style );
         isCompleted = true;
     } // end constructor
     
@@ -103,7 +121,7 @@ public abstract class MyShape {
      * @return The colour, as a {@link Color} object.
      */
     public Color getColour1() {
-        return myColour1;
+        return style.getColour1();
     } // end getColour1
     
     /**
@@ -112,7 +130,7 @@ public abstract class MyShape {
      * @return The colour, as a {@link Color} object.
      */
     public Color getColour2() {
-        return myColour2;
+        return style.getColour2();
     } // end getColour2
     
     /**
@@ -130,16 +148,16 @@ public abstract class MyShape {
      * @return The stroke width.
      */
     public float getStrokeWidth() {
-        return strokeWidth;
+        return style.getStrokeWidth();
     } // end method
     
     /**
-     * Gets the dashlength.
+     * Gets the dashlength. The array is shared, and must not be changed.
      *
      * @return The dashlength.
      */
     public float[] getDashLength() {
-        return dashLength;
+        return style.getDashLength();
     } // end method
     
     /**
@@ -148,7 +166,7 @@ public abstract class MyShape {
      * @return Whether the shape is to be in gradient.
      */
     public boolean isGradient() {
-        return isGradient;
+        return style.isGradient();
     } // end method
     
     /**
@@ -157,7 +175,30 @@ public abstract class MyShape {
      * @return Whether the shape is using dashed lines.
      */
     public boolean isDashed() {
-        return isDashed;
+        return style.isDashed();
+    } // end method
+    
+    /**
+     * Returns the style of the shape, shared with every shape that looks the
+     * same.
+     *
+     * @return The style.
+     */
+    public ShapeStyle getStyle() {
+        return style;
+    } // end method
+    
+    /**
+     * Returns the area covered by the shape, including its stroke, so that only
+     * this area has to be repainted when the shape changes.
+     *
+     * @return A {@link Rectangle} enclosing the drawn shape.
+     */
+    public Rectangle getBounds() {
+        return inflateBounds( Math.min( x1Coordinate, x2Coordinate ),
+                             Math.min( y1Coordinate, y2Coordinate ),
+                             Math.max( x1Coordinate, x2Coordinate ),
+                             Math.max( y1Coordinate, y2Coordinate ) );
     } // end method
     
     // **End Accessors**
@@ -174,6 +215,8 @@ public abstract class MyShape {
             x1Coordinate = x1Coord;
         else
             x1Coordinate = 0; // default 0 otherwise
+        gradient = null;
+        invalidateGeometry();
     } // end setX1Coordinate
     
     /**
@@ -186,6 +229,8 @@ public abstract class MyShape {
             y1Coordinate = y1Coord;
         else
             y1Coordinate = 0; // default 0 otherwise
+        gradient = null;
+        invalidateGeometry();
     } // end setY1Coordinate
     
     /**
@@ -198,6 +243,8 @@ public abstract class MyShape {
             x2Coordinate = x2Coord;
         else
             x2Coordinate = 0; // default 0 otherwise
+        gradient = null;
+        invalidateGeometry();
     } // end setX2Coordinate
     
     /**
@@ -210,6 +257,8 @@ public abstract class MyShape {
             y2Coordinate = y2Coord;
         else
             y2Coordinate = 0; // default 0 otherwise
+        gradient = null;
+        invalidateGeometry();
     } // end setY2Coordinate
     
     /**
@@ -218,10 +267,7 @@ public abstract class MyShape {
      * @param colour The new Color object.
      */
     public void setColour1( Color colour ) {
-        if ( colour != null )
-            myColour1 = colour;
-        else
-            myColour1 = Color.BLACK;
+        setStyle( style.withColour1( colour ) ); // black if null
     } // end setColour1
     
     /**
@@ -230,10 +276,7 @@ public abstract class MyShape {
      * @param colour The new Color object.
      */
     public void setColour2( Color colour ) {
-        if ( colour != null )
-            myColour2 = colour;
-        else
-            myColour2 = Color.BLACK;
+        setStyle( style.withColour2( colour ) ); // black if null
     } // end setColour2
     
     /**
@@ -251,10 +294,7 @@ public abstract class MyShape {
      * @param strokeWidth Value of the strokelength.
      */
     public void setStrokeWidth( float strokeWidth ) {
-        if ( strokeWidth > 0 )
-            this.strokeWidth = strokeWidth;
-        else
-            this.strokeWidth = 1;
+        setStyle( style.withStrokeWidth( strokeWidth ) ); // 1 if not positive
     } // end method
     
     /**
@@ -263,10 +303,7 @@ public abstract class MyShape {
      * @param dashLength Value of the dashlength.
      */
     public void setDashLength(float[] dashLength) {
-        if ( dashLength != null && dashLength[0] > 0 )
-            this.dashLength = dashLength;
-        else
-            this.dashLength = new float[] { 1 };
+        setStyle( style.withDashLength( dashLength ) ); // { 1 } if not positive
     } // end method
     
     /**
@@ -275,7 +312,7 @@ public abstract class MyShape {
      * @param isGradient Boolean whether the shape is a gradient.
      */
     public void setGradient(boolean isGradient) {
-        this.isGradient = isGradient;
+        setStyle( style.withGradient( isGradient ) );
     } // end method
     
     /**
@@ -284,42 +321,170 @@ public abstract class MyShape {
      * @param isDashed Boolean whether the shape is a dashed.
      */
     public void setDashed(boolean isDashed) {
-        this.isDashed = isDashed;
+        setStyle( style.withDashed( isDashed ) );
+    } // end method
+    
+    /**
+     * Switches the shape to another shared style.
+     *
+     * @param style The new style (see {@link StyleRegistry}).
+     */
+    public void setStyle( ShapeStyle style ) {
+        if ( style == this.style )
+            return;
+        this.style = style;
+        gradient = null;
+        dashedOutline = null;
     } // end method
     
     // **End Mutators**
     
+    /**
+     * Grows the box spanned by two corner points by the stroke width. A square
+     * cap can reach past a corner by half the width times the square root of
+     * two, so a full stroke width (plus a pixel for rounding) is always enough.
+     *
+     * @param minX The lowest x coordinate of the shape.
+     * @param minY The lowest y coordinate of the shape.
+     * @param maxX The highest x coordinate of the shape.
+     * @param maxY The highest y coordinate of the shape.
+     * @return The stroke-inflated bounding box.
+     */
+    protected Rectangle inflateBounds( int minX, int minY, int maxX, int maxY ) {
+        return inflateBounds( minX, minY, maxX, maxY, getStrokeWidth() );
+    } // end method
+    
+    /**
+     * Grows the box spanned by two corner points by a stroke width, as
+     * {@link #inflateBounds(int, int, int, int)} does for a shape object (e.g.
+     * for a shape kept in a {@link ShapeStore}).
+     *
+     * @param minX The lowest x coordinate of the shape.
+     * @param minY The lowest y coordinate of the shape.
+     * @param maxX The highest x coordinate of the shape.
+     * @param maxY The highest y coordinate of the shape.
+     * @param strokeWidth The stroke width of the shape.
+     * @return The stroke-inflated bounding box.
+     */
+    public static Rectangle inflateBounds( int minX, int minY, int maxX, int maxY,
+                                          float strokeWidth ) {
+        int pad = (int) Math.ceil( strokeWidth ) + 1;
+        return new Rectangle( minX - pad, minY - pad, maxX - minX + 2 * pad + 1,
+                             maxY - minY + 2 * pad + 1 );
+    } // end method
+    
+    /**
+     * Returns the paint of the shape: the primary colour itself for a solid
+     * shape, or a gradient between both colours (created once and kept until
+     * the coordinates or colours change).
+     *
+     * @return A {@link Color} or a {@link GradientPaint}.
+     */
+    public Paint getPaint() {
+        // a plain colour is the cheapest paint to fill with
+        if ( !isGradient() )
+            return getColour1();
+        
+        Paint paint = gradient;
+        if ( paint == null ) {
+            paint = new GradientPaint(getX1Coordinate(), getY1Coordinate(), getColour1(),
+                                      getX2Coordinate(), getY2Coordinate(), getColour2(), true);
+            gradient = paint;
+            RenderStats.renderObjectCreated();
+        }
+        return paint;
+    } // end method
+    
+    /**
+     * Returns the stroke of the shape, shared with every other shape that has
+     * the same width and dash pattern.
+     *
+     * @return A {@link BasicStroke}.
+     */
+    public BasicStroke getStroke() {
+        return style.getStroke();
+    } // end method
+    
+    /**
+     * Returns the java.awt.geom version of the shape. It is only built again
+     * after the shape has been changed.
+     *
+     * @return The geometry of the shape.
+     */
+    public Shape getGeometry() {
+        Shape shape = geometry;
+        if ( shape == null ) {
+            shape = buildGeometry();
+            geometry = shape;
+        }
+        return shape;
+    } // end method
+    
+    /**
+     * Returns the geometry to draw when one unit covers the given number of
+     * device pixels. Shapes defined by a few points always use their full
+     * geometry (see {@link MyPolygon} for one that does not).
+     *
+     * @param scale Device pixels per unit, e.g. 0.5 for a half-size view.
+     * @return The geometry of the shape.
+     */
+    public Shape getGeometry( double scale ) {
+        return getGeometry();
+    } // end method
+    
+    /**
+     * Forgets the geometry (and dashed outline) of the shape, so that it is
+     * built again on the next draw. Called whenever the shape changes.
+     */
+    protected void invalidateGeometry() {
+        geometry = null;
+        dashedOutline = null;
+    } // end method
+    
+    /**
+     * Draws the outline of the shape with its stroke. Dashing is expensive, so
+     * the dashed outline of a completed shape is computed once and filled on
+     * every later draw.
+     *
+     * @param g2d {@link Graphics2D}
+     */
+    protected void drawOutline( Graphics2D g2d ) {
+        if ( isDashed() && isCompleted ) {
+            Shape outline = dashedOutline;
+            if ( outline == null ) {
+                outline = getStroke().createStrokedShape( getGeometry() );
+                dashedOutline = outline;
+            }
+            g2d.fill( outline );
+        }
+        else {
+            g2d.draw( getGeometry() );
+        } // end if
+    } // end method
+    
     /**
      * Sets up a shape based on certain features.
      *
      * @param g2d {@link Graphics2D}
      */
     protected void setupShape( Graphics2D g2d ) {
-        // set gradient (if not in gradient mode, then set all colours the same
-        if ( isGradient() )
-            g2d.setPaint(new GradientPaint(getX1Coordinate(),
-                                           getY1Coordinate(), getColour1(), getX2Coordinate(),
-                                           getY2Coordinate(), getColour2(), true));
-        else
-            g2d.setPaint(new GradientPaint(getX1Coordinate(),
-                                           getY1Coordinate(), getColour1(), getX2Coordinate(),
-                                           getY2Coordinate(), getColour1(), true));
-        
-        // set dashed
-        if ( isDashed() )
-            g2d.setStroke(new BasicStroke(getStrokeWidth(),
-                                          BasicStroke.CAP_SQUARE, BasicStroke.JOIN_ROUND, 1f,
-                                          getDashLength(), 0));
-        else
-            g2d.setStroke(new BasicStroke(getStrokeWidth(),
-                                          BasicStroke.CAP_SQUARE, BasicStroke.JOIN_ROUND));
+        g2d.setPaint( getPaint() );
+        g2d.setStroke( getStroke() );
     } // end method
     
+    /**
+     * Will be inherited in order to build the java.awt.geom version of a
+     * specific shape from its coordinates.
+     *
+     * @return The geometry of the shape.
+     */
+    protected abstract Shape buildGeometry();
+    
     /**
      * Will be inherited in order to draw a specific shape.
      *
      * @param g The {@link java.awt.Graphics} class.
      */
     public abstract void draw( Graphics2D g2d );
-    
+
 } // end class
\ No newline at end of file
@@ -0,0 +1,513 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A {@link ShapeStore} that keeps its shapes outside of the Java heap, in
+ * direct byte buffers, for drawings of millions of shapes: the garbage
+ * collector never has to trace or copy them, so the heap stays small and a
+ * full collection stays short however large the drawing is.
+ * <p>
+ * Each shape is a fixed-width record (type, flags, four coordinates, style id
+ * and order key). The points of polygons (two ints each) and the encoded
+ * points of pencil strokes are stored one after the other in two more
+ * buffers: the first two coordinates of the record of a polygon or stroke are
+ * the offset and number of its points (or bytes) there. Removed shapes are
+ * flagged. The points of a removed shape are dropped at once if they are the
+ * last of their buffer; otherwise they are left in place until the points
+ * left behind make up half of the buffer, and then the points still in use
+ * are moved down over them (see {@link #compact}), so that a long session of
+ * removing and undoing does not keep taking more direct memory. A snapshot is
+ * a copy of the buffers (see {@link #snapshot}).
+ * <p>
+ * The program uses this store for its layers when started with
+ * -Dpaint.offheap=true. Direct memory has its own limit
+ * (-XX:MaxDirectMemorySize, by default the maximum heap size), and a buffer
+ * is limited to 2 GB, i.e. about 76 million shapes.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+final class OffHeapShapeStore extends ShapeStore {
+    public static final boolean ENABLED = Boolean.getBoolean( "paint.offheap" );
+    
+    // layout of a record, in bytes
+    private static final int TYPE = 0;
+    private static final int FLAGS = 1;
+    private static final int X1 = 4;
+    private static final int Y1 = 8;
+    private static final int X2 = 12;
+    private static final int Y2 = 16;
+    private static final int STYLE = 20;
+    private static final int ORDER = 24;
+    private static final int RECORD_SIZE = 28;
+    private static final int POINT_SIZE = 8;
+    
+    // flags
+    private static final byte REMOVED = 1;
+    
+    private static final int INITIAL_CAPACITY = 64; // shapes, points or bytes
+    
+    private int size; // records in use, including removed ones
+    private int liveCount;
+    private int topOrder;
+    private int bottomOrder;
+    private ByteBuffer records;
+    
+    // points of every polygon, and encoded points of every pencil stroke,
+    // with the number of them no longer used by any shape
+    private int pointCount;
+    private int deadPointCount;
+    private ByteBuffer points;
+    private int pencilByteCount;
+    private int deadPencilByteCount;
+    private ByteBuffer pencilBytes;
+    
+    /**
+     * Constructor: creates an empty store.
+     */
+    public OffHeapShapeStore() {
+        makeEmpty();
+    } // end constructor
+    
+    /**
+     * Gets the number of shapes in the store.
+     *
+     * @return The number of shapes.
+     */
+    public int getSize() {
+        return liveCount;
+    } // end method
+    
+    /**
+     * Returns one more than the highest handle in use.
+     *
+     * @return The end of the handles.
+     */
+    public int getEnd() {
+        return size;
+    } // end method
+    
+    /**
+     * Returns whether a handle refers to a shape in the store.
+     *
+     * @param handle The handle of a shape.
+     * @return Whether the shape is in the store.
+     */
+    public boolean contains( int handle ) {
+        return handle >= 0 && handle < size &&
+            (records.get( handle * RECORD_SIZE + FLAGS ) & REMOVED) == 0;
+    } // end method
+    
+    /**
+     * Copies a completed shape to the end of the store (on top of every other
+     * shape). Later changes to the shape object are not seen by the store.
+     *
+     * @param shape The shape to store.
+     * @return The handle of the shape.
+     */
+    public int add( MyShape shape ) {
+        put( size, shape, topOrder + 1 );
+        return size - 1;
+    } // end method
+    
+    /**
+     * Copies a completed shape to a handle that is not in use, with a given
+     * order key. Its points are added after those of every other shape.
+     *
+     * @param index The handle, which must not refer to a shape.
+     * @param shape The shape to store.
+     * @param order The order key of the shape.
+     */
+    public void put( int index, MyShape shape, int order ) {
+        records = ensureCapacity( records, (Math.max( size, index ) + 1L) * RECORD_SIZE );
+        for ( ; size < index; size++ ) {
+            records.put( size * RECORD_SIZE + TYPE, LINE ); // holds no points
+            records.put( size * RECORD_SIZE + FLAGS, REMOVED );
+        }
+        
+        int record = index * RECORD_SIZE;
+        records.put( record + FLAGS, (byte) 0 );
+        records.putInt( record + STYLE, shape.getStyle().getId() );
+        records.putInt( record + X2, shape.getX2Coordinate() );
+        records.putInt( record + Y2, shape.getY2Coordinate() );
+        records.putInt( record + ORDER, order );
+        topOrder = Math.max( topOrder, order );
+        bottomOrder = Math.min( bottomOrder, order );
+        
+        if ( shape instanceof MyPolygon ) {
+            MyPolygon polygon = (MyPolygon) shape;
+            int count = polygon.getNumberPoints();
+            points = ensureCapacity( points, ((long) pointCount + count) * POINT_SIZE );
+            for ( int i = 0; i < count; i++ ) {
+                points.putInt( (pointCount + i) * POINT_SIZE, polygon.getXCoordinate( i ) );
+                points.putInt( (pointCount + i) * POINT_SIZE + 4, polygon.getYCoordinate( i ) );
+            }
+            
+            records.put( record + TYPE, POLYGON );
+            records.putInt( record + X1, pointCount );
+            records.putInt( record + Y1, count );
+            pointCount += count;
+        }
+        else if ( shape instanceof MyPencil ) {
+            byte[] encoded = ((MyPencil) shape).getEncodedPoints();
+            pencilBytes = ensureCapacity( pencilBytes, (long) pencilByteCount + encoded.length );
+            ByteBuffer target = pencilBytes.duplicate();
+            target.position( pencilByteCount );
+            target.put( encoded );
+            
+            records.put( record + TYPE, PENCIL );
+            records.putInt( record + X1, pencilByteCount );
+            records.putInt( record + Y1, encoded.length );
+            pencilByteCount += encoded.length;
+        }
+        else {
+            if ( shape instanceof MyOval )
+                records.put( record + TYPE, OVAL );
+            else if ( shape instanceof MyRectangle )
+                records.put( record + TYPE, RECTANGLE );
+            else
+                records.put( record + TYPE, LINE );
+            records.putInt( record + X1, shape.getX1Coordinate() );
+            records.putInt( record + Y1, shape.getY1Coordinate() );
+        } // end if
+        
+        size = Math.max( size, index + 1 );
+        liveCount++;
+    } // end method
+    
+    /**
+     * Returns the highest order key given so far.
+     *
+     * @return The order key.
+     */
+    public int getTopOrder() {
+        return topOrder;
+    } // end method
+    
+    /**
+     * Removes a shape. Its record is only reused once every shape added after
+     * it has been removed too.
+     *
+     * @param handle The handle of the shape.
+     * @return Whether the shape was in the store.
+     */
+    public boolean remove( int handle ) {
+        if ( !contains( handle ) )
+            return false;
+        
+        // the points are dropped at once if they are at the end of their
+        // buffer, or else left behind until there are enough to compact
+        int record = handle * RECORD_SIZE;
+        int offset = getX1Coordinate( handle );
+        int count = getY1Coordinate( handle );
+        if ( getType( handle ) == POLYGON ) {
+            if ( offset + count == pointCount )
+                pointCount = offset;
+            else
+                deadPointCount += count;
+        }
+        else if ( getType( handle ) == PENCIL ) {
+            if ( offset + count == pencilByteCount )
+                pencilByteCount = offset;
+            else
+                deadPencilByteCount += count;
+        } // end if
+        records.put( record + TYPE, LINE ); // holds no points
+        records.put( record + FLAGS, (byte) (records.get( record + FLAGS ) | REMOVED) );
+        liveCount--;
+        forgetRendering( handle );
+        
+        while ( size > 0 && (records.get( (size - 1) * RECORD_SIZE + FLAGS ) & REMOVED) != 0 )
+            size--;
+        if ( deadPointCount > INITIAL_CAPACITY && 2 * deadPointCount > pointCount )
+            compact( POLYGON );
+        if ( deadPencilByteCount > INITIAL_CAPACITY && 2 * deadPencilByteCount > pencilByteCount )
+            compact( PENCIL );
+        return true;
+    } // end method
+    
+    /**
+     * Returns the drawing order of a shape.
+     *
+     * @param handle The handle of the shape.
+     * @return The order key.
+     */
+    public int getOrder( int handle ) {
+        return records.getInt( handle * RECORD_SIZE + ORDER );
+    } // end method
+    
+    /**
+     * Moves a shape above every other shape.
+     *
+     * @param handle The handle of the shape.
+     * @return The new order key of the shape.
+     */
+    public int bringToFront( int handle ) {
+        records.putInt( handle * RECORD_SIZE + ORDER, ++topOrder );
+        return topOrder;
+    } // end method
+    
+    /**
+     * Gives a shape a given order key, e.g. to restore a drawing order that
+     * was saved. Shapes brought to the front or sent to the back later are
+     * still drawn above or below it.
+     *
+     * @param handle The handle of the shape.
+     * @param order The order key.
+     */
+    public void setOrder( int handle, int order ) {
+        records.putInt( handle * RECORD_SIZE + ORDER, order );
+        topOrder = Math.max( topOrder, order );
+        bottomOrder = Math.min( bottomOrder, order );
+    } // end method
+    
+    /**
+     * Moves a shape below every other shape.
+     *
+     * @param handle The handle of the shape.
+     * @return The new order key of the shape.
+     */
+    public int sendToBack( int handle ) {
+        records.putInt( handle * RECORD_SIZE + ORDER, --bottomOrder );
+        return bottomOrder;
+    } // end method
+    
+    /**
+     * Removes every shape. The old buffers are freed once they are collected.
+     */
+    public void makeEmpty() {
+        forgetRenderings();
+        size = 0;
+        liveCount = 0;
+        topOrder = 0;
+        bottomOrder = 0;
+        records = allocate( INITIAL_CAPACITY * RECORD_SIZE );
+        
+        pointCount = 0;
+        deadPointCount = 0;
+        points = allocate( INITIAL_CAPACITY * POINT_SIZE );
+        
+        pencilByteCount = 0;
+        deadPencilByteCount = 0;
+        pencilBytes = allocate( INITIAL_CAPACITY );
+    } // end method
+    
+    /**
+     * Returns a copy of the store, made of new buffers holding what is in use
+     * in the old ones (the store is not persistent: direct memory is copied
+     * in bulk, which takes a few milliseconds per million shapes).
+     *
+     * @return A new store with the same shapes, handles and order keys.
+     */
+    public ShapeStore snapshot() {
+        OffHeapShapeStore copy = new OffHeapShapeStore();
+        copy.size = size;
+        copy.liveCount = liveCount;
+        copy.topOrder = topOrder;
+        copy.bottomOrder = bottomOrder;
+        copy.records = copy( records, size * RECORD_SIZE );
+        copy.pointCount = pointCount;
+        copy.deadPointCount = deadPointCount;
+        copy.points = copy( points, pointCount * POINT_SIZE );
+        copy.pencilByteCount = pencilByteCount;
+        copy.deadPencilByteCount = deadPencilByteCount;
+        copy.pencilBytes = copy( pencilBytes, pencilByteCount );
+        return copy;
+    } // end method
+    
+    /**
+     * Returns the type of a shape, without creating it.
+     *
+     * @param index The handle of the shape.
+     * @return LINE, OVAL, RECTANGLE, POLYGON or PENCIL.
+     */
+    public byte getType( int index ) {
+        return records.get( index * RECORD_SIZE + TYPE );
+    } // end method
+    
+    /**
+     * Returns the first x coordinate of a shape, without creating it.
+     *
+     * @param index The handle of the shape.
+     * @return The x coordinate.
+     */
+    public int getX1Coordinate( int index ) {
+        return records.getInt( index * RECORD_SIZE + X1 );
+    } // end method
+    
+    /**
+     * Returns the first y coordinate of a shape, without creating it.
+     *
+     * @param index The handle of the shape.
+     * @return The y coordinate.
+     */
+    public int getY1Coordinate( int index ) {
+        return records.getInt( index * RECORD_SIZE + Y1 );
+    } // end method
+    
+    /**
+     * Returns the second x coordinate of a shape, without creating it.
+     *
+     * @param index The handle of the shape.
+     * @return The x coordinate.
+     */
+    public int getX2Coordinate( int index ) {
+        return records.getInt( index * RECORD_SIZE + X2 );
+    } // end method
+    
+    /**
+     * Returns the second y coordinate of a shape, without creating it.
+     *
+     * @param index The handle of the shape.
+     * @return The y coordinate.
+     */
+    public int getY2Coordinate( int index ) {
+        return records.getInt( index * RECORD_SIZE + Y2 );
+    } // end method
+    
+    /**
+     * Returns the (shared) style of a shape, without creating it.
+     *
+     * @param index The handle of the shape.
+     * @return The style.
+     */
+    public ShapeStyle getStyle( int index ) {
+        return StyleRegistry.getStyle( records.getInt( index * RECORD_SIZE + STYLE ) );
+    } // end method
+    
+    /**
+     * Returns the number of points of a polygon, without creating it.
+     *
+     * @param index The handle of the polygon.
+     * @return The number of points.
+     */
+    public int getPointCount( int index ) {
+        return getY1Coordinate( index );
+    } // end method
+    
+    /**
+     * Returns the x coordinate of a point of a polygon, without creating it.
+     *
+     * @param index The handle of the polygon.
+     * @param point The index of the point (0 is the first point).
+     * @return The x coordinate.
+     */
+    public int getPointX( int index, int point ) {
+        return points.getInt( (getX1Coordinate( index ) + point) * POINT_SIZE );
+    } // end method
+    
+    /**
+     * Returns the y coordinate of a point of a polygon, without creating it.
+     *
+     * @param index The handle of the polygon.
+     * @param point The index of the point (0 is the first point).
+     * @return The y coordinate.
+     */
+    public int getPointY( int index, int point ) {
+        return points.getInt( (getX1Coordinate( index ) + point) * POINT_SIZE + 4 );
+    } // end method
+    
+    /**
+     * Returns the encoded points of a pencil stroke, without copying them out
+     * of direct memory.
+     *
+     * @param index The handle of the stroke.
+     * @return A buffer over the points (which must not be changed).
+     */
+    public ByteBuffer getEncodedPoints( int index ) {
+        return pencilBytes.slice( getX1Coordinate( index ), getY1Coordinate( index ) );
+    } // end method
+    
+    /**
+     * Returns the direct memory held by the buffers of the store.
+     *
+     * @return The number of bytes.
+     */
+    public long getMemoryUsed() {
+        return (long) records.capacity() + points.capacity() + pencilBytes.capacity();
+    } // end method
+    
+    /**
+     * Returns a buffer that holds at least the given number of bytes: the
+     * buffer itself, or a copy twice as large.
+     *
+     * @param buffer The buffer.
+     * @param needed The number of bytes needed.
+     * @return The buffer to use from now on.
+     * @throws OutOfMemoryError If more than 2 GB are needed.
+     */
+    private static ByteBuffer ensureCapacity( ByteBuffer buffer, long needed ) {
+        if ( needed <= buffer.capacity() )
+            return buffer;
+        if ( needed > Integer.MAX_VALUE )
+            throw new OutOfMemoryError( "Too many shapes for an off-heap store" );
+        
+        ByteBuffer larger = allocate( (int) Math.min( Integer.MAX_VALUE,
+                                                    Math.max( 2L * buffer.capacity(), needed ) ) );
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        larger.put( source );
+        larger.clear();
+        return larger;
+    } // end method
+    
+    /**
+     * Moves the points of the polygons (or the encoded points of the strokes)
+     * still in the store into a new buffer, one after the other in the order
+     * of their handles, leaving out those of removed shapes.
+     *
+     * @param type POLYGON or PENCIL.
+     */
+    private void compact( byte type ) {
+        int unit = type == POLYGON ? POINT_SIZE : 1;
+        ByteBuffer source = type == POLYGON ? points : pencilBytes;
+        int used = type == POLYGON ? pointCount - deadPointCount :
+            pencilByteCount - deadPencilByteCount;
+        ByteBuffer compacted = allocate( Math.max( used, INITIAL_CAPACITY ) * unit );
+        
+        int moved = 0;
+        for ( int handle = 0; handle < size; handle++ ) {
+            if ( getType( handle ) != type || !contains( handle ) )
+                continue;
+            int count = getY1Coordinate( handle );
+            compacted.put( moved * unit, source, getX1Coordinate( handle ) * unit, count * unit );
+            records.putInt( handle * RECORD_SIZE + X1, moved );
+            moved += count;
+        } // end for
+        
+        if ( type == POLYGON ) {
+            points = compacted;
+            pointCount = moved;
+            deadPointCount = 0;
+        }
+        else {
+            pencilBytes = compacted;
+            pencilByteCount = moved;
+            deadPencilByteCount = 0;
+        } // end if
+    } // end method
+    
+    /**
+     * Copies the start of a buffer into a new one.
+     *
+     * @param buffer The buffer.
+     * @param length The number of bytes in use.
+     * @return The new buffer, of at least the initial capacity.
+     */
+    private static ByteBuffer copy( ByteBuffer buffer, int length ) {
+        ByteBuffer copy = allocate( Math.max( length, INITIAL_CAPACITY ) );
+        copy.put( buffer.duplicate().clear().limit( length ) );
+        copy.clear();
+        return copy;
+    } // end method
+    
+    /**
+     * Allocates a direct buffer in the byte order of the processor.
+     *
+     * @param capacity The number of bytes.
+     * @return The buffer.
+     */
+    private static ByteBuffer allocate( int capacity ) {
+        return ByteBuffer.allocateDirect( capacity ).order( ByteOrder.nativeOrder() );
+    } // end method
+} // end class
\ No newline at end of file
@@ -0,0 +1,578 @@
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.swing.JLabel;
+
+/**
+ * Measures how the shape storage of the paint program behaves with very large
+ * drawings, without a display. Usage:
+ * <pre>
+ * java PaintBenchmark [-shapes N] memory|polygon|offheap|persistent|file|journal
+ * </pre>
+ * <ul>
+ * <li><b>memory</b>: the heap used by N random shapes (one million by
+ * default) kept as a {@link LinkedList} of {@link MyShape} objects, compared
+ * with a {@link PersistentShapeStore}, and the time to walk through each of them
+ * (the fastest of several walks); then the time to draw the store, the first
+ * time and once what is built to draw it is kept.</li>
+ * <li><b>polygon</b>: the time and memory allocated to start a polygon (as
+ * on a mouse press) with the growable point buffer of {@link MyPolygon},
+ * compared with the fixed 10,000-point arrays it used to allocate, and to
+ * build a polygon of N/10 points (100,000 by default).</li>
+ * <li><b>offheap</b>: the heap and direct memory used by N random shapes in a
+ * {@link LinkedList}, a {@link PersistentShapeStore} and an {@link OffHeapShapeStore}
+ * (each on its own), and how long a full garbage collection takes while the
+ * drawing is alive.</li>
+ * <li><b>persistent</b>: the time to add N shapes, walk through them, take a
+ * snapshot of them and undo every one of them, with the shapes in a
+ * {@link LinkedList} and the shapes undone in a second one (used as a
+ * stack), compared with a {@link Layer} and its history; and the time to
+ * clear the layer and undo the clear.</li>
+ * <li><b>file</b>: the size of a drawing of N random shapes saved as a text
+ * {@link DrawingFile} and as a {@link BinaryDrawingFile}, and the time to
+ * save and to open each (in temporary files).</li>
+ * <li><b>journal</b>: the time to record N random shapes in a
+ * {@link DrawingJournal} (on the recording thread, and until they are all on
+ * disk), the number of forces to disk needed, and how long one force takes
+ * on its own; then the time to recover the drawing from the journal.</li>
+ * </ul>
+ * Run with a large heap (e.g. -Xmx2g), since both versions are alive while
+ * they are measured.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+public class PaintBenchmark {
+    private static final int DEFAULT_SHAPES = 1000000;
+    private static final int DRAWING_SIZE = 4000;
+    private static final int FIXED_POINTS = 10000; // the old, fixed size of a polygon
+    private static final int REPEATS = 20000;
+    private static final int COLLECTIONS = 5; // full collections timed per version
+    private static final int WALK_ROUNDS = 10; // the fastest walk counts
+    
+    private static long sink; // keeps the compiler from skipping the measured work
+    
+    private int shapeCount;
+    
+    /**
+     * Constructor.
+     *
+     * @param shapeCount The number of shapes in the test drawings.
+     */
+    public PaintBenchmark( int shapeCount ) {
+        this.shapeCount = shapeCount;
+    } // end constructor
+    
+    /**
+     * Creates the same sequence of random shapes on every call: mostly lines,
+     * rectangles and ovals with the toolbar's colours and strokes, and a few
+     * small polygons.
+     *
+     * @param random The random number generator (seeded by the caller).
+     * @return A completed shape.
+     */
+    public static MyShape createShape( Random random ) {
+        Color[] colours = { Color.BLACK, Color.RED, Color.BLUE, Color.GREEN, Color.ORANGE };
+        Color colour1 = colours[random.nextInt( colours.length )];
+        Color colour2 = colours[random.nextInt( colours.length )];
+        float strokeWidth = 1 + random.nextInt( 4 );
+        float[] dashLength = { 1 + random.nextInt( 2 ) * 9 };
+        boolean isGradient = random.nextInt( 8 ) == 0;
+        boolean isDashed = random.nextInt( 8 ) == 0;
+        boolean filled = random.nextBoolean();
+        
+        int x = random.nextInt( DRAWING_SIZE );
+        int y = random.nextInt( DRAWING_SIZE );
+        int x2 = x + random.nextInt( 100 );
+        int y2 = y + random.nextInt( 100 );
+        
+        switch ( random.nextInt( 16 ) ) {
+            case 0:
+                MyPolygon polygon = new MyPolygon( x, y, colour1, colour2, strokeWidth, dashLength,
+                                                  isGradient, isDashed, filled, false );
+                int points = 3 + random.nextInt( 6 );
+                for ( int i = 1; i < points; i++ )
+                    polygon.addPoint( x + random.nextInt( 100 ), y + random.nextInt( 100 ) );
+                polygon.setCompleted( true );
+                return polygon;
+            case 1: case 2: case 3: case 4: case 5:
+                return new MyOval( x, y, x2, y2, colour1, colour2, strokeWidth, dashLength,
+                                  isGradient, isDashed, filled );
+            case 6: case 7: case 8: case 9: case 10:
+                return new MyRectangle( x, y, x2, y2, colour1, colour2, strokeWidth, dashLength,
+                                       isGradient, isDashed, filled );
+            default:
+                return new MyLine( x, y, x2, y2, colour1, colour2, strokeWidth, dashLength,
+                                  isGradient, isDashed );
+        } // end switch
+    } // end method
+    
+    /**
+     * Compares the memory used by a linked list of shape objects and by a
+     * shape store holding the same shapes, and the time to read the
+     * coordinates of every shape from each (after a warm-up). Then draws the
+     * store twice, as tiles would be drawn.
+     */
+    public void runMemory() {
+        long baseline = getUsedMemory();
+        LinkedList list = new LinkedList();
+        Random random = new Random( 1 );
+        for ( int i = 0; i < shapeCount; i++ )
+            list.addEnd( createShape( random ) );
+        long listBytes = getUsedMemory() - baseline;
+        
+        baseline = getUsedMemory();
+        ShapeStore store = new PersistentShapeStore();
+        random = new Random( 1 );
+        for ( int i = 0; i < shapeCount; i++ )
+            store.add( createShape( random ) );
+        long storeBytes = getUsedMemory() - baseline;
+        
+        // walk through both, as painting every shape would; each walk is run
+        // several times, so that both are compiled, and the fastest run counts
+        long listTime = Long.MAX_VALUE;
+        long storeTime = Long.MAX_VALUE;
+        long sum = 0;
+        for ( int round = 0; round < WALK_ROUNDS; round++ ) {
+            long start = System.nanoTime();
+            for ( ListNode node = list.peek(); node != null; node = node.getNext() )
+                sum += ((MyShape) node.getValue()).getX2Coordinate();
+            listTime = Math.min( listTime, System.nanoTime() - start );
+            
+            start = System.nanoTime();
+            int end = store.getEnd();
+            for ( int i = 0; i < end; i++ )
+                sum -= store.getX2Coordinate( i );
+            storeTime = Math.min( storeTime, System.nanoTime() - start );
+        } // end for
+        
+        // draw every shape of the store twice at a quarter of its size, as the
+        // tiles of a zoomed-out view are: the second time, the paths of the
+        // polygons and the other shapes drawn on their own are kept
+        int[] handles = new int[store.getEnd()];
+        for ( int i = 0; i < handles.length; i++ )
+            handles[i] = i;
+        BufferedImage image = new BufferedImage( DRAWING_SIZE / 4, DRAWING_SIZE / 4,
+                                                BufferedImage.TYPE_INT_ARGB_PRE );
+        Graphics2D g2d = image.createGraphics();
+        g2d.scale( 0.25, 0.25 );
+        long start = System.nanoTime();
+        ShapeBatcher.draw( g2d, store, handles, 0, handles.length );
+        long firstDraw = System.nanoTime() - start;
+        start = System.nanoTime();
+        ShapeBatcher.draw( g2d, store, handles, 0, handles.length );
+        long secondDraw = System.nanoTime() - start;
+        g2d.dispose();
+        
+        System.out.println( String.format( "memory: %d shapes", shapeCount ) );
+        System.out.println( String.format( "  LinkedList: %.1f MB (%d bytes per shape), walk %.1f ms",
+                                          listBytes / 1e6, listBytes / shapeCount, listTime / 1e6 ) );
+        System.out.println( String.format( "  PersistentShapeStore: %.1f MB (%d bytes per shape), walk %.1f ms",
+                                          storeBytes / 1e6, storeBytes / shapeCount, storeTime / 1e6 ) );
+        System.out.println( String.format( "  PersistentShapeStore: draw at 1/4 size %.1f ms, again %.1f ms",
+                                          firstDraw / 1e6, secondDraw / 1e6 ) );
+        if ( sum != 0 )
+            System.out.println( "  (the two versions differ)" );
+    } // end method
+    
+    /**
+     * Compares starting polygons with the growable point buffer and with
+     * the fixed arrays it replaced, then builds one very large polygon.
+     */
+    public void runPolygon() {
+        Color[] colours = { Color.BLACK, Color.BLUE };
+        float[] dashLength = { 10 };
+        long sum = 0;
+        
+        // warm up, then time starting many polygons (as many mouse presses)
+        for ( int round = 0; round < 2; round++ ) {
+            long start = System.nanoTime();
+            long allocated = getAllocatedBytes();
+            for ( int i = 0; i < REPEATS; i++ ) {
+                MyPolygon polygon = new MyPolygon( i, i, colours[0], colours[1], 1, dashLength,
+                                                  false, false, false, false );
+                sum += polygon.getNumberPoints();
+            }
+            long growableTime = System.nanoTime() - start;
+            long growableBytes = getAllocatedBytes() - allocated;
+            
+            start = System.nanoTime();
+            allocated = getAllocatedBytes();
+            for ( int i = 0; i < REPEATS; i++ ) {
+                // what the constructor used to do
+                int[] xCoords = new int[FIXED_POINTS];
+                int[] yCoords = new int[FIXED_POINTS];
+                Arrays.fill( xCoords, i );
+                Arrays.fill( yCoords, i );
+                sum += xCoords[FIXED_POINTS - 1] - yCoords[FIXED_POINTS - 1];
+            }
+            long fixedTime = System.nanoTime() - start;
+            long fixedBytes = getAllocatedBytes() - allocated;
+            
+            if ( round == 1 ) {
+                System.out.println( String.format( "polygon: start %d polygons", REPEATS ) );
+                System.out.println( String.format( "  fixed arrays: %.2f us, %d bytes per polygon",
+                                                  fixedTime / 1e3 / REPEATS, fixedBytes / REPEATS ) );
+                System.out.println( String.format( "  growable:     %.2f us, %d bytes per polygon",
+                                                  growableTime / 1e3 / REPEATS, growableBytes / REPEATS ) );
+            }
+        } // end for
+        
+        // a polygon far larger than the fixed arrays could hold
+        int points = Math.max( 3, shapeCount / 10 );
+        Random random = new Random( 1 );
+        long start = System.nanoTime();
+        long allocated = getAllocatedBytes();
+        MyPolygon polygon = new MyPolygon( 0, 0, colours[0], colours[1], 1, dashLength, false,
+                                          false, false, false );
+        for ( int i = 1; i < points; i++ ) {
+            polygon.addTempPoint( random.nextInt( DRAWING_SIZE ), random.nextInt( DRAWING_SIZE ) );
+            polygon.addPoint( random.nextInt( DRAWING_SIZE ), random.nextInt( DRAWING_SIZE ) );
+        }
+        polygon.setCompleted( true );
+        long buildTime = System.nanoTime() - start;
+        long buildBytes = getAllocatedBytes() - allocated;
+        
+        System.out.println( String.format( "  build %d points: %.1f ms, %.1f MB allocated (fixed "
+                                              + "arrays: at most %d points)",
+                                          polygon.getNumberPoints(), buildTime / 1e6,
+                                          buildBytes / 1e6, FIXED_POINTS - 2 ) );
+        sink += sum;
+    } // end method
+    
+    /**
+     * Compares the memory used by the same random shapes in a linked list of
+     * shape objects, in a shape store and in an off-heap shape store, and the
+     * pause of a full garbage collection (which traces every object on the
+     * heap) while each of them is alive.
+     */
+    public void runOffHeap() {
+        String[] names = { "LinkedList", "PersistentShapeStore", "OffHeapShapeStore" };
+        System.out.println( String.format( "offheap: %d shapes", shapeCount ) );
+        
+        for ( int version = 0; version < names.length; version++ ) {
+            long baseline = getUsedMemory();
+            long directBaseline = getDirectMemory();
+            Random random = new Random( 1 );
+            Object drawing;
+            if ( version == 0 ) {
+                LinkedList list = new LinkedList();
+                for ( int i = 0; i < shapeCount; i++ )
+                    list.addEnd( createShape( random ) );
+                drawing = list;
+            }
+            else {
+                ShapeStore store = ( version == 1 ) ? new PersistentShapeStore() :
+                    new OffHeapShapeStore();
+                for ( int i = 0; i < shapeCount; i++ )
+                    store.add( createShape( random ) );
+                drawing = store;
+            } // end if
+            long heapBytes = getUsedMemory() - baseline;
+            long directBytes = getDirectMemory() - directBaseline;
+            
+            long pause = 0;
+            for ( int i = 0; i < COLLECTIONS; i++ ) {
+                long start = System.nanoTime();
+                System.gc();
+                pause += System.nanoTime() - start;
+            }
+            
+            System.out.println( String.format( "  %-20s heap %6.1f MB, direct %6.1f MB, full GC %6.1f ms",
+                                              names[version], heapBytes / 1e6, directBytes / 1e6,
+                                              pause / 1e6 / COLLECTIONS ) );
+            sink += drawing.hashCode(); // keeps the drawing alive until now
+        } // end for
+    } // end method
+    
+    /**
+     * Compares a linked list of shapes, with a second list as the stack of
+     * shapes undone, with a {@link Layer} (whose store is persistent, see
+     * {@link PersistentShapeStore}): adding the shapes, walking through them,
+     * taking a snapshot that later edits do not change (a copy of the list),
+     * undoing every shape one by one, and clearing the drawing and undoing the
+     * clear. The layer does all that it does in the program: it also keeps its
+     * index, tiles and history up to date.
+     */
+    public void runPersistent() {
+        MyShape[] shapes = new MyShape[shapeCount];
+        Random random = new Random( 1 );
+        for ( int i = 0; i < shapeCount; i++ )
+            shapes[i] = createShape( random );
+        long sum = 0;
+        
+        // warm up, then time each operation
+        for ( int round = 0; round < 2; round++ ) {
+            long start = System.nanoTime();
+            LinkedList list = new LinkedList();
+            for ( int i = 0; i < shapeCount; i++ )
+                list.addEnd( shapes[i] );
+            long listAdd = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            for ( ListNode node = list.peek(); node != null; node = node.getNext() )
+                sum += ((MyShape) node.getValue()).getX2Coordinate();
+            long listWalk = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            LinkedList copy = new LinkedList();
+            for ( ListNode node = list.peek(); node != null; node = node.getNext() )
+                copy.addEnd( node.getValue() );
+            long listSnapshot = System.nanoTime() - start;
+            
+            // as the paint program did: the last shape is moved to the stack
+            start = System.nanoTime();
+            LinkedList undone = new LinkedList();
+            while ( !list.isEmpty() )
+                undone.addFront( list.removeEnd() );
+            long listUndo = System.nanoTime() - start;
+            sum += copy.getSize() + undone.getSize();
+            
+            start = System.nanoTime();
+            Layer layer = new Layer( "Layer 1" );
+            for ( int i = 0; i < shapeCount; i++ )
+                layer.addShape( shapes[i] );
+            long layerAdd = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            ShapeStore snapshot = layer.getSnapshot();
+            long layerSnapshot = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            for ( int i = 0; i < snapshot.getEnd(); i++ )
+                sum -= snapshot.getX2Coordinate( i );
+            long layerWalk = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            layer.clear( 0 );
+            layer.undo();
+            long layerClear = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            while ( layer.undo() != null )
+                ;
+            long layerUndo = System.nanoTime() - start;
+            sum += snapshot.getSize() - shapeCount + layer.getSize();
+            
+            if ( round == 1 ) {
+                System.out.println( String.format( "persistent: %d shapes", shapeCount ) );
+                System.out.println( String.format( "  LinkedList: add %6.1f ms, walk %6.1f ms, "
+                                                      + "snapshot %8.3f ms, undo all %6.1f ms",
+                                                  listAdd / 1e6, listWalk / 1e6, listSnapshot / 1e6,
+                                                  listUndo / 1e6 ) );
+                System.out.println( String.format( "  Layer:      add %6.1f ms, walk %6.1f ms, "
+                                                      + "snapshot %8.3f ms, undo all %6.1f ms",
+                                                  layerAdd / 1e6, layerWalk / 1e6,
+                                                  layerSnapshot / 1e6, layerUndo / 1e6 ) );
+                System.out.println( String.format( "  Layer:      clear and undo the clear %.3f ms, "
+                                                      + "%.1f MB for the shapes",
+                                                  layerClear / 1e6,
+                                                  snapshot.getMemoryUsed() / 1e6 ) );
+            }
+        } // end for
+        sink += sum;
+    } // end method
+    
+    /**
+     * Saves the same random drawing as a text file and as a binary file, then
+     * opens each of them again (the binary file twice, the second time being
+     * timed).
+     *
+     * @throws IOException If a temporary file cannot be written or read.
+     */
+    public void runFile() throws IOException {
+        ArrayList<MyShape> shapes = new ArrayList<MyShape>( shapeCount );
+        Layer layer = new Layer( "Layer 1" );
+        Random random = new Random( 1 );
+        for ( int i = 0; i < shapeCount; i++ ) {
+            MyShape shape = createShape( random );
+            shapes.add( shape );
+            layer.loadShape( shape );
+        }
+        List<Layer> layers = new ArrayList<Layer>();
+        layers.add( layer );
+        
+        File textFile = File.createTempFile( "benchmark", ".txt" );
+        File binaryFile = File.createTempFile( "benchmark", "." + BinaryDrawingFile.EXTENSION );
+        textFile.deleteOnExit();
+        binaryFile.deleteOnExit();
+        long binaryWrite = 0;
+        long binaryRead = 0;
+        
+        // the text file is only timed once: it takes far longer
+        long start = System.nanoTime();
+        DrawingFile.write( textFile, shapes );
+        long textWrite = System.nanoTime() - start;
+        
+        start = System.nanoTime();
+        sink += DrawingFile.read( textFile ).size();
+        long textRead = System.nanoTime() - start;
+        
+        for ( int round = 0; round < 2; round++ ) {
+            start = System.nanoTime();
+            BinaryDrawingFile.write( binaryFile, layers );
+            binaryWrite = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            sink += BinaryDrawingFile.read( binaryFile ).get( 0 ).getSize();
+            binaryRead = System.nanoTime() - start;
+        } // end for
+        
+        System.out.println( String.format( "file: %d shapes", shapeCount ) );
+        System.out.println( String.format( "  text:   %6.1f MB, save %6.1f ms, open %6.1f ms",
+                                          textFile.length() / 1e6, textWrite / 1e6, textRead / 1e6 ) );
+        System.out.println( String.format( "  binary: %6.1f MB, save %6.1f ms, open %6.1f ms "
+                                              + "(into a layer)",
+                                          binaryFile.length() / 1e6, binaryWrite / 1e6,
+                                          binaryRead / 1e6 ) );
+        textFile.delete();
+        binaryFile.delete();
+    } // end method
+    
+    /**
+     * Records a random drawing in a journal (in a temporary folder), as fast
+     * as it can be recorded, then a few shapes one at a time (each waiting
+     * until it is on disk); then recovers the drawing from the journal.
+     *
+     * @throws IOException If the journal cannot be written or read.
+     */
+    public void runJournal() throws IOException {
+        MyShape[] shapes = new MyShape[shapeCount];
+        Random random = new Random( 1 );
+        for ( int i = 0; i < shapeCount; i++ )
+            shapes[i] = createShape( random );
+        File directory = Files.createTempDirectory( "benchmark" ).toFile();
+        
+        DrawingJournal journal = new DrawingJournal( directory );
+        long start = System.nanoTime();
+        for ( MyShape shape : shapes )
+            journal.shapeAdded( 0, shape );
+        long record = System.nanoTime() - start;
+        journal.close();
+        long durable = System.nanoTime() - start;
+        File file = journal.getFile();
+        
+        // as a user draws: each shape is on its own in a frame
+        DrawingJournal single = new DrawingJournal( directory );
+        int singleCount = Math.min( shapeCount, 200 );
+        start = System.nanoTime();
+        for ( int i = 0; i < singleCount; i++ ) {
+            single.shapeAdded( 0, shapes[i] );
+            while ( single.getCommitCount() <= i )
+                Thread.yield();
+        } // end for
+        long singleCommit = (System.nanoTime() - start) / singleCount;
+        single.discard();
+        
+        DrawPanel drawPanel = new DrawPanel( new JLabel() );
+        start = System.nanoTime();
+        DrawingJournal recovered = DrawingJournal.recover( file, drawPanel );
+        long recover = System.nanoTime() - start;
+        sink += drawPanel.getLayer( 0 ).getSize();
+        
+        System.out.println( String.format( "journal: %d shapes", shapeCount ) );
+        System.out.println( String.format( "  record: %6.1f ms on the recording thread (%.0f ns per shape)",
+                                          record / 1e6, (double) record / shapeCount ) );
+        System.out.println( String.format( "  on disk after %6.1f ms: %.1f MB (%.1f MB/s), %d forces "
+                                              + "(%.0f shapes each)",
+                                          durable / 1e6, journal.getBytesWritten() / 1e6,
+                                          journal.getBytesWritten() / 1e3 / (durable / 1e6),
+                                          journal.getCommitCount(),
+                                          (double) shapeCount / journal.getCommitCount() ) );
+        System.out.println( String.format( "  one shape at a time: %.2f ms per force, i.e. %.1f s for "
+                                              + "a force per shape", singleCommit / 1e6,
+                                          singleCommit / 1e9 * shapeCount ) );
+        System.out.println( String.format( "  recover: %6.1f ms (into a panel, with its history)",
+                                          recover / 1e6 ) );
+        recovered.discard();
+        recovered.close();
+        directory.delete();
+    } // end method
+    
+    /**
+     * Returns the number of bytes allocated so far by the current thread, or
+     * 0 if the virtual machine cannot tell.
+     *
+     * @return The number of bytes.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if ( threads instanceof com.sun.management.ThreadMXBean )
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+                Thread.currentThread().getId() );
+        return 0;
+    } // end method
+    
+    /**
+     * Returns the direct memory (outside the heap) held by byte buffers.
+     *
+     * @return The number of bytes.
+     */
+    private static long getDirectMemory() {
+        for ( BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans( BufferPoolMXBean.class ) ) {
+            if ( pool.getName().equals( "direct" ) )
+                return pool.getMemoryUsed();
+        }
+        return 0;
+    } // end method
+    
+    /**
+     * Returns the heap in use after collecting the garbage.
+     *
+     * @return The number of bytes.
+     */
+    private static long getUsedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for ( int i = 0; i < 3; i++ )
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    } // end method
+    
+    public static void main( String[] args ) throws IOException {
+        System.setProperty( "java.awt.headless", "true" );
+        
+        int shapeCount = DEFAULT_SHAPES;
+        String mode = null;
+        for ( int i = 0; i < args.length; i++ ) {
+            if ( args[i].equals( "-shapes" ) && i + 1 < args.length )
+                shapeCount = Math.max( 1, Integer.parseInt( args[++i] ) );
+            else
+                mode = args[i];
+        } // end for
+        
+        PaintBenchmark benchmark = new PaintBenchmark( shapeCount );
+        if ( "memory".equals( mode ) ) {
+            benchmark.runMemory();
+        }
+        else if ( "polygon".equals( mode ) ) {
+            benchmark.runPolygon();
+        }
+        else if ( "offheap".equals( mode ) ) {
+            benchmark.runOffHeap();
+        }
+        else if ( "persistent".equals( mode ) ) {
+            benchmark.runPersistent();
+        }
+        else if ( "file".equals( mode ) ) {
+            benchmark.runFile();
+        }
+        else if ( "journal".equals( mode ) ) {
+            benchmark.runJournal();
+        }
+        else {
+            System.err.println( "Usage: java PaintBenchmark [-shapes N] "
+                                   + "memory|polygon|offheap|persistent|file|journal" );
+            System.exit( 2 );
+        } // end if
+    } // end main
+} // end class
\ No newline at end of file
@@ -0,0 +1,299 @@
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link ShapeStore} that keeps its shapes on the Java heap as a version of
+ * a {@link ShapeVector}: every edit makes a new version in O(log n), sharing
+ * everything else with the old one, so a snapshot of the store (see
+ * {@link #snapshot}) is taken in constant time and never changes, whatever is
+ * done to the store afterwards.
+ * <p>
+ * Handles, removal and the drawing order work as in every ShapeStore; the
+ * values of a polygon or stroke are its real coordinates, with its points
+ * kept beside them. This is the store of the layers of the program, unless
+ * it is started with -Dpaint.offheap=true (see {@link OffHeapShapeStore}).
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+final class PersistentShapeStore extends ShapeStore {
+    private ShapeVector version; // the shapes as they are now
+    private int topOrder; // order keys of the top-most and bottom-most shapes
+    private int bottomOrder;
+    
+    /**
+     * Constructor: creates an empty store.
+     */
+    public PersistentShapeStore() {
+        makeEmpty();
+    } // end constructor
+    
+    /**
+     * Constructor: creates a store that starts from a version of the shapes.
+     *
+     * @param version The version.
+     * @param topOrder The highest order key given so far.
+     * @param bottomOrder The lowest order key given so far.
+     */
+    private PersistentShapeStore( ShapeVector version, int topOrder, int bottomOrder ) {
+        this.version = version;
+        this.topOrder = topOrder;
+        this.bottomOrder = bottomOrder;
+    } // end constructor
+    
+    /**
+     * Gets the number of shapes in the store.
+     *
+     * @return The number of shapes.
+     */
+    public int getSize() {
+        return version.getSize();
+    } // end method
+    
+    /**
+     * Returns one more than the highest handle in use.
+     *
+     * @return The end of the handles.
+     */
+    public int getEnd() {
+        return version.getEnd();
+    } // end method
+    
+    /**
+     * Returns (an estimate of) the memory held by the current version,
+     * including what it shares with snapshots.
+     *
+     * @return The number of bytes.
+     */
+    public long getMemoryUsed() {
+        return version.getMemoryUsed();
+    } // end method
+    
+    /**
+     * Returns whether a handle refers to a shape in the store.
+     *
+     * @param handle The handle of a shape.
+     * @return Whether the shape is in the store.
+     */
+    public boolean contains( int handle ) {
+        return version.contains( handle );
+    } // end method
+    
+    /**
+     * Copies a completed shape to the end of the store (on top of every other
+     * shape). Later changes to the shape object are not seen by the store.
+     *
+     * @param shape The shape to store.
+     * @return The handle of the shape.
+     */
+    public int add( MyShape shape ) {
+        version = version.add( shape, ++topOrder );
+        return version.getEnd() - 1;
+    } // end method
+    
+    /**
+     * Copies a completed shape to a handle that is not in use, with a given
+     * order key.
+     *
+     * @param handle The handle, which must not refer to a shape.
+     * @param shape The shape to store.
+     * @param order The order key of the shape.
+     */
+    public void put( int handle, MyShape shape, int order ) {
+        version = version.put( handle, shape, order );
+        topOrder = Math.max( topOrder, order );
+        bottomOrder = Math.min( bottomOrder, order );
+    } // end method
+    
+    /**
+     * Returns the highest order key given so far.
+     *
+     * @return The order key.
+     */
+    public int getTopOrder() {
+        return topOrder;
+    } // end method
+    
+    /**
+     * Removes a shape. Its handle is only reused once every shape added after
+     * it has been removed too.
+     *
+     * @param handle The handle of the shape.
+     * @return Whether the shape was in the store.
+     */
+    public boolean remove( int handle ) {
+        if ( !contains( handle ) )
+            return false;
+        
+        version = version.remove( handle );
+        forgetRendering( handle );
+        return true;
+    } // end method
+    
+    /**
+     * Returns the drawing order of a shape.
+     *
+     * @param handle The handle of the shape.
+     * @return The order key.
+     */
+    public int getOrder( int handle ) {
+        return version.getOrder( handle );
+    } // end method
+    
+    /**
+     * Moves a shape above every other shape.
+     *
+     * @param handle The handle of the shape.
+     * @return The new order key of the shape.
+     */
+    public int bringToFront( int handle ) {
+        version = version.setOrder( handle, ++topOrder );
+        return topOrder;
+    } // end method
+    
+    /**
+     * Gives a shape a given order key, e.g. to restore a drawing order that
+     * was saved. Shapes brought to the front or sent to the back later are
+     * still drawn above or below it.
+     *
+     * @param handle The handle of the shape.
+     * @param order The order key.
+     */
+    public void setOrder( int handle, int order ) {
+        version = version.setOrder( handle, order );
+        topOrder = Math.max( topOrder, order );
+        bottomOrder = Math.min( bottomOrder, order );
+    } // end method
+    
+    /**
+     * Moves a shape below every other shape.
+     *
+     * @param handle The handle of the shape.
+     * @return The new order key of the shape.
+     */
+    public int sendToBack( int handle ) {
+        version = version.setOrder( handle, --bottomOrder );
+        return bottomOrder;
+    } // end method
+    
+    /**
+     * Removes every shape. Snapshots keep the shapes they had.
+     */
+    public void makeEmpty() {
+        forgetRenderings();
+        version = ShapeVector.EMPTY;
+        topOrder = 0;
+        bottomOrder = 0;
+    } // end method
+    
+    /**
+     * Returns the store as it is now, without copying anything: the snapshot
+     * shares the current version, which never changes.
+     *
+     * @return A new store with the same shapes, handles and order keys.
+     */
+    public ShapeStore snapshot() {
+        return new PersistentShapeStore( version, topOrder, bottomOrder );
+    } // end method
+    
+    /**
+     * Returns the type of a shape, without creating it.
+     *
+     * @param handle The handle of the shape.
+     * @return LINE, OVAL, RECTANGLE, POLYGON or PENCIL.
+     */
+    public byte getType( int handle ) {
+        return version.getType( handle );
+    } // end method
+    
+    /**
+     * Returns the first x coordinate of a shape, without creating it.
+     *
+     * @param handle The handle of the shape.
+     * @return The x coordinate.
+     */
+    public int getX1Coordinate( int handle ) {
+        return version.getX1Coordinate( handle );
+    } // end method
+    
+    /**
+     * Returns the first y coordinate of a shape, without creating it.
+     *
+     * @param handle The handle of the shape.
+     * @return The y coordinate.
+     */
+    public int getY1Coordinate( int handle ) {
+        return version.getY1Coordinate( handle );
+    } // end method
+    
+    /**
+     * Returns the second x coordinate of a shape, without creating it.
+     *
+     * @param handle The handle of the shape.
+     * @return The x coordinate.
+     */
+    public int getX2Coordinate( int handle ) {
+        return version.getX2Coordinate( handle );
+    } // end method
+    
+    /**
+     * Returns the second y coordinate of a shape, without creating it.
+     *
+     * @param handle The handle of the shape.
+     * @return The y coordinate.
+     */
+    public int getY2Coordinate( int handle ) {
+        return version.getY2Coordinate( handle );
+    } // end method
+    
+    /**
+     * Returns the (shared) style of a shape, without creating it.
+     *
+     * @param handle The handle of the shape.
+     * @return The style.
+     */
+    public ShapeStyle getStyle( int handle ) {
+        return StyleRegistry.getStyle( version.getStyleId( handle ) );
+    } // end method
+    
+    /**
+     * Returns the number of points of a polygon, without creating it.
+     *
+     * @param handle The handle of the polygon.
+     * @return The number of points.
+     */
+    public int getPointCount( int handle ) {
+        return version.getPoints( handle )[0].length;
+    } // end method
+    
+    /**
+     * Returns the x coordinate of a point of a polygon, without creating it.
+     *
+     * @param handle The handle of the polygon.
+     * @param point The index of the point (0 is the first point).
+     * @return The x coordinate.
+     */
+    public int getPointX( int handle, int point ) {
+        return version.getPoints( handle )[0][point];
+    } // end method
+    
+    /**
+     * Returns the y coordinate of a point of a polygon, without creating it.
+     *
+     * @param handle The handle of the polygon.
+     * @param point The index of the point (0 is the first point).
+     * @return The y coordinate.
+     */
+    public int getPointY( int handle, int point ) {
+        return version.getPoints( handle )[1][point];
+    } // end method
+    
+    /**
+     * Returns the encoded points of a pencil stroke, without copying them.
+     *
+     * @param handle The handle of the stroke.
+     * @return A buffer over the points (which must not be changed).
+     */
+    public ByteBuffer getEncodedPoints( int handle ) {
+        return ByteBuffer.wrap( version.getEncodedPoints( handle ) );
+    } // end method
+} // end class
\ No newline at end of file
@@ -0,0 +1,168 @@
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+
+/**
+ * Simplifies polygons with the Douglas-Peucker algorithm. Points are dropped
+ * as long as the simplified outline stays within a tolerance of the original,
+ * so that a polygon with thousands of points can be drawn with far fewer of
+ * them when it is shown too small for the difference to be seen.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class PolygonSimplifier {
+    public static final int DETAIL_THRESHOLD = 64; // fewer points are always drawn in full
+    public static final int MAX_DETAIL_LEVELS = 8;
+    
+    /**
+     * Simplifies a chain of points, keeping the first and the last point.
+     *
+     * @param xCoords The x coordinates of the points.
+     * @param yCoords The y coordinates of the points.
+     * @param count The number of points.
+     * @param tolerance The greatest distance allowed between the chain and
+     * its simplified version.
+     * @param outX Receives the x coordinates of the points kept.
+     * @param outY Receives the y coordinates of the points kept.
+     * @return The number of points kept.
+     */
+    public static int simplify( int[] xCoords, int[] yCoords, int count, double tolerance,
+                               int[] outX, int[] outY ) {
+        if ( count <= 2 ) {
+            System.arraycopy( xCoords, 0, outX, 0, count );
+            System.arraycopy( yCoords, 0, outY, 0, count );
+            return count;
+        }
+        
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        
+        // pairs of (first, last) indices still to be checked, used instead of
+        // recursion so that long chains cannot overflow the call stack
+        int[] stack = new int[2 * count];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        double squaredTolerance = tolerance * tolerance;
+        
+        while ( top > 0 ) {
+            int last = stack[--top];
+            int first = stack[--top];
+            
+            // find the point furthest from the segment between first and last
+            int furthest = -1;
+            double furthestDistance = squaredTolerance;
+            for ( int i = first + 1; i < last; i++ ) {
+                double distance = squaredDistance( xCoords[i], yCoords[i], xCoords[first],
+                                                  yCoords[first], xCoords[last], yCoords[last] );
+                if ( distance > furthestDistance ) {
+                    furthest = i;
+                    furthestDistance = distance;
+                }
+            } // end for
+            
+            // keep it, and check both halves again
+            if ( furthest != -1 ) {
+                keep[furthest] = true;
+                stack[top++] = first;
+                stack[top++] = furthest;
+                stack[top++] = furthest;
+                stack[top++] = last;
+            }
+        } // end while
+        
+        int kept = 0;
+        for ( int i = 0; i < count; i++ ) {
+            if ( keep[i] ) {
+                outX[kept] = xCoords[i];
+                outY[kept] = yCoords[i];
+                kept++;
+            }
+        } // end for
+        return kept;
+    } // end method
+    
+    /**
+     * Builds the simplified versions of a closed polygon, each one twice as
+     * coarse as the one before (and each from the full polygon, so that errors
+     * do not add up), until it cannot get any simpler. Level k (from 1) is
+     * within 2^(k-1) units of the polygon.
+     *
+     * @param xCoords The x coordinates of the points.
+     * @param yCoords The y coordinates of the points.
+     * @param count The number of points.
+     * @return The simplified polygons (the first entry, the full polygon, is
+     * left empty).
+     */
+    public static Shape[] buildDetailLevels( int[] xCoords, int[] yCoords, int count ) {
+        Shape[] levels = new Shape[MAX_DETAIL_LEVELS];
+        int[] simpleX = new int[count];
+        int[] simpleY = new int[count];
+        int kept = count;
+        int built = 1;
+        
+        for ( ; built < MAX_DETAIL_LEVELS && kept > 4; built++ ) {
+            kept = simplify( xCoords, yCoords, count, 1 << (built - 1), simpleX, simpleY );
+            
+            GeneralPath polygon = new GeneralPath( GeneralPath.WIND_EVEN_ODD, kept );
+            polygon.moveTo( simpleX[0], simpleY[0] );
+            for ( int i = 1; i < kept; i++ ) {
+                polygon.lineTo( simpleX[i], simpleY[i] );
+            }
+            polygon.closePath();
+            levels[built] = polygon;
+        } // end for
+        
+        Shape[] result = new Shape[built];
+        System.arraycopy( levels, 0, result, 0, built );
+        return result;
+    } // end method
+    
+    /**
+     * Chooses the coarsest of the simplified versions of a polygon that stays
+     * within half a device pixel of the full polygon at the given scale.
+     *
+     * @param levels The number of versions built (see {@link #buildDetailLevels}).
+     * @param scale Device pixels per unit, e.g. 0.5 for a half-size view.
+     * @return The level to draw (0 for the full polygon).
+     */
+    public static int getDetailLevel( int levels, double scale ) {
+        int level = 0;
+        while ( level + 1 < levels && (1 << level) * scale <= 0.5 )
+            level++;
+        return level;
+    } // end method
+    
+    /**
+     * Returns how many device pixels one unit of user space covers (e.g. 0.5
+     * when a drawing is shown at half size).
+     *
+     * @param transform The transform from user space to device space.
+     * @return The scale factor.
+     */
+    public static double getScale( AffineTransform transform ) {
+        return Math.sqrt( Math.abs( transform.getDeterminant() ) );
+    } // end method
+    
+    /**
+     * Returns the squared distance between a point and a line segment.
+     */
+    private static double squaredDistance( double x, double y, double x1, double y1,
+                                          double x2, double y2 ) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        
+        // the segment is a single point (e.g. a closed polygon's first and last point)
+        if ( lengthSquared == 0 )
+            return (x - x1) * (x - x1) + (y - y1) * (y - y1);
+        
+        double t = ((x - x1) * dx + (y - y1) * dy) / lengthSquared;
+        t = Math.max( 0, Math.min( 1, t ) );
+        double nearestX = x1 + t * dx;
+        double nearestY = y1 + t * dy;
+        return (x - nearestX) * (x - nearestX) + (y - nearestY) * (y - nearestY);
+    } // end method
+} // end class
\ No newline at end of file
@@ -0,0 +1,145 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Contains counters about the work done while painting, so that the effect of
+ * the caches can be checked. The numbers are only printed when the program is
+ * started with <code>-Dpaint.stats=true</code>.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class RenderStats {
+    public static final boolean ENABLED = Boolean.getBoolean( "paint.stats" );
+    
+    // strokes and paints created while drawing (on any thread)
+    private static final AtomicLong renderObjects = new AtomicLong();
+    
+    // shapes drawn, and the batches they were drawn in (one paint/stroke each)
+    private static final AtomicLong shapes = new AtomicLong();
+    private static final AtomicLong batches = new AtomicLong();
+    
+    // mouse events received, those replaced by a later one before being
+    // handled, and the frames painted
+    private static final AtomicLong inputEvents = new AtomicLong();
+    private static final AtomicLong coalescedEvents = new AtomicLong();
+    private static final AtomicLong frames = new AtomicLong();
+    
+    /**
+     * Counts one stroke or paint object created while drawing.
+     */
+    public static void renderObjectCreated() {
+        renderObjects.incrementAndGet();
+    }
+    
+    /**
+     * Gets the number of strokes and paints created so far.
+     *
+     * @return The number of render objects.
+     */
+    public static long getRenderObjects() {
+        return renderObjects.get();
+    }
+    
+    /**
+     * Counts shapes drawn from the backing store, and the number of batches
+     * (paint and stroke changes) they were drawn in.
+     *
+     * @param shapeCount The number of shapes drawn.
+     * @param batchCount The number of batches.
+     */
+    public static void shapesDrawn( int shapeCount, int batchCount ) {
+        shapes.addAndGet( shapeCount );
+        batches.addAndGet( batchCount );
+    } // end method
+    
+    /**
+     * Gets the number of shapes drawn so far.
+     *
+     * @return The number of shapes.
+     */
+    public static long getShapes() {
+        return shapes.get();
+    }
+    
+    /**
+     * Gets the number of batches drawn so far.
+     *
+     * @return The number of batches.
+     */
+    public static long getBatches() {
+        return batches.get();
+    }
+    
+    /**
+     * Counts one mouse event received.
+     *
+     * @param coalesced Whether it replaced an event that was not handled yet.
+     */
+    public static void inputEventReceived( boolean coalesced ) {
+        inputEvents.incrementAndGet();
+        if ( coalesced )
+            coalescedEvents.incrementAndGet();
+    } // end method
+    
+    /**
+     * Gets the number of mouse events received so far.
+     *
+     * @return The number of events.
+     */
+    public static long getInputEvents() {
+        return inputEvents.get();
+    }
+    
+    /**
+     * Gets the number of mouse events that were replaced by a later one so far.
+     *
+     * @return The number of events.
+     */
+    public static long getCoalescedEvents() {
+        return coalescedEvents.get();
+    }
+    
+    /**
+     * Counts one frame painted.
+     */
+    public static void framePainted() {
+        frames.incrementAndGet();
+    }
+    
+    /**
+     * Gets the number of frames painted so far.
+     *
+     * @return The number of frames.
+     */
+    public static long getFrames() {
+        return frames.get();
+    }
+    
+    /**
+     * Returns the number of bytes the current thread has allocated so far, or
+     * -1 if the virtual machine cannot tell.
+     *
+     * @return The number of bytes allocated.
+     */
+    public static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if ( bean instanceof com.sun.management.ThreadMXBean ) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+                Thread.currentThread().getId() );
+        }
+        return -1;
+    } // end method
+    
+    /**
+     * Prints one line of statistics (if enabled).
+     *
+     * @param format A format string, as for {@link String#format}.
+     * @param arguments The values for the format string.
+     */
+    public static void report( String format, Object... arguments ) {
+        if ( ENABLED )
+            System.out.println( String.format( format, arguments ) );
+    } // end method
+} // end class
\ No newline at end of file
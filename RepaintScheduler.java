@@ -0,0 +1,110 @@
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/**
+ * Limits how often a component is repainted. Regions to repaint are collected
+ * (as one rectangle) until the next frame is due, and a listener is told just
+ * before each frame, so that input which arrived in between (e.g. many mouse
+ * drags) can be handled once per frame instead of once per event.
+ * <p>
+ * The default frame rate is 60 per second, and can be changed with
+ * <code>-Dpaint.fps=120</code>.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class RepaintScheduler implements ActionListener {
+    public static final int DEFAULT_FRAME_RATE = Integer.getInteger( "paint.fps", 60 );
+    
+    private JComponent component;
+    private ActionListener frameListener;
+    private Timer timer;
+    private long frameInterval; // in nanoseconds
+    private long lastFrame;
+    private Rectangle dirtyRegion; // to repaint at the next frame, or null
+    private boolean inFrame; // the listener is handling input for this frame
+    
+    /**
+     * Constructor.
+     *
+     * @param component The component to repaint.
+     * @param frameListener Called on the event dispatch thread just before each
+     * frame (may be null).
+     */
+    public RepaintScheduler( JComponent component, ActionListener frameListener ) {
+        this.component = component;
+        this.frameListener = frameListener;
+        timer = new Timer( 0, this );
+        timer.setRepeats( false );
+        setFrameRate( DEFAULT_FRAME_RATE );
+    } // end constructor
+    
+    /**
+     * Returns the greatest number of frames per second.
+     *
+     * @return The frame rate.
+     */
+    public int getFrameRate() {
+        return (int) Math.round( 1e9 / frameInterval );
+    } // end accessor
+    
+    /**
+     * Sets the greatest number of frames per second.
+     *
+     * @param frameRate The frame rate (at least 1).
+     */
+    public void setFrameRate( int frameRate ) {
+        frameInterval = 1000000000L / Math.max( 1, frameRate );
+    } // end mutator
+    
+    /**
+     * Asks for a region to be repainted at the next frame.
+     *
+     * @param region The region of the component.
+     */
+    public void repaint( Rectangle region ) {
+        if ( dirtyRegion == null )
+            dirtyRegion = new Rectangle( region );
+        else
+            dirtyRegion.add( region );
+        schedule();
+    } // end method
+    
+    /**
+     * Asks for a frame without a region to repaint (e.g. only to handle
+     * pending input).
+     */
+    public void schedule() {
+        if ( inFrame || timer.isRunning() )
+            return;
+        
+        long wait = lastFrame + frameInterval - System.nanoTime();
+        timer.setInitialDelay( (int) Math.max( 0, (wait + 999999) / 1000000 ) );
+        timer.start();
+    } // end method
+    
+    /**
+     * Starts a frame: the listener handles pending input first, then the
+     * collected region is repainted.
+     */
+    public void actionPerformed( ActionEvent event ) {
+        lastFrame = System.nanoTime();
+        if ( frameListener != null ) {
+            // anything it asks to repaint is part of this frame
+            inFrame = true;
+            try {
+                frameListener.actionPerformed( event );
+            } finally {
+                inFrame = false;
+            } // end try block
+        } // end if
+        
+        if ( dirtyRegion != null ) {
+            component.repaint( dirtyRegion );
+            dirtyRegion = null;
+        }
+    } // end method
+} // end class
\ No newline at end of file
@@ -0,0 +1,271 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Draws a list of shapes (or shapes read from a {@link ShapeStore}) in batches.
+ * Consecutive shapes usually share their colour and stroke (the toolbar is
+ * rarely touched between shapes), so such shapes are merged into one path that
+ * is drawn with a single change of paint and stroke. A shape may also join an
+ * earlier batch with the same settings, as long as it does not overlap anything
+ * drawn in between; the picture therefore looks exactly as if every shape had
+ * been drawn on its own, in order.
+ * <p>
+ * Only opaque, solid-coloured outlines and filled ovals and rectangles are
+ * merged. Gradients, dashes, translucent colours and filled polygons (which use
+ * the even-odd rule) are drawn on their own.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class ShapeBatcher {
+    private static final int LOOKBACK = 8; // earlier batches a shape may join
+    
+    // how a shape is drawn
+    private static final int SINGLE = 0;
+    private static final int STROKE = 1;
+    private static final int FILL = 2;
+    
+    /*
+     * A run of shapes that are drawn together. A batch of one shape is drawn
+     * as usual (a shape object, a shape drawn by its store, or a stored
+     * shape's geometry); once a second shape joins, the geometry is merged
+     * into one path.
+     */
+    private static class Batch {
+        private final int kind;
+        private final Color colour;
+        private final BasicStroke stroke;
+        private final Rectangle bounds;
+        private final double scale;
+        private MyShape shape;
+        private ShapeStore store; // with the handle of a shape drawn on its own
+        private int handle;
+        private Shape geometry;
+        private Path2D.Double path;
+        
+        private Batch( int kind, Color colour, BasicStroke stroke, Rectangle bounds, double scale ) {
+            this.kind = kind;
+            this.colour = colour;
+            this.stroke = stroke;
+            this.bounds = new Rectangle( bounds );
+            this.scale = scale;
+        }
+        
+        // whether a shape with these drawing settings may join this batch
+        private boolean accepts( int kind, Color colour, BasicStroke stroke ) {
+            if ( this.kind == SINGLE || this.kind != kind || !this.colour.equals( colour ) )
+                return false;
+            // filled shapes do not use the stroke (strokes are shared, see StrokeCache)
+            return kind == FILL || this.stroke == stroke;
+        }
+        
+        // the first shape sets the bounds of the batch (in the constructor)
+        private boolean isEmpty() {
+            return shape == null && geometry == null && path == null;
+        }
+        
+        private void add( MyShape member, Rectangle memberBounds ) {
+            if ( isEmpty() )
+                shape = member;
+            else
+                merge( member.getGeometry( scale ), memberBounds );
+        }
+        
+        // only a batch of the SINGLE kind, which never takes a second shape
+        private void add( ShapeStore memberStore, int memberHandle ) {
+            store = memberStore;
+            handle = memberHandle;
+        }
+        
+        private void add( Shape memberGeometry, Rectangle memberBounds ) {
+            if ( isEmpty() )
+                geometry = memberGeometry;
+            else
+                merge( memberGeometry, memberBounds );
+        }
+        
+        private void merge( Shape memberGeometry, Rectangle memberBounds ) {
+            if ( path == null ) {
+                // ovals and rectangles all wind the same way, so overlaps stay filled
+                path = new Path2D.Double( Path2D.WIND_NON_ZERO );
+                path.append( (shape != null) ? shape.getGeometry( scale ) : geometry, false );
+                shape = null;
+                geometry = null;
+            }
+            path.append( memberGeometry, false );
+            bounds.add( memberBounds );
+        }
+    } // end inner class
+    
+    /**
+     * Draws every shape of the list, bottom-most first.
+     *
+     * @param g2d {@link Graphics2D}
+     * @param shapes The shapes, in the order they should appear.
+     */
+    public static void draw( Graphics2D g2d, List<MyShape> shapes ) {
+        double scale = PolygonSimplifier.getScale( g2d.getTransform() );
+        ArrayList<Batch> batches = new ArrayList<Batch>();
+        for ( MyShape shape : shapes )
+            add( batches, shape, scale );
+        
+        for ( Batch batch : batches )
+            drawBatch( g2d, batch );
+        RenderStats.shapesDrawn( shapes.size(), batches.size() );
+    } // end method
+    
+    /**
+     * Draws some of the shapes of a store, bottom-most first, straight from
+     * the stored values: no shape object is created for any of them (see
+     * {@link ShapeStore#draw}).
+     *
+     * @param g2d {@link Graphics2D}
+     * @param store The store holding the shapes.
+     * @param handles The handles of the shapes, in the order they should appear.
+     * @param from The index of the first handle to draw.
+     * @param to One more than the index of the last handle to draw.
+     */
+    public static void draw( Graphics2D g2d, ShapeStore store, int[] handles, int from, int to ) {
+        double scale = PolygonSimplifier.getScale( g2d.getTransform() );
+        ArrayList<Batch> batches = new ArrayList<Batch>();
+        for ( int i = from; i < to; i++ ) {
+            int handle = handles[i];
+            byte type = store.getType( handle );
+            ShapeStyle style = store.getStyle( handle );
+            int kind = getKind( style, type != ShapeStore.LINE && type != ShapeStore.PENCIL,
+                               type == ShapeStore.POLYGON );
+            Rectangle shapeBounds = store.getBounds( handle );
+            
+            Batch target = findBatch( batches, kind, style.getColour1(), style.getStroke(),
+                                     shapeBounds );
+            if ( target == null ) {
+                target = new Batch( kind, style.getColour1(), style.getStroke(), shapeBounds, scale );
+                batches.add( target );
+            }
+            if ( kind == SINGLE )
+                target.add( store, handle );
+            else
+                target.add( store.getGeometry( handle, scale ), shapeBounds );
+        } // end for
+        
+        for ( Batch batch : batches )
+            drawBatch( g2d, batch );
+        RenderStats.shapesDrawn( to - from, batches.size() );
+    } // end method
+    
+    /**
+     * Adds a shape object to a batch it may join, or to a new batch.
+     *
+     * @param batches The batches so far, in drawing order.
+     * @param shape The shape.
+     * @param scale Device pixels per unit of the drawing.
+     */
+    private static void add( ArrayList<Batch> batches, MyShape shape, double scale ) {
+        int kind = getKind( shape.getStyle(), shape instanceof MyBoundedShape,
+                           shape instanceof MyPolygon );
+        Rectangle shapeBounds = shape.getBounds();
+        Batch target = findBatch( batches, kind, shape.getColour1(), shape.getStroke(),
+                                 shapeBounds );
+        if ( target == null ) {
+            target = new Batch( kind, shape.getColour1(), shape.getStroke(), shapeBounds, scale );
+            batches.add( target );
+        }
+        target.add( shape, shapeBounds );
+    } // end method
+    
+    /**
+     * Finds a recent batch with the same drawing settings that a shape can
+     * join without being moved below anything it overlaps.
+     *
+     * @param batches The batches so far, in drawing order.
+     * @param kind How the shape is drawn.
+     * @param colour The colour of the shape.
+     * @param stroke The stroke of the shape.
+     * @param shapeBounds The area covered by the shape.
+     * @return The batch, or null if the shape needs a batch of its own.
+     */
+    private static Batch findBatch( ArrayList<Batch> batches, int kind, Color colour,
+                                   BasicStroke stroke, Rectangle shapeBounds ) {
+        if ( kind == SINGLE )
+            return null;
+        
+        Rectangle passed = null; // everything drawn after a candidate batch
+        int oldest = Math.max( 0, batches.size() - LOOKBACK );
+        for ( int i = batches.size() - 1; i >= oldest; i-- ) {
+            Batch batch = batches.get( i );
+            if ( batch.accepts( kind, colour, stroke ) )
+                return batch;
+            // the shape cannot be moved below anything it overlaps
+            if ( passed == null )
+                passed = new Rectangle( batch.bounds );
+            else
+                passed.add( batch.bounds );
+            if ( passed.intersects( shapeBounds ) )
+                return null;
+        } // end for
+        return null;
+    } // end method
+    
+    /**
+     * Draws one batch: a single shape as usual, otherwise a merged path with
+     * one paint and stroke.
+     *
+     * @param g2d {@link Graphics2D}
+     * @param batch The batch to draw.
+     */
+    private static void drawBatch( Graphics2D g2d, Batch batch ) {
+        if ( batch.shape != null ) {
+            batch.shape.draw( g2d );
+            return;
+        }
+        if ( batch.store != null ) {
+            batch.store.draw( g2d, batch.handle, batch.scale );
+            return;
+        }
+        
+        g2d.setPaint( batch.colour );
+        if ( batch.path == null ) {
+            // a stored shape on its own, set up as the shape would (even a fill
+            // is rasterized slightly differently with another stroke)
+            g2d.setStroke( batch.stroke );
+            if ( batch.kind == FILL )
+                g2d.fill( batch.geometry );
+            else
+                g2d.draw( batch.geometry );
+        }
+        else if ( batch.kind == FILL ) {
+            g2d.fill( batch.path );
+        }
+        else {
+            g2d.setStroke( batch.stroke );
+            g2d.draw( batch.path );
+        } // end if
+    } // end method
+    
+    /**
+     * Decides how a shape may be batched.
+     *
+     * @param style The style of the shape.
+     * @param bounded Whether the shape is an oval, rectangle or polygon.
+     * @param polygon Whether the shape is a polygon.
+     * @return SINGLE, STROKE or FILL.
+     */
+    private static int getKind( ShapeStyle style, boolean bounded, boolean polygon ) {
+        if ( style.isGradient() || style.getColour1().getAlpha() != 255 )
+            return SINGLE;
+        
+        if ( bounded && style.isFilled() ) {
+            // a filled polygon is also outlined, and may cross over itself
+            return polygon ? SINGLE : FILL;
+        }
+        
+        // dashed outlines are already filled from a cached outline
+        return style.isDashed() ? SINGLE : STROKE;
+    } // end method
+} // end class
\ No newline at end of file
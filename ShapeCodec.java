@@ -0,0 +1,213 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes shapes in a compact binary form, and reads them back. Numbers are
+ * written as variable-length integers (7 bits per byte, as in the points of a
+ * {@link MyPencil}), and every coordinate but the first of a shape as its
+ * distance from the one before, so a typical line or rectangle takes about
+ * ten bytes:
+ * <pre>
+ * type styleId x1 y1 (x2 - x1) (y2 - y1)      line, rectangle, oval
+ * type styleId count x y (dx dy)...            polygon
+ * type styleId length encodedPoints            pencil
+ * </pre>
+ * The type is one of the types of {@link ShapeStore}. The style is written as
+ * its id in the {@link StyleRegistry}, which is only valid while the program
+ * is running, or as its number in a table of styles written along with the
+ * shapes (see {@link BinaryDrawingFile}). Shapes are read straight from a
+ * buffer (e.g. of a memory-mapped file), without any intermediate objects.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+final class ShapeCodec {
+    
+    /*
+     * Constructor: only static methods.
+     */
+    private ShapeCodec() {
+    } // end constructor
+    
+    /**
+     * Writes a (completed) shape, with the id of its style.
+     *
+     * @param out The output.
+     * @param shape The shape.
+     * @throws IOException If the output cannot be written.
+     */
+    public static void write( DataOutput out, MyShape shape ) throws IOException {
+        write( out, shape, shape.getStyle().getId() );
+    } // end method
+    
+    /**
+     * Writes a (completed) shape, with a number in place of its style.
+     *
+     * @param out The output.
+     * @param shape The shape.
+     * @param styleNumber The number written for the style.
+     * @throws IOException If the output cannot be written.
+     */
+    public static void write( DataOutput out, MyShape shape, int styleNumber ) throws IOException {
+        if ( shape instanceof MyPolygon ) {
+            MyPolygon polygon = (MyPolygon) shape;
+            out.writeByte( ShapeStore.POLYGON );
+            writeVarInt( out, styleNumber );
+            writeVarInt( out, polygon.getNumberPoints() );
+            int x = 0;
+            int y = 0;
+            for ( int i = 0; i < polygon.getNumberPoints(); i++ ) {
+                writeVarInt( out, polygon.getXCoordinate( i ) - x );
+                writeVarInt( out, polygon.getYCoordinate( i ) - y );
+                x = polygon.getXCoordinate( i );
+                y = polygon.getYCoordinate( i );
+            } // end for
+        }
+        else if ( shape instanceof MyPencil ) {
+            byte[] encoded = ((MyPencil) shape).getEncodedPoints();
+            out.writeByte( ShapeStore.PENCIL );
+            writeVarInt( out, styleNumber );
+            writeVarInt( out, encoded.length );
+            out.write( encoded );
+        }
+        else {
+            byte type = ShapeStore.LINE;
+            if ( shape instanceof MyOval )
+                type = ShapeStore.OVAL;
+            else if ( shape instanceof MyRectangle )
+                type = ShapeStore.RECTANGLE;
+            out.writeByte( type );
+            writeVarInt( out, styleNumber );
+            writeVarInt( out, shape.getX1Coordinate() );
+            writeVarInt( out, shape.getY1Coordinate() );
+            writeVarInt( out, shape.getX2Coordinate() - shape.getX1Coordinate() );
+            writeVarInt( out, shape.getY2Coordinate() - shape.getY1Coordinate() );
+        } // end if
+    } // end method
+    
+    /**
+     * Reads a shape written by {@link #write}, and moves past it.
+     *
+     * @param in The buffer, at the start of the shape.
+     * @param styles The styles by number, or null if the ids of the
+     * registry were written.
+     * @return The completed shape.
+     * @throws IOException If the buffer ends or does not hold a valid shape.
+     */
+    public static MyShape read( ByteBuffer in, ShapeStyle[] styles ) throws IOException {
+        try {
+            return readShape( in, styles );
+        } catch ( BufferUnderflowException exception ) {
+            throw new IOException( "shape cut short", exception );
+        } catch ( IndexOutOfBoundsException exception ) {
+            throw new IOException( "unknown style", exception );
+        } // end try block
+    } // end method
+    
+    /**
+     * Reads a shape (see {@link #read}), letting buffer exceptions through.
+     *
+     * @param in The buffer, at the start of the shape.
+     * @param styles The styles by number, or null for the registry.
+     * @return The completed shape.
+     * @throws IOException If the shape is not valid.
+     */
+    private static MyShape readShape( ByteBuffer in, ShapeStyle[] styles ) throws IOException {
+        byte type = in.get();
+        int styleNumber = readVarInt( in );
+        ShapeStyle style = ( styles != null ) ? styles[styleNumber] :
+            StyleRegistry.getStyle( styleNumber );
+        if ( style == null )
+            throw new IOException( "unknown style " + styleNumber );
+        
+        if ( type == ShapeStore.POLYGON ) {
+            int count = readVarInt( in );
+            int[] xCoords = new int[count];
+            int[] yCoords = new int[count];
+            int x = 0;
+            int y = 0;
+            for ( int i = 0; i < count; i++ ) {
+                x += readVarInt( in );
+                y += readVarInt( in );
+                xCoords[i] = x;
+                yCoords[i] = y;
+            } // end for
+            return new MyPolygon( xCoords, yCoords, 0, count, style );
+        }
+        else if ( type == ShapeStore.PENCIL ) {
+            byte[] encoded = new byte[readVarInt( in )];
+            in.get( encoded );
+            return new MyPencil( encoded, 0, encoded.length, style );
+        } // end if
+        
+        int x1 = readVarInt( in );
+        int y1 = readVarInt( in );
+        int x2 = x1 + readVarInt( in );
+        int y2 = y1 + readVarInt( in );
+        switch ( type ) {
+            case ShapeStore.LINE:
+                return new MyLine( x1, y1, x2, y2, style );
+            case ShapeStore.OVAL:
+                return new MyOval( x1, y1, x2, y2, style );
+            case ShapeStore.RECTANGLE:
+                return new MyRectangle( x1, y1, x2, y2, style );
+            default:
+                throw new IOException( "unknown shape type " + type );
+        } // end switch
+    } // end method
+    
+    /**
+     * Writes a signed number: zig-zag encoded (so that small negative numbers
+     * are small too), then 7 bits per byte, lowest first, with the top bit set
+     * on every byte but the last.
+     *
+     * @param out The output.
+     * @param value The number.
+     * @throws IOException If the output cannot be written.
+     */
+    public static void writeVarInt( DataOutput out, int value ) throws IOException {
+        int bits = (value << 1) ^ (value >> 31);
+        while ( (bits & ~0x7F) != 0 ) {
+            out.writeByte( (bits & 0x7F) | 0x80 );
+            bits >>>= 7;
+        }
+        out.writeByte( bits );
+    } // end method
+    
+    /**
+     * Reads a number written by {@link #writeVarInt}, and moves past it.
+     *
+     * @param in The buffer.
+     * @return The number.
+     * @throws IOException If the number is too long.
+     */
+    public static int readVarInt( ByteBuffer in ) throws IOException {
+        try {
+            return readNumber( in );
+        } catch ( IllegalArgumentException exception ) {
+            throw new IOException( exception.getMessage() );
+        } // end try block
+    } // end method
+    
+    /**
+     * Reads a number written by {@link #writeVarInt}, or one of the encoded
+     * points of a {@link MyPencil}, and moves past it. Every such number is
+     * read here, whether from a shape, a {@link ShapeStore} or a file.
+     *
+     * @param in The buffer.
+     * @return The number.
+     * @throws IllegalArgumentException If the number is too long.
+     */
+    public static int readNumber( ByteBuffer in ) {
+        int bits = 0;
+        for ( int shift = 0; shift < 35; shift += 7 ) {
+            byte next = in.get();
+            bits |= (next & 0x7F) << shift;
+            if ( next >= 0 )
+                return (bits >>> 1) ^ -(bits & 1);
+        } // end for
+        throw new IllegalArgumentException( "number too long" );
+    } // end method
+} // end class
\ No newline at end of file
@@ -0,0 +1,416 @@
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Contains a uniform grid that indexes shapes by the area they cover. Each
+ * shape is registered in every cell that its bounding box touches, so that the
+ * shapes intersecting a small region can be found without walking the whole
+ * list of shapes. Shapes are known by their handle in a {@link ShapeStore},
+ * and are returned in the order they are drawn in (the "z-order"), given by
+ * an order key for each shape.
+ * <p>
+ * A shape that covers more than {@link #LARGE_SHAPE_CELLS} cells (e.g. one
+ * drawn across the view while zoomed far out) is kept in a single list of
+ * large shapes instead, which every query walks; otherwise it would take
+ * thousands of cells. A query of a region of more cells than are in use walks
+ * the cells in use instead.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class ShapeGrid {
+    public static final int LARGE_SHAPE_CELLS = 256; // cells a shape may be registered in
+    
+    // estimated bytes of a cell besides its handles: its slots in the map of
+    // cells, the cell and the header of its array
+    private static final int CELL_OVERHEAD = 72;
+    
+    private final int cellSize;
+    private CellMap cells;
+    private Cell largeShapes; // shapes that cover too many cells to be in them
+    private int size;
+    private long entryCount; // handles registered in all of the cells
+    private int queryStamp;
+    private long[] found = new long[16]; // the shapes found by the last query
+    
+    // saved bounds and order key of each shape (the shape may change later),
+    // and the last query that returned it; a width of -1 means the shape is
+    // not in the grid
+    private int[] boundsX;
+    private int[] boundsY;
+    private int[] boundsWidth;
+    private int[] boundsHeight;
+    private int[] orders;
+    private int[] stamps;
+    
+    /*
+     * The handles of the shapes registered in one cell.
+     */
+    private static class Cell {
+        private int[] shapes = new int[4];
+        private int size;
+        
+        private void add( int shape ) {
+            if ( size == shapes.length )
+                shapes = Arrays.copyOf( shapes, 2 * size );
+            shapes[size++] = shape;
+        }
+        
+        // the last shape drawn is usually the one removed ("undo"), so
+        // search from the end of the cell
+        private void remove( int shape ) {
+            for ( int i = size - 1; i >= 0; i-- ) {
+                if ( shapes[i] == shape ) {
+                    System.arraycopy( shapes, i + 1, shapes, i, size - i - 1 );
+                    size--;
+                    return;
+                }
+            } // end for
+        }
+    } // end inner class
+    
+    /*
+     * The cells that hold any shape, by key (see toKey). A shape is added to
+     * dozens of cells, so the keys are not boxed: they are kept in an open
+     * addressing table (linear probing, at most half full).
+     */
+    private static class CellMap {
+        private long[] keys = new long[16];
+        private Cell[] cells = new Cell[16];
+        private int size;
+        
+        private Cell get( long key ) {
+            for ( int i = getSlot( key ); cells[i] != null; i = (i + 1) & (cells.length - 1) ) {
+                if ( keys[i] == key )
+                    return cells[i];
+            }
+            return null;
+        }
+        
+        // returns the cell with a key, adding an empty one if there is none
+        private Cell getOrAdd( long key ) {
+            int i = getSlot( key );
+            for ( ; cells[i] != null; i = (i + 1) & (cells.length - 1) ) {
+                if ( keys[i] == key )
+                    return cells[i];
+            }
+            
+            Cell cell = new Cell();
+            keys[i] = key;
+            cells[i] = cell;
+            if ( ++size > cells.length / 2 )
+                resize( 2 * cells.length );
+            return cell;
+        }
+        
+        private void remove( long key ) {
+            int i = getSlot( key );
+            while ( cells[i] != null && keys[i] != key )
+                i = (i + 1) & (cells.length - 1);
+            if ( cells[i] == null )
+                return;
+            
+            // move back the cells after it that would no longer be found
+            int mask = cells.length - 1;
+            for ( int j = (i + 1) & mask; cells[j] != null; j = (j + 1) & mask ) {
+                int home = getSlot( keys[j] );
+                if ( ((j - home) & mask) >= ((j - i) & mask) ) {
+                    keys[i] = keys[j];
+                    cells[i] = cells[j];
+                    i = j;
+                }
+            } // end for
+            cells[i] = null;
+            size--;
+        }
+        
+        private Cell[] getAll() {
+            Cell[] all = new Cell[size];
+            int count = 0;
+            for ( Cell cell : cells ) {
+                if ( cell != null )
+                    all[count++] = cell;
+            }
+            return all;
+        }
+        
+        private int getSlot( long key ) {
+            // Fibonacci hashing: the top bits of the product
+            int bits = Integer.numberOfTrailingZeros( cells.length );
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - bits));
+        }
+        
+        private void resize( int capacity ) {
+            long[] oldKeys = keys;
+            Cell[] oldCells = cells;
+            keys = new long[capacity];
+            cells = new Cell[capacity];
+            for ( int i = 0; i < oldCells.length; i++ ) {
+                if ( oldCells[i] == null )
+                    continue;
+                int j = getSlot( oldKeys[i] );
+                while ( cells[j] != null )
+                    j = (j + 1) & (capacity - 1);
+                keys[j] = oldKeys[i];
+                cells[j] = oldCells[i];
+            } // end for
+        }
+    } // end inner class
+    
+    /**
+     * Constructor: creates an empty grid.
+     *
+     * @param cellSize The width and height of each cell, in pixels.
+     */
+    public ShapeGrid( int cellSize ) {
+        this.cellSize = Math.max( cellSize, 1 );
+        makeEmpty();
+    } // end constructor
+    
+    /**
+     * Gets the number of shapes in the grid.
+     *
+     * @return The number of shapes.
+     */
+    public int getSize() {
+        return size;
+    }
+    
+    /**
+     * Returns (an estimate of) the memory held by the grid.
+     *
+     * @return The number of bytes.
+     */
+    public long getMemoryUsed() {
+        return 24L * boundsWidth.length + (long) CELL_OVERHEAD * cells.size + 4 * entryCount;
+    } // end method
+    
+    /**
+     * Adds a shape to the grid.
+     *
+     * @param shape The handle of the shape.
+     * @param bounds The area covered by the shape.
+     * @param order The order key of the shape (a higher key is drawn later).
+     */
+    public void insert( int shape, Rectangle bounds, int order ) {
+        if ( shape >= boundsWidth.length )
+            grow( Math.max( 2 * boundsWidth.length, shape + 1 ) );
+        if ( boundsWidth[shape] != -1 )
+            return;
+        
+        boundsX[shape] = bounds.x;
+        boundsY[shape] = bounds.y;
+        boundsWidth[shape] = bounds.width;
+        boundsHeight[shape] = bounds.height;
+        orders[shape] = order;
+        stamps[shape] = 0;
+        size++;
+        
+        if ( isLarge( shape ) ) {
+            largeShapes.add( shape );
+            entryCount++;
+            return;
+        }
+        
+        int firstColumn = toCell( bounds.x );
+        int lastColumn = toCell( bounds.x + bounds.width - 1 );
+        int firstRow = toCell( bounds.y );
+        int lastRow = toCell( bounds.y + bounds.height - 1 );
+        
+        for ( int row = firstRow; row <= lastRow; row++ ) {
+            for ( int column = firstColumn; column <= lastColumn; column++ ) {
+                cells.getOrAdd( toKey( column, row ) ).add( shape );
+                entryCount++;
+            } // end for
+        } // end for
+    } // end method
+    
+    /**
+     * Removes a shape from the grid. Returns false if the shape was not found.
+     *
+     * @param shape The handle of the shape.
+     * @return Whether or not the shape has been removed.
+     */
+    public boolean remove( int shape ) {
+        if ( shape >= boundsWidth.length || boundsWidth[shape] == -1 )
+            return false;
+        if ( isLarge( shape ) ) {
+            largeShapes.remove( shape );
+            boundsWidth[shape] = -1;
+            size--;
+            entryCount--;
+            return true;
+        }
+        
+        int firstColumn = toCell( boundsX[shape] );
+        int lastColumn = toCell( boundsX[shape] + boundsWidth[shape] - 1 );
+        int firstRow = toCell( boundsY[shape] );
+        int lastRow = toCell( boundsY[shape] + boundsHeight[shape] - 1 );
+        boundsWidth[shape] = -1;
+        size--;
+        
+        for ( int row = firstRow; row <= lastRow; row++ ) {
+            for ( int column = firstColumn; column <= lastColumn; column++ ) {
+                long key = toKey( column, row );
+                Cell cell = cells.get( key );
+                if ( cell == null )
+                    continue;
+                
+                cell.remove( shape );
+                entryCount--;
+                if ( cell.size == 0 )
+                    cells.remove( key );
+            } // end for
+        } // end for
+        return true;
+    } // end method
+    
+    /**
+     * Changes the drawing order of a shape in the grid.
+     *
+     * @param shape The handle of the shape.
+     * @param order The new order key of the shape.
+     */
+    public void setOrder( int shape, int order ) {
+        if ( shape < boundsWidth.length )
+            orders[shape] = order;
+    } // end method
+    
+    /**
+     * Removes every shape from the grid.
+     */
+    public void makeEmpty() {
+        cells = new CellMap();
+        largeShapes = new Cell();
+        size = 0;
+        entryCount = 0;
+        boundsX = new int[0];
+        boundsY = new int[0];
+        boundsWidth = new int[0];
+        boundsHeight = new int[0];
+        orders = new int[0];
+        stamps = new int[0];
+    } // end method
+    
+    /**
+     * Returns every shape whose bounds intersect a region, in the order they
+     * should be drawn.
+     *
+     * @param region The region to search, e.g. the clip of a Graphics object.
+     * @return The handles of the shapes, bottom-most first.
+     */
+    public int[] query( Rectangle region ) {
+        queryStamp++;
+        int count = collect( largeShapes, region, 0 );
+        
+        int firstColumn = toCell( region.x );
+        int lastColumn = toCell( region.x + region.width - 1 );
+        int firstRow = toCell( region.y );
+        int lastRow = toCell( region.y + region.height - 1 );
+        
+        if ( (long) (lastColumn - firstColumn + 1) * (lastRow - firstRow + 1) > cells.size ) {
+            for ( Cell cell : cells.getAll() )
+                count = collect( cell, region, count );
+        }
+        else {
+            for ( int row = firstRow; row <= lastRow; row++ ) {
+                for ( int column = firstColumn; column <= lastColumn; column++ ) {
+                    Cell cell = cells.get( toKey( column, row ) );
+                    if ( cell != null )
+                        count = collect( cell, region, count );
+                } // end for
+            } // end for
+        } // end if
+        
+        Arrays.sort( found, 0, count );
+        int[] shapes = new int[count];
+        for ( int i = 0; i < count; i++ )
+            shapes[i] = (int) found[i];
+        return shapes;
+    } // end method
+    
+    /**
+     * Adds the shapes of a cell that intersect a region, and that the current
+     * query has not found yet, to those found. Each shape is found as its
+     * order key (high half) and handle, so that sorting them puts them in
+     * drawing order.
+     *
+     * @param cell The cell.
+     * @param region The region searched.
+     * @param count The number of shapes found so far.
+     * @return The number of shapes found now.
+     */
+    private int collect( Cell cell, Rectangle region, int count ) {
+        for ( int i = 0; i < cell.size; i++ ) {
+            int shape = cell.shapes[i];
+            // skip shapes already found through another cell
+            if ( stamps[shape] != queryStamp && intersects( shape, region ) ) {
+                stamps[shape] = queryStamp;
+                if ( count == found.length )
+                    found = Arrays.copyOf( found, 2 * count );
+                found[count++] = ((long) orders[shape] << 32) | shape;
+            }
+        } // end for
+        return count;
+    } // end method
+    
+    /**
+     * Returns whether the saved bounds of a shape cover more cells than a
+     * shape registered in the cells may.
+     *
+     * @param shape The handle of the shape.
+     * @return Whether the shape is in the list of large shapes.
+     */
+    private boolean isLarge( int shape ) {
+        int x = boundsX[shape];
+        int y = boundsY[shape];
+        long columns = (long) toCell( x + boundsWidth[shape] - 1 ) - toCell( x ) + 1;
+        long rows = (long) toCell( y + boundsHeight[shape] - 1 ) - toCell( y ) + 1;
+        return columns * rows > LARGE_SHAPE_CELLS;
+    } // end method
+    
+    /**
+     * Returns whether the saved bounds of a shape intersect a region.
+     */
+    private boolean intersects( int shape, Rectangle region ) {
+        return boundsX[shape] < region.x + region.width && region.x < boundsX[shape] + boundsWidth[shape] &&
+            boundsY[shape] < region.y + region.height && region.y < boundsY[shape] + boundsHeight[shape];
+    } // end method
+    
+    /**
+     * Makes room for more shapes.
+     *
+     * @param capacity The number of shape handles that fit.
+     */
+    private void grow( int capacity ) {
+        int oldCapacity = boundsWidth.length;
+        boundsX = Arrays.copyOf( boundsX, capacity );
+        boundsY = Arrays.copyOf( boundsY, capacity );
+        boundsWidth = Arrays.copyOf( boundsWidth, capacity );
+        boundsHeight = Arrays.copyOf( boundsHeight, capacity );
+        orders = Arrays.copyOf( orders, capacity );
+        stamps = Arrays.copyOf( stamps, capacity );
+        Arrays.fill( boundsWidth, oldCapacity, capacity, -1 );
+    } // end method
+    
+    /**
+     * Returns the cell (row or column) that a coordinate falls in.
+     *
+     * @param coordinate An x or y coordinate.
+     * @return The cell index.
+     */
+    private int toCell( int coordinate ) {
+        return (int) Math.floor( (double) coordinate / cellSize );
+    } // end method
+    
+    /**
+     * Packs a column and row into a single key for the map of cells.
+     *
+     * @param column The column of the cell.
+     * @param row The row of the cell.
+     * @return The key of the cell.
+     */
+    private long toKey( int column, int row ) {
+        return ((long) column << 32) | (row & 0xffffffffL);
+    } // end method
+} // end class
\ No newline at end of file
@@ -0,0 +1,712 @@
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Line2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stores completed shapes as primitive values instead of one object (and list
+ * node) per shape: the type, coordinates and style id (see
+ * {@link StyleRegistry}) of each shape. A {@link MyShape} is only created (as
+ * a copy of the stored values) when a shape has to be changed; shapes are
+ * drawn straight from the values (see {@link #draw}), so a large drawing takes
+ * a fraction of the memory. What is expensive to build from the values (the
+ * path of a polygon or stroke, its bounds and simplified versions, a gradient,
+ * a dashed outline) is kept per handle, as a shape object would keep it, up to
+ * {@link #CACHE_BYTES}.
+ * <p>
+ * Each shape has a stable handle: it never changes while the shape is in the
+ * store, so a shape can be looked up or removed in constant time. Removed
+ * shapes leave an empty slot (only trailing slots are reused). The drawing
+ * order is kept separately, as an order key per shape, so that a shape can be
+ * brought to the front or sent to the back without moving any other shape.
+ * <p>
+ * {@link PersistentShapeStore} keeps the values on the Java heap, in versions
+ * that are never changed, and {@link OffHeapShapeStore} outside of it.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+abstract class ShapeStore {
+    // shape types
+    public static final byte LINE = 0;
+    public static final byte OVAL = 1;
+    public static final byte RECTANGLE = 2;
+    public static final byte POLYGON = 3;
+    public static final byte PENCIL = 4;
+    
+    public static final long CACHE_BYTES =
+        Integer.getInteger( "paint.geometryCacheMegabytes", 64 ) * 1024L * 1024L;
+    
+    // what has been built to draw polygons, strokes and shapes drawn on their
+    // own, by handle
+    private final ConcurrentHashMap<Integer, Rendering> renderings =
+        new ConcurrentHashMap<Integer, Rendering>();
+    private final AtomicLong renderingBytes = new AtomicLong();
+    
+    /*
+     * What is kept between draws of a shape, so that its path (and the rest)
+     * is not built again for every tile. An entry is never changed (a copy
+     * with more in it takes its place), so that the threads rasterizing tiles
+     * can share it.
+     */
+    private static final class Rendering {
+        private final Rectangle bounds;
+        private final Shape geometry;
+        private final Paint paint;
+        private final Shape dashedOutline; // null until drawn dashed
+        private final Shape[] detailLevels; // null until drawn small
+        private final long bytes; // estimated
+        
+        private Rendering( Rectangle bounds, Shape geometry, Paint paint, Shape dashedOutline,
+                          Shape[] detailLevels, long bytes ) {
+            this.bounds = bounds;
+            this.geometry = geometry;
+            this.paint = paint;
+            this.dashedOutline = dashedOutline;
+            this.detailLevels = detailLevels;
+            this.bytes = bytes;
+        }
+        
+        private Rendering withDashedOutline( Shape outline ) {
+            return new Rendering( bounds, geometry, paint, outline, detailLevels,
+                                 bytes + estimateBytes( outline ) );
+        }
+        
+        private Rendering withDetailLevels( Shape[] levels ) {
+            long added = 16 + 4L * levels.length;
+            for ( Shape level : levels )
+                added += estimateBytes( level );
+            return new Rendering( bounds, geometry, paint, dashedOutline, levels, bytes + added );
+        }
+        
+        // the memory held by a java.awt.geom shape
+        private static long estimateBytes( Shape shape ) {
+            if ( !(shape instanceof GeneralPath) )
+                return 64;
+            long bytes = 64;
+            float[] coords = new float[6];
+            for ( PathIterator it = shape.getPathIterator( null ); !it.isDone(); it.next() ) {
+                int type = it.currentSegment( coords );
+                bytes += ( type == PathIterator.SEG_CUBICTO ) ? 25 :
+                    ( (type == PathIterator.SEG_QUADTO) ? 17 : 9 );
+            }
+            return bytes;
+        }
+    } // end inner class
+    
+    /**
+     * Gets the number of shapes in the store.
+     *
+     * @return The number of shapes.
+     */
+    public abstract int getSize();
+    
+    /**
+     * Returns one more than the highest handle in use, so that every shape can
+     * be visited by checking the handles below it with {@link #contains}.
+     *
+     * @return The end of the handles.
+     */
+    public abstract int getEnd();
+    
+    /**
+     * Returns the memory held by the store (whether it is in use or not).
+     *
+     * @return The number of bytes.
+     */
+    public abstract long getMemoryUsed();
+    
+    /**
+     * Returns the most recently added shape that is still in the store.
+     *
+     * @return The handle of the shape, or -1 if the store is empty.
+     */
+    public int getLast() {
+        return getEnd() - 1;
+    } // end method
+    
+    /**
+     * Returns whether a handle refers to a shape in the store.
+     *
+     * @param handle The handle of a shape.
+     * @return Whether the shape is in the store.
+     */
+    public abstract boolean contains( int handle );
+    
+    /**
+     * Copies a completed shape to the end of the store (on top of every other
+     * shape). Later changes to the shape object are not seen by the store.
+     *
+     * @param shape The shape to store.
+     * @return The handle of the shape.
+     */
+    public abstract int add( MyShape shape );
+    
+    /**
+     * Copies a completed shape to a handle that is not in use, with a given
+     * order key, e.g. to put back a shape that was removed. Handles past the
+     * end are left empty up to it.
+     *
+     * @param handle The handle, which must not refer to a shape.
+     * @param shape The shape to store.
+     * @param order The order key of the shape.
+     */
+    public abstract void put( int handle, MyShape shape, int order );
+    
+    /**
+     * Returns the highest order key given so far: a shape with a higher key
+     * would be drawn above every other shape.
+     *
+     * @return The order key.
+     */
+    public abstract int getTopOrder();
+    
+    /**
+     * Removes a shape. Its handle is only reused once every shape added after
+     * it has been removed too.
+     *
+     * @param handle The handle of the shape.
+     * @return Whether the shape was in the store.
+     */
+    public abstract boolean remove( int handle );
+    
+    /**
+     * Removes the most recently added shape (if any).
+     */
+    public void removeLast() {
+        remove( getLast() );
+    } // end method
+    
+    /**
+     * Returns the drawing order of a shape: shapes with a lower key are drawn
+     * first (under the others).
+     *
+     * @param handle The handle of the shape.
+     * @return The order key.
+     */
+    public abstract int getOrder( int handle );
+    
+    /**
+     * Moves a shape above every other shape.
+     *
+     * @param handle The handle of the shape.
+     * @return The new order key of the shape.
+     */
+    public abstract int bringToFront( int handle );
+    
+    /**
+     * Gives a shape a given order key, e.g. to restore a drawing order that
+     * was saved. Shapes brought to the front or sent to the back later are
+     * still drawn above or below it.
+     *
+     * @param handle The handle of the shape.
+     * @param order The order key.
+     */
+    public abstract void setOrder( int handle, int order );
+    
+    /**
+     * Moves a shape below every other shape.
+     *
+     * @param handle The handle of the shape.
+     * @return The new order key of the shape.
+     */
+    public abstract int sendToBack( int handle );
+    
+    /**
+     * Removes every shape.
+     */
+    public abstract void makeEmpty();
+    
+    /**
+     * Returns a copy of the store as it is now, which later edits of the store
+     * do not change, so that it may be read on another thread (e.g. to save
+     * the drawing in the background) while the store goes on changing.
+     *
+     * @return A new store with the same shapes, handles and order keys.
+     */
+    public abstract ShapeStore snapshot();
+    
+    /**
+     * Returns the handles of every shape, in the order they are drawn.
+     *
+     * @return The handles, of the bottom-most shape first.
+     */
+    public int[] getDrawingOrder() {
+        // sort by order key, then by handle
+        long[] keys = new long[getSize()];
+        int count = 0;
+        for ( int handle = 0; handle < getEnd(); handle++ ) {
+            if ( contains( handle ) )
+                keys[count++] = ((long) getOrder( handle ) << 32) | handle;
+        }
+        Arrays.sort( keys );
+        
+        int[] handles = new int[count];
+        for ( int i = 0; i < count; i++ )
+            handles[i] = (int) keys[i];
+        return handles;
+    } // end method
+    
+    /**
+     * Returns the type of a shape, without creating it.
+     *
+     * @param handle The handle of the shape.
+     * @return LINE, OVAL, RECTANGLE, POLYGON or PENCIL.
+     */
+    public abstract byte getType( int handle );
+    
+    /**
+     * Returns the first x coordinate of a line, oval or rectangle, without
+     * creating it (see {@link #getPointX} and {@link #getEncodedPoints} for
+     * polygons and pencil strokes).
+     *
+     * @param handle The handle of the shape.
+     * @return The x coordinate.
+     */
+    public abstract int getX1Coordinate( int handle );
+    
+    /**
+     * Returns the first y coordinate of a line, oval or rectangle, without
+     * creating it.
+     *
+     * @param handle The handle of the shape.
+     * @return The y coordinate.
+     */
+    public abstract int getY1Coordinate( int handle );
+    
+    /**
+     * Returns the second x coordinate of a shape, without creating it.
+     *
+     * @param handle The handle of the shape.
+     * @return The x coordinate.
+     */
+    public abstract int getX2Coordinate( int handle );
+    
+    /**
+     * Returns the second y coordinate of a shape, without creating it.
+     *
+     * @param handle The handle of the shape.
+     * @return The y coordinate.
+     */
+    public abstract int getY2Coordinate( int handle );
+    
+    /**
+     * Returns the (shared) style of a shape, without creating it.
+     *
+     * @param handle The handle of the shape.
+     * @return The style.
+     */
+    public abstract ShapeStyle getStyle( int handle );
+    
+    /**
+     * Returns the number of points of a polygon, without creating it.
+     *
+     * @param handle The handle of the polygon.
+     * @return The number of points.
+     */
+    public abstract int getPointCount( int handle );
+    
+    /**
+     * Returns the x coordinate of a point of a polygon, without creating it.
+     *
+     * @param handle The handle of the polygon.
+     * @param point The index of the point (0 is the first point).
+     * @return The x coordinate.
+     */
+    public abstract int getPointX( int handle, int point );
+    
+    /**
+     * Returns the y coordinate of a point of a polygon, without creating it.
+     *
+     * @param handle The handle of the polygon.
+     * @param point The index of the point (0 is the first point).
+     * @return The y coordinate.
+     */
+    public abstract int getPointY( int handle, int point );
+    
+    /**
+     * Returns the encoded points of a pencil stroke (see {@link MyPencil}),
+     * without copying them.
+     *
+     * @param handle The handle of the stroke.
+     * @return A buffer over the points, from position 0 to its limit (which
+     * must not be changed).
+     */
+    public abstract ByteBuffer getEncodedPoints( int handle );
+    
+    /**
+     * Creates a (completed) shape object with the stored values of a shape.
+     * Every call returns a new object.
+     *
+     * @param handle The handle of the shape.
+     * @return The shape.
+     */
+    public MyShape getShape( int handle ) {
+        ShapeStyle style = getStyle( handle );
+        
+        switch ( getType( handle ) ) {
+            case OVAL:
+                return new MyOval( getX1Coordinate( handle ), getY1Coordinate( handle ),
+                                  getX2Coordinate( handle ), getY2Coordinate( handle ), style );
+            case RECTANGLE:
+                return new MyRectangle( getX1Coordinate( handle ), getY1Coordinate( handle ),
+                                       getX2Coordinate( handle ), getY2Coordinate( handle ),
+                                       style );
+            case POLYGON:
+                int count = getPointCount( handle );
+                int[] xCoords = new int[count];
+                int[] yCoords = new int[count];
+                for ( int i = 0; i < count; i++ ) {
+                    xCoords[i] = getPointX( handle, i );
+                    yCoords[i] = getPointY( handle, i );
+                }
+                return new MyPolygon( xCoords, yCoords, 0, count, style );
+            case PENCIL:
+                ByteBuffer points = getEncodedPoints( handle );
+                byte[] encoded = new byte[points.remaining()];
+                points.get( encoded );
+                return new MyPencil( encoded, 0, encoded.length, style );
+            default:
+                return new MyLine( getX1Coordinate( handle ), getY1Coordinate( handle ),
+                                  getX2Coordinate( handle ), getY2Coordinate( handle ), style );
+        } // end switch
+    } // end method
+    
+    /**
+     * Returns the area covered by a shape, including its stroke, without
+     * creating it (see {@link MyShape#getBounds}).
+     *
+     * @param handle The handle of the shape.
+     * @return A {@link Rectangle} enclosing the drawn shape.
+     */
+    public Rectangle getBounds( int handle ) {
+        byte type = getType( handle );
+        if ( type == POLYGON || type == PENCIL )
+            return new Rectangle( getRendering( handle ).bounds );
+        return buildBounds( handle );
+    } // end method
+    
+    /**
+     * Builds the version of a shape to draw when one unit covers the given
+     * number of device pixels, without creating the shape object: a large
+     * polygon shown small is simplified as {@link MyPolygon} does. The paths
+     * of polygons and strokes are kept for the next call.
+     *
+     * @param handle The handle of the shape.
+     * @param scale Device pixels per unit, e.g. 0.5 for a half-size view.
+     * @return The geometry of the shape.
+     */
+    public Shape getGeometry( int handle, double scale ) {
+        byte type = getType( handle );
+        if ( type != POLYGON && type != PENCIL )
+            return buildGeometry( handle );
+        
+        Rendering rendering = getRendering( handle );
+        Shape simplified = getSimplifiedPolygon( handle, rendering, scale );
+        return ( simplified != null ) ? simplified : rendering.geometry;
+    } // end method
+    
+    /**
+     * Draws a shape straight from its stored values, exactly as its shape
+     * object would draw itself (see {@link MyShape#draw}). What is built to
+     * draw it is kept for the next call.
+     *
+     * @param g2d {@link Graphics2D}
+     * @param handle The handle of the shape.
+     * @param scale Device pixels per unit of the drawing.
+     */
+    public void draw( Graphics2D g2d, int handle, double scale ) {
+        ShapeStyle style = getStyle( handle );
+        byte type = getType( handle );
+        Rendering rendering = getRendering( handle );
+        g2d.setPaint( rendering.paint );
+        g2d.setStroke( style.getStroke() );
+        
+        Shape simplified = getSimplifiedPolygon( handle, rendering, scale );
+        Shape geometry = ( simplified != null ) ? simplified : rendering.geometry;
+        boolean filled = style.isFilled() && type != LINE && type != PENCIL;
+        if ( filled )
+            g2d.fill( geometry );
+        
+        // filled ovals and rectangles have no outline, and a simplified
+        // polygon is not worth dashing
+        if ( simplified != null )
+            g2d.draw( simplified );
+        else if ( type == POLYGON || !filled )
+            drawOutline( g2d, handle, rendering, style );
+    } // end method
+    
+    /**
+     * Forgets what was kept to draw a shape, e.g. because it was removed and
+     * its handle may be used again. Called by the stores.
+     *
+     * @param handle The handle of the shape.
+     */
+    protected void forgetRendering( int handle ) {
+        Rendering rendering = renderings.remove( handle );
+        if ( rendering != null )
+            renderingBytes.addAndGet( -rendering.bytes );
+    } // end method
+    
+    /**
+     * Forgets what was kept to draw every shape, e.g. when the store is put
+     * aside to be restored later, or emptied.
+     */
+    public void forgetRenderings() {
+        renderings.clear();
+        renderingBytes.set( 0 );
+    } // end method
+    
+    /**
+     * Returns what is kept to draw a shape, building it on first use.
+     *
+     * @param handle The handle of the shape.
+     * @return The entry.
+     */
+    private Rendering getRendering( int handle ) {
+        Rendering rendering = renderings.get( handle );
+        if ( rendering == null ) {
+            Shape geometry = buildGeometry( handle );
+            rendering = new Rendering( buildBounds( handle ), geometry, buildPaint( handle ), null,
+                                      null, 96 + Rendering.estimateBytes( geometry ) );
+            remember( handle, null, rendering );
+        }
+        return rendering;
+    } // end method
+    
+    /**
+     * Keeps an entry for a shape, unless another thread has just done so. The
+     * whole cache is dropped once it holds more than {@link #CACHE_BYTES}.
+     *
+     * @param handle The handle of the shape.
+     * @param old The entry it replaces, or null.
+     * @param rendering The new entry.
+     */
+    private void remember( int handle, Rendering old, Rendering rendering ) {
+        boolean kept = ( old == null ) ? renderings.putIfAbsent( handle, rendering ) == null :
+            renderings.replace( handle, old, rendering );
+        if ( !kept )
+            return;
+        
+        long added = ( old == null ) ? rendering.bytes : rendering.bytes - old.bytes;
+        if ( renderingBytes.addAndGet( added ) > CACHE_BYTES )
+            forgetRenderings();
+    } // end method
+    
+    /**
+     * Builds the area covered by a shape, including its stroke.
+     *
+     * @param handle The handle of the shape.
+     * @return A {@link Rectangle} enclosing the drawn shape.
+     */
+    private Rectangle buildBounds( int handle ) {
+        float strokeWidth = getStyle( handle ).getStrokeWidth();
+        byte type = getType( handle );
+        
+        if ( type == POLYGON ) {
+            int minX = getPointX( handle, 0 );
+            int minY = getPointY( handle, 0 );
+            int maxX = minX;
+            int maxY = minY;
+            for ( int i = 1; i < getPointCount( handle ); i++ ) {
+                minX = Math.min( minX, getPointX( handle, i ) );
+                minY = Math.min( minY, getPointY( handle, i ) );
+                maxX = Math.max( maxX, getPointX( handle, i ) );
+                maxY = Math.max( maxY, getPointY( handle, i ) );
+            }
+            return MyShape.inflateBounds( minX, minY, maxX, maxY, strokeWidth );
+        }
+        else if ( type == PENCIL ) {
+            ByteBuffer points = getEncodedPoints( handle );
+            int x = ShapeCodec.readNumber( points );
+            int y = ShapeCodec.readNumber( points );
+            int minX = x;
+            int minY = y;
+            int maxX = x;
+            int maxY = y;
+            while ( points.hasRemaining() ) {
+                x += ShapeCodec.readNumber( points );
+                y += ShapeCodec.readNumber( points );
+                minX = Math.min( minX, x );
+                minY = Math.min( minY, y );
+                maxX = Math.max( maxX, x );
+                maxY = Math.max( maxY, y );
+            } // end while
+            return MyShape.inflateBounds( minX, minY, maxX, maxY, strokeWidth );
+        } // end if
+        
+        int x1 = getX1Coordinate( handle );
+        int y1 = getY1Coordinate( handle );
+        int x2 = getX2Coordinate( handle );
+        int y2 = getY2Coordinate( handle );
+        return MyShape.inflateBounds( Math.min( x1, x2 ), Math.min( y1, y2 ), Math.max( x1, x2 ),
+                                     Math.max( y1, y2 ), strokeWidth );
+    } // end method
+    
+    /**
+     * Builds the paint of a shape: its primary colour, or a gradient between
+     * both colours (see {@link MyShape#getPaint}).
+     *
+     * @param handle The handle of the shape.
+     * @return A {@link java.awt.Color} or a {@link GradientPaint}.
+     */
+    private Paint buildPaint( int handle ) {
+        ShapeStyle style = getStyle( handle );
+        if ( !style.isGradient() )
+            return style.getColour1();
+        
+        // the first point of a polygon or stroke is its first coordinate
+        int x1;
+        int y1;
+        byte type = getType( handle );
+        if ( type == POLYGON ) {
+            x1 = getPointX( handle, 0 );
+            y1 = getPointY( handle, 0 );
+        }
+        else if ( type == PENCIL ) {
+            ByteBuffer points = getEncodedPoints( handle );
+            x1 = ShapeCodec.readNumber( points );
+            y1 = ShapeCodec.readNumber( points );
+        }
+        else {
+            x1 = getX1Coordinate( handle );
+            y1 = getY1Coordinate( handle );
+        } // end if
+        
+        RenderStats.renderObjectCreated();
+        return new GradientPaint( x1, y1, style.getColour1(), getX2Coordinate( handle ),
+                                 getY2Coordinate( handle ), style.getColour2(), true );
+    } // end method
+    
+    /**
+     * Draws the outline of a shape with its stroke. Dashing is expensive, so
+     * the dashed outline is computed once and filled on every later draw, as
+     * MyShape does.
+     *
+     * @param g2d {@link Graphics2D}
+     * @param handle The handle of the shape.
+     * @param rendering What is kept to draw the shape.
+     * @param style The style of the shape.
+     */
+    private void drawOutline( Graphics2D g2d, int handle, Rendering rendering, ShapeStyle style ) {
+        if ( !style.isDashed() ) {
+            g2d.draw( rendering.geometry );
+            return;
+        }
+        
+        Shape outline = rendering.dashedOutline;
+        if ( outline == null ) {
+            outline = style.getStroke().createStrokedShape( rendering.geometry );
+            remember( handle, rendering, rendering.withDashedOutline( outline ) );
+        }
+        g2d.fill( outline );
+    } // end method
+    
+    /**
+     * Builds the full java.awt.geom version of a shape from its stored values.
+     *
+     * @param handle The handle of the shape.
+     * @return The geometry of the shape.
+     */
+    private Shape buildGeometry( int handle ) {
+        byte type = getType( handle );
+        if ( type == POLYGON )
+            return buildPolygon( handle );
+        if ( type == PENCIL )
+            return buildStroke( handle );
+        
+        int x1 = getX1Coordinate( handle );
+        int y1 = getY1Coordinate( handle );
+        int x2 = getX2Coordinate( handle );
+        int y2 = getY2Coordinate( handle );
+        if ( type == OVAL )
+            return new Ellipse2D.Double( Math.min( x1, x2 ), Math.min( y1, y2 ),
+                                        Math.abs( x1 - x2 ), Math.abs( y1 - y2 ) );
+        if ( type == RECTANGLE )
+            return new Rectangle2D.Double( Math.min( x1, x2 ), Math.min( y1, y2 ),
+                                          Math.abs( x1 - x2 ), Math.abs( y1 - y2 ) );
+        return new Line2D.Double( x1, y1, x2, y2 );
+    } // end method
+    
+    /**
+     * Returns the simplified version of a large polygon to draw at a small
+     * scale (see {@link PolygonSimplifier#buildDetailLevels}), building every
+     * version on first use.
+     *
+     * @param handle The handle of the shape.
+     * @param rendering What is kept to draw the shape.
+     * @param scale Device pixels per unit of the drawing.
+     * @return The simplified polygon, or null if the shape is drawn in full.
+     */
+    private Shape getSimplifiedPolygon( int handle, Rendering rendering, double scale ) {
+        if ( scale >= 1 || getType( handle ) != POLYGON )
+            return null;
+        int count = getPointCount( handle );
+        if ( count < PolygonSimplifier.DETAIL_THRESHOLD )
+            return null;
+        
+        Shape[] levels = rendering.detailLevels;
+        if ( levels == null ) {
+            int[] xCoords = new int[count];
+            int[] yCoords = new int[count];
+            for ( int i = 0; i < count; i++ ) {
+                xCoords[i] = getPointX( handle, i );
+                yCoords[i] = getPointY( handle, i );
+            }
+            levels = PolygonSimplifier.buildDetailLevels( xCoords, yCoords, count );
+            remember( handle, rendering, rendering.withDetailLevels( levels ) );
+        }
+        int level = PolygonSimplifier.getDetailLevel( levels.length, scale );
+        return ( level == 0 ) ? null : levels[level];
+    } // end method
+    
+    /**
+     * Builds the closed path through every point of a polygon.
+     *
+     * @param handle The handle of the polygon.
+     * @return A new GeneralPath.
+     */
+    private GeneralPath buildPolygon( int handle ) {
+        int count = getPointCount( handle );
+        GeneralPath polygon = new GeneralPath( GeneralPath.WIND_EVEN_ODD, count );
+        polygon.moveTo( getPointX( handle, 0 ), getPointY( handle, 0 ) );
+        for ( int i = 1; i < count; i++ )
+            polygon.lineTo( getPointX( handle, i ), getPointY( handle, i ) );
+        polygon.closePath();
+        return polygon;
+    } // end method
+    
+    /**
+     * Builds the open path through every point of a pencil stroke, decoded
+     * straight from the stored bytes.
+     *
+     * @param handle The handle of the stroke.
+     * @return The path (a dot for a single point).
+     */
+    private Shape buildStroke( int handle ) {
+        ByteBuffer points = getEncodedPoints( handle );
+        int x = ShapeCodec.readNumber( points );
+        int y = ShapeCodec.readNumber( points );
+        if ( !points.hasRemaining() )
+            return new Line2D.Double( x, y, x, y );
+        
+        GeneralPath path = new GeneralPath( GeneralPath.WIND_NON_ZERO, points.remaining() / 2 + 1 );
+        path.moveTo( x, y );
+        while ( points.hasRemaining() ) {
+            x += ShapeCodec.readNumber( points );
+            y += ShapeCodec.readNumber( points );
+            path.lineTo( x, y );
+        }
+        return path;
+    } // end method
+} // end class
\ No newline at end of file
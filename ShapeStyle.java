@@ -0,0 +1,229 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.util.Arrays;
+
+/**
+ * The look of a shape: its colours, stroke width, dash pattern, and whether it
+ * is a gradient, dashed or filled. Styles cannot be changed, and there is only
+ * one style object for each combination (see {@link StyleRegistry}), so
+ * every shape drawn with the same toolbar settings shares it, along with its
+ * colours, dash pattern and stroke. A shape "changes" its style by switching to
+ * another one (e.g. with {@link #withColour1}).
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+public final class ShapeStyle {
+    private final int id;
+    private final Color colour1;
+    private final Color colour2;
+    private final float strokeWidth;
+    private final float[] dashLength;
+    private final boolean isGradient;
+    private final boolean isDashed;
+    private final boolean filled;
+    
+    // shared stroke, looked up on the first draw
+    private volatile BasicStroke stroke;
+    
+    /*
+     * Class constructor; only used by the registry, with values that it has
+     * already checked.
+     */
+    ShapeStyle( int id, Color colour1, Color colour2, float strokeWidth, float[] dashLength,
+               boolean isGradient, boolean isDashed, boolean filled ) {
+        this.id = id;
+        this.colour1 = colour1;
+        this.colour2 = colour2;
+        this.strokeWidth = strokeWidth;
+        this.dashLength = dashLength;
+        this.isGradient = isGradient;
+        this.isDashed = isDashed;
+        this.filled = filled;
+    } // end constructor
+    
+    /**
+     * Returns the number of the style in the registry, e.g. to store it in
+     * place of the style.
+     *
+     * @return The style id.
+     */
+    public int getId() {
+        return id;
+    } // end method
+    
+    /**
+     * Returns the primary colour.
+     *
+     * @return The colour.
+     */
+    public Color getColour1() {
+        return colour1;
+    } // end method
+    
+    /**
+     * Returns the secondary colour.
+     *
+     * @return The colour.
+     */
+    public Color getColour2() {
+        return colour2;
+    } // end method
+    
+    /**
+     * Returns the stroke width.
+     *
+     * @return The stroke width.
+     */
+    public float getStrokeWidth() {
+        return strokeWidth;
+    } // end method
+    
+    /**
+     * Returns the dash pattern. The array is shared, and must not be changed.
+     *
+     * @return The dash lengths.
+     */
+    public float[] getDashLength() {
+        return dashLength;
+    } // end method
+    
+    /**
+     * Returns whether shapes are drawn with a gradient.
+     *
+     * @return Whether it is a gradient.
+     */
+    public boolean isGradient() {
+        return isGradient;
+    } // end method
+    
+    /**
+     * Returns whether shapes are drawn with dashed lines.
+     *
+     * @return Whether it is dashed.
+     */
+    public boolean isDashed() {
+        return isDashed;
+    } // end method
+    
+    /**
+     * Returns whether (bounded) shapes are filled.
+     *
+     * @return Whether it is filled.
+     */
+    public boolean isFilled() {
+        return filled;
+    } // end method
+    
+    /**
+     * Returns the stroke of the style, shared with every other style that has
+     * the same width and dash pattern.
+     *
+     * @return A {@link BasicStroke}.
+     */
+    public BasicStroke getStroke() {
+        BasicStroke styleStroke = stroke;
+        if ( styleStroke == null ) {
+            styleStroke = StrokeCache.getStroke( strokeWidth, dashLength, isDashed );
+            stroke = styleStroke;
+        }
+        return styleStroke;
+    } // end method
+    
+    /**
+     * Returns the style that differs from this one by its primary colour.
+     *
+     * @param colour The primary colour.
+     * @return The shared style.
+     */
+    public ShapeStyle withColour1( Color colour ) {
+        return StyleRegistry.getStyle( colour, colour2, strokeWidth, dashLength, isGradient,
+                                      isDashed, filled );
+    } // end method
+    
+    /**
+     * Returns the style that differs from this one by its secondary colour.
+     *
+     * @param colour The secondary colour.
+     * @return The shared style.
+     */
+    public ShapeStyle withColour2( Color colour ) {
+        return StyleRegistry.getStyle( colour1, colour, strokeWidth, dashLength, isGradient,
+                                      isDashed, filled );
+    } // end method
+    
+    /**
+     * Returns the style that differs from this one by its stroke width.
+     *
+     * @param width The stroke width.
+     * @return The shared style.
+     */
+    public ShapeStyle withStrokeWidth( float width ) {
+        return StyleRegistry.getStyle( colour1, colour2, width, dashLength, isGradient, isDashed,
+                                      filled );
+    } // end method
+    
+    /**
+     * Returns the style that differs from this one by its dash pattern.
+     *
+     * @param dashes The dash lengths.
+     * @return The shared style.
+     */
+    public ShapeStyle withDashLength( float[] dashes ) {
+        return StyleRegistry.getStyle( colour1, colour2, strokeWidth, dashes, isGradient,
+                                      isDashed, filled );
+    } // end method
+    
+    /**
+     * Returns the style that differs from this one by being a gradient or not.
+     *
+     * @param gradient Whether it is a gradient.
+     * @return The shared style.
+     */
+    public ShapeStyle withGradient( boolean gradient ) {
+        return StyleRegistry.getStyle( colour1, colour2, strokeWidth, dashLength, gradient,
+                                      isDashed, filled );
+    } // end method
+    
+    /**
+     * Returns the style that differs from this one by being dashed or not.
+     *
+     * @param dashed Whether it is dashed.
+     * @return The shared style.
+     */
+    public ShapeStyle withDashed( boolean dashed ) {
+        return StyleRegistry.getStyle( colour1, colour2, strokeWidth, dashLength, isGradient,
+                                      dashed, filled );
+    } // end method
+    
+    /**
+     * Returns the style that differs from this one by being filled or not.
+     *
+     * @param isFilled Whether it is filled.
+     * @return The shared style.
+     */
+    public ShapeStyle withFilled( boolean isFilled ) {
+        return StyleRegistry.getStyle( colour1, colour2, strokeWidth, dashLength, isGradient,
+                                      isDashed, isFilled );
+    } // end method
+    
+    /**
+     * Compares the values of two styles (but not their ids).
+     */
+    public boolean equals( Object other ) {
+        if ( !(other instanceof ShapeStyle) )
+            return false;
+        ShapeStyle style = (ShapeStyle) other;
+        return colour1.getRGB() == style.colour1.getRGB() &&
+            colour2.getRGB() == style.colour2.getRGB() && strokeWidth == style.strokeWidth &&
+            Arrays.equals( dashLength, style.dashLength ) && isGradient == style.isGradient &&
+            isDashed == style.isDashed && filled == style.filled;
+    } // end method
+    
+    public int hashCode() {
+        int hash = 31 * colour1.getRGB() + colour2.getRGB();
+        hash = 31 * hash + Float.floatToIntBits( strokeWidth );
+        hash = 31 * hash + Arrays.hashCode( dashLength );
+        return 8 * hash + (isGradient ? 4 : 0) + (isDashed ? 2 : 0) + (filled ? 1 : 0);
+    } // end method
+} // end class
\ No newline at end of file
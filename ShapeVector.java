@@ -0,0 +1,549 @@
+/**
+ * An immutable version of the shapes of a layer. Every edit returns a new
+ * version, and leaves the old one as it was, so a version can be read by any
+ * thread (e.g. to save or export the drawing in the background) while the
+ * layer goes on changing, and an old version can be kept (or gone back to)
+ * without copying anything.
+ * <p>
+ * The shapes are kept by handle, as in a {@link ShapeStore}: slot i holds the
+ * shape with handle i, or nothing once that shape has been removed. The slots
+ * are the leaves of a tree with 32 children per node (a "persistent vector"),
+ * and an edit only copies the path from the root to the leaf it changes, so
+ * it takes O(log n) time and memory. The last, partly filled leaf (the "tail")
+ * is kept outside the tree, so that most shapes are added without touching the
+ * tree at all. Each leaf holds the values of its 32 shapes in arrays of
+ * primitives, and no shape object is kept.
+ * <p>
+ * A {@link PersistentShapeStore} holds the current version of the shapes of a
+ * layer. New versions are only made on one thread at a time (the event
+ * thread); versions that have been made can be read on any thread.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+final class ShapeVector {
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS; // slots per leaf, children per node
+    private static final int MASK = WIDTH - 1;
+    private static final byte REMOVED = -1; // the type of an empty slot
+    private static final int LEAF_BYTES = 1200; // estimated size of a leaf
+    private static final int NODE_BYTES = 144; // estimated size of a node
+    
+    public static final ShapeVector EMPTY = new ShapeVector( 0, 0, BITS, new Object[WIDTH],
+                                                            new Leaf(), 0 );
+    
+    private final int end; // slots, including empty ones
+    private final int liveCount;
+    private final int shift; // bits of a slot number below the root
+    private final Object[] root; // the children of a node are nodes, or leaves
+    private final Leaf tail;
+    private final long payloadBytes; // memory held by points of polygons and strokes
+    
+    /*
+     * The values of (up to) 32 shapes. A leaf is never changed once a version
+     * can see its slots: edits copy it. The tail may still be filled in place,
+     * but only in slots that no version can see yet.
+     */
+    private static final class Leaf {
+        private final byte[] types = new byte[WIDTH];
+        private final int[] x1Coords = new int[WIDTH];
+        private final int[] y1Coords = new int[WIDTH];
+        private final int[] x2Coords = new int[WIDTH];
+        private final int[] y2Coords = new int[WIDTH];
+        private final int[] styleIds = new int[WIDTH];
+        private final int[] orders = new int[WIDTH];
+        // the points of a polygon (int[][] of x and y) or stroke (byte[])
+        private final Object[] payloads = new Object[WIDTH];
+        private int used; // slots filled, by any version
+        
+        private Leaf copy( int count ) {
+            Leaf leaf = new Leaf();
+            System.arraycopy( types, 0, leaf.types, 0, count );
+            System.arraycopy( x1Coords, 0, leaf.x1Coords, 0, count );
+            System.arraycopy( y1Coords, 0, leaf.y1Coords, 0, count );
+            System.arraycopy( x2Coords, 0, leaf.x2Coords, 0, count );
+            System.arraycopy( y2Coords, 0, leaf.y2Coords, 0, count );
+            System.arraycopy( styleIds, 0, leaf.styleIds, 0, count );
+            System.arraycopy( orders, 0, leaf.orders, 0, count );
+            System.arraycopy( payloads, 0, leaf.payloads, 0, count );
+            leaf.used = count;
+            return leaf;
+        }
+    } // end inner class
+    
+    /*
+     * Class constructor for a new version.
+     */
+    private ShapeVector( int end, int liveCount, int shift, Object[] root, Leaf tail,
+                        long payloadBytes ) {
+        this.end = end;
+        this.liveCount = liveCount;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+        this.payloadBytes = payloadBytes;
+    } // end constructor
+    
+    /**
+     * Gets the number of shapes.
+     *
+     * @return The number of shapes.
+     */
+    public int getSize() {
+        return liveCount;
+    } // end method
+    
+    /**
+     * Returns one more than the highest handle in use.
+     *
+     * @return The end of the handles.
+     */
+    public int getEnd() {
+        return end;
+    } // end method
+    
+    /**
+     * Returns whether a handle refers to a shape of this version.
+     *
+     * @param handle The handle of a shape.
+     * @return Whether the shape is there.
+     */
+    public boolean contains( int handle ) {
+        return handle >= 0 && handle < end && getLeaf( handle ).types[handle & MASK] != REMOVED;
+    } // end method
+    
+    /**
+     * Returns the type of a shape.
+     *
+     * @param handle The handle of the shape.
+     * @return A type of {@link ShapeStore}, e.g. ShapeStore.LINE.
+     */
+    public byte getType( int handle ) {
+        return getLeaf( handle ).types[handle & MASK];
+    } // end method
+    
+    /**
+     * Returns the first x coordinate of a shape (the first point of a polygon
+     * or stroke).
+     *
+     * @param handle The handle of the shape.
+     * @return The x coordinate.
+     */
+    public int getX1Coordinate( int handle ) {
+        return getLeaf( handle ).x1Coords[handle & MASK];
+    } // end method
+    
+    /**
+     * Returns the first y coordinate of a shape.
+     *
+     * @param handle The handle of the shape.
+     * @return The y coordinate.
+     */
+    public int getY1Coordinate( int handle ) {
+        return getLeaf( handle ).y1Coords[handle & MASK];
+    } // end method
+    
+    /**
+     * Returns the second x coordinate of a shape.
+     *
+     * @param handle The handle of the shape.
+     * @return The x coordinate.
+     */
+    public int getX2Coordinate( int handle ) {
+        return getLeaf( handle ).x2Coords[handle & MASK];
+    } // end method
+    
+    /**
+     * Returns the second y coordinate of a shape.
+     *
+     * @param handle The handle of the shape.
+     * @return The y coordinate.
+     */
+    public int getY2Coordinate( int handle ) {
+        return getLeaf( handle ).y2Coords[handle & MASK];
+    } // end method
+    
+    /**
+     * Returns the points of a polygon, without copying them.
+     *
+     * @param handle The handle of the polygon.
+     * @return The x coordinates and the y coordinates (which must not be
+     * changed).
+     */
+    public int[][] getPoints( int handle ) {
+        return (int[][]) getLeaf( handle ).payloads[handle & MASK];
+    } // end method
+    
+    /**
+     * Returns the encoded points of a pencil stroke (see {@link MyPencil}),
+     * without copying them.
+     *
+     * @param handle The handle of the stroke.
+     * @return The points (which must not be changed).
+     */
+    public byte[] getEncodedPoints( int handle ) {
+        return (byte[]) getLeaf( handle ).payloads[handle & MASK];
+    } // end method
+    
+    /**
+     * Returns the id of the style of a shape (see {@link StyleRegistry}).
+     *
+     * @param handle The handle of the shape.
+     * @return The id of the style.
+     */
+    public int getStyleId( int handle ) {
+        return getLeaf( handle ).styleIds[handle & MASK];
+    } // end method
+    
+    /**
+     * Returns the drawing order of a shape.
+     *
+     * @param handle The handle of the shape.
+     * @return The order key.
+     */
+    public int getOrder( int handle ) {
+        return getLeaf( handle ).orders[handle & MASK];
+    } // end method
+    
+    /**
+     * Returns (an estimate of) the memory held by this version, including
+     * what it shares with other versions.
+     *
+     * @return The number of bytes.
+     */
+    public long getMemoryUsed() {
+        long leaves = end / WIDTH + 1;
+        return leaves * LEAF_BYTES + (leaves / WIDTH + 1) * NODE_BYTES + payloadBytes;
+    } // end method
+    
+    /**
+     * Returns a version with a shape added after the last handle.
+     *
+     * @param shape The (completed) shape; later changes to it are not seen.
+     * @param order The order key of the shape.
+     * @return The new version.
+     */
+    public ShapeVector add( MyShape shape, int order ) {
+        return append( shape, order );
+    } // end method
+    
+    /**
+     * Returns a version with a shape at an empty handle, e.g. to put back a
+     * shape that was removed. Empty slots are added up to the handle if it is
+     * past the end.
+     *
+     * @param handle The handle, which must not refer to a shape.
+     * @param shape The (completed) shape; later changes to it are not seen.
+     * @param order The order key of the shape.
+     * @return The new version.
+     */
+    public ShapeVector put( int handle, MyShape shape, int order ) {
+        ShapeVector version = this;
+        while ( version.end < handle )
+            version = version.append( null, 0 );
+        if ( handle == version.end )
+            return version.append( shape, order );
+        
+        Leaf leaf = version.getLeaf( handle ).copy( WIDTH );
+        long payload = write( leaf, handle & MASK, shape, order );
+        return version.replace( handle, leaf, version.liveCount + 1,
+                               version.payloadBytes + payload );
+    } // end method
+    
+    /**
+     * Returns a version with a slot added after the last handle.
+     *
+     * @param shape The shape to copy into the slot, or null for an empty slot.
+     * @param order The order key of the shape.
+     * @return The new version.
+     */
+    private ShapeVector append( MyShape shape, int order ) {
+        int tailCount = end - getTailOffset();
+        Object[] newRoot = root;
+        int newShift = shift;
+        Leaf newTail;
+        
+        if ( tailCount < WIDTH ) {
+            // fill the tail in place if no other version has filled this slot
+            newTail = ( tail.used == tailCount ) ? tail : tail.copy( tailCount );
+        }
+        else {
+            // the full tail becomes a leaf of the tree
+            if ( (end >>> BITS) > (1 << shift) ) {
+                newRoot = new Object[WIDTH];
+                newRoot[0] = root;
+                newRoot[1] = createPath( shift, tail );
+                newShift += BITS;
+            }
+            else {
+                newRoot = pushTail( shift, root, tail );
+            } // end if
+            newTail = new Leaf();
+            tailCount = 0;
+        } // end if
+        
+        long payload = write( newTail, tailCount, shape, order );
+        newTail.used = tailCount + 1;
+        return new ShapeVector( end + 1, ( shape != null ) ? liveCount + 1 : liveCount, newShift,
+                               newRoot, newTail, payloadBytes + payload );
+    } // end method
+    
+    /**
+     * Returns a version without a shape. Empty slots at the end are dropped,
+     * so that their handles are used again (as in a ShapeStore).
+     *
+     * @param handle The handle of the shape.
+     * @return The new version (this one if the shape was not there).
+     */
+    public ShapeVector remove( int handle ) {
+        if ( !contains( handle ) )
+            return this;
+        
+        Leaf leaf = getLeaf( handle ).copy( WIDTH );
+        int slot = handle & MASK;
+        long payload = getPayloadBytes( leaf.payloads[slot] );
+        leaf.types[slot] = REMOVED;
+        leaf.payloads[slot] = null;
+        ShapeVector version = replace( handle, leaf, liveCount - 1, payloadBytes - payload );
+        
+        while ( version.end > 0 && version.getType( version.end - 1 ) == REMOVED )
+            version = version.removeLastSlot();
+        return version;
+    } // end method
+    
+    /**
+     * Returns a version in which a shape has another drawing order.
+     *
+     * @param handle The handle of the shape.
+     * @param order The new order key of the shape.
+     * @return The new version.
+     */
+    public ShapeVector setOrder( int handle, int order ) {
+        if ( !contains( handle ) )
+            return this;
+        
+        Leaf leaf = getLeaf( handle ).copy( WIDTH );
+        leaf.orders[handle & MASK] = order;
+        return replace( handle, leaf, liveCount, payloadBytes );
+    } // end method
+    
+    /**
+     * Returns the first handle held by the tail.
+     *
+     * @return The handle.
+     */
+    private int getTailOffset() {
+        return ( end < WIDTH ) ? 0 : ((end - 1) >>> BITS) << BITS;
+    } // end method
+    
+    /**
+     * Returns the leaf that holds a handle.
+     *
+     * @param handle The handle, below the end.
+     * @return The leaf.
+     */
+    private Leaf getLeaf( int handle ) {
+        if ( handle >= getTailOffset() )
+            return tail;
+        
+        Object node = root;
+        for ( int level = shift; level > 0; level -= BITS )
+            node = ((Object[]) node)[(handle >>> level) & MASK];
+        return (Leaf) node;
+    } // end method
+    
+    /**
+     * Copies a shape into a slot of a leaf.
+     *
+     * @param leaf The leaf.
+     * @param slot The slot.
+     * @param shape The shape, or null to empty the slot.
+     * @param order The order key of the shape.
+     * @return The memory held by the points of the shape, in bytes.
+     */
+    private static long write( Leaf leaf, int slot, MyShape shape, int order ) {
+        if ( shape == null ) {
+            leaf.types[slot] = REMOVED;
+            leaf.payloads[slot] = null;
+            return 0;
+        }
+        
+        leaf.styleIds[slot] = shape.getStyle().getId();
+        leaf.x1Coords[slot] = shape.getX1Coordinate();
+        leaf.y1Coords[slot] = shape.getY1Coordinate();
+        leaf.x2Coords[slot] = shape.getX2Coordinate();
+        leaf.y2Coords[slot] = shape.getY2Coordinate();
+        leaf.orders[slot] = order;
+        leaf.payloads[slot] = null;
+        
+        if ( shape instanceof MyPolygon ) {
+            MyPolygon polygon = (MyPolygon) shape;
+            int[][] points = new int[2][polygon.getNumberPoints()];
+            for ( int i = 0; i < points[0].length; i++ ) {
+                points[0][i] = polygon.getXCoordinate( i );
+                points[1][i] = polygon.getYCoordinate( i );
+            }
+            leaf.types[slot] = ShapeStore.POLYGON;
+            leaf.payloads[slot] = points;
+        }
+        else if ( shape instanceof MyPencil ) {
+            leaf.types[slot] = ShapeStore.PENCIL;
+            leaf.payloads[slot] = ((MyPencil) shape).getEncodedPoints();
+        }
+        else if ( shape instanceof MyOval ) {
+            leaf.types[slot] = ShapeStore.OVAL;
+        }
+        else if ( shape instanceof MyRectangle ) {
+            leaf.types[slot] = ShapeStore.RECTANGLE;
+        }
+        else {
+            leaf.types[slot] = ShapeStore.LINE;
+        } // end if
+        return getPayloadBytes( leaf.payloads[slot] );
+    } // end method
+    
+    /**
+     * Returns the memory held by the points of a polygon or stroke.
+     *
+     * @param payload The points, or null.
+     * @return The number of bytes.
+     */
+    private static long getPayloadBytes( Object payload ) {
+        if ( payload instanceof int[][] )
+            return 56 + 8L * ((int[][]) payload)[0].length;
+        if ( payload instanceof byte[] )
+            return 16 + ((byte[]) payload).length;
+        return 0;
+    } // end method
+    
+    /**
+     * Returns a version in which the leaf holding a handle is replaced.
+     *
+     * @param handle The handle.
+     * @param leaf The new leaf (a changed copy of the old one).
+     * @param newLiveCount The number of shapes of the new version.
+     * @param newPayloadBytes The memory held by points in the new version.
+     * @return The new version.
+     */
+    private ShapeVector replace( int handle, Leaf leaf, int newLiveCount, long newPayloadBytes ) {
+        if ( handle >= getTailOffset() ) {
+            leaf.used = end - getTailOffset();
+            return new ShapeVector( end, newLiveCount, shift, root, leaf, newPayloadBytes );
+        }
+        return new ShapeVector( end, newLiveCount, shift, replace( shift, root, handle, leaf ), tail,
+                               newPayloadBytes );
+    } // end method
+    
+    /**
+     * Copies the path from a node down to the leaf holding a handle.
+     *
+     * @param level The shift of the node.
+     * @param node The node.
+     * @param handle The handle.
+     * @param leaf The new leaf.
+     * @return The copy of the node.
+     */
+    private static Object[] replace( int level, Object[] node, int handle, Leaf leaf ) {
+        Object[] copy = node.clone();
+        int index = (handle >>> level) & MASK;
+        if ( level == BITS )
+            copy[index] = leaf;
+        else
+            copy[index] = replace( level - BITS, (Object[]) node[index], handle, leaf );
+        return copy;
+    } // end method
+    
+    /**
+     * Returns a version without its last slot.
+     *
+     * @return The new version.
+     */
+    private ShapeVector removeLastSlot() {
+        boolean live = getType( end - 1 ) != REMOVED;
+        int newLiveCount = live ? liveCount - 1 : liveCount;
+        long newPayloadBytes = payloadBytes;
+        if ( live )
+            newPayloadBytes -= getPayloadBytes( tail.payloads[(end - 1) & MASK] );
+        if ( end == 1 )
+            return EMPTY;
+        
+        // the slot stays in the tail, but this version cannot see it
+        if ( end - getTailOffset() > 1 )
+            return new ShapeVector( end - 1, newLiveCount, shift, root, tail, newPayloadBytes );
+        
+        // the last leaf of the tree becomes the tail
+        Leaf newTail = getLeaf( end - 2 );
+        Object[] newRoot = popTail( shift, root );
+        int newShift = shift;
+        if ( newRoot == null )
+            newRoot = new Object[WIDTH];
+        if ( shift > BITS && newRoot[1] == null ) {
+            newRoot = (Object[]) newRoot[0];
+            newShift -= BITS;
+        }
+        return new ShapeVector( end - 1, newLiveCount, newShift, newRoot, newTail, newPayloadBytes );
+    } // end method
+    
+    /**
+     * Copies the path from a node down to the last leaf, without that leaf.
+     *
+     * @param level The shift of the node.
+     * @param node The node.
+     * @return The copy of the node, or null if it would be empty.
+     */
+    private Object[] popTail( int level, Object[] node ) {
+        int index = ((end - 2) >>> level) & MASK;
+        if ( level > BITS ) {
+            Object[] child = popTail( level - BITS, (Object[]) node[index] );
+            if ( child == null && index == 0 )
+                return null;
+            Object[] copy = node.clone();
+            copy[index] = child;
+            return copy;
+        }
+        if ( index == 0 )
+            return null;
+        
+        Object[] copy = node.clone();
+        copy[index] = null;
+        return copy;
+    } // end method
+    
+    /**
+     * Copies the path from a node down to where the (full) tail is added as
+     * the last leaf.
+     *
+     * @param level The shift of the node.
+     * @param node The node.
+     * @param leaf The tail.
+     * @return The copy of the node.
+     */
+    private Object[] pushTail( int level, Object[] node, Leaf leaf ) {
+        int index = ((end - 1) >>> level) & MASK;
+        Object[] copy = node.clone();
+        if ( level == BITS ) {
+            copy[index] = leaf;
+        }
+        else {
+            Object[] child = (Object[]) node[index];
+            copy[index] = ( child != null ) ? pushTail( level - BITS, child, leaf ) :
+                createPath( level - BITS, leaf );
+        } // end if
+        return copy;
+    } // end method
+    
+    /**
+     * Creates the nodes from a level of the tree down to a leaf.
+     *
+     * @param level The shift of the top node (0 for the leaf itself).
+     * @param leaf The leaf.
+     * @return The top node, or the leaf.
+     */
+    private static Object createPath( int level, Leaf leaf ) {
+        if ( level == 0 )
+            return leaf;
+        Object[] node = new Object[WIDTH];
+        node[0] = createPath( level - BITS, leaf );
+        return node;
+    } // end method
+} // end class
\ No newline at end of file
@@ -0,0 +1,84 @@
+import java.awt.BasicStroke;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Contains a shared cache of strokes. A drawing usually uses only a handful of
+ * stroke styles, so every shape with the same width and dash pattern shares a
+ * single (immutable) {@link BasicStroke} instead of creating its own.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class StrokeCache {
+    private static final ConcurrentHashMap<Key, BasicStroke> strokes =
+        new ConcurrentHashMap<Key, BasicStroke>();
+    
+    /*
+     * The attributes that make two strokes the same.
+     */
+    private static class Key {
+        private final float width;
+        private final float[] dashLength;
+        private final boolean isDashed;
+        
+        private Key( float width, float[] dashLength, boolean isDashed ) {
+            this.width = width;
+            this.isDashed = isDashed;
+            // the dash length does not matter for solid lines
+            this.dashLength = isDashed ? dashLength.clone() : null;
+        }
+        
+        public boolean equals( Object other ) {
+            if ( !(other instanceof Key) )
+                return false;
+            Key key = (Key) other;
+            return width == key.width && isDashed == key.isDashed &&
+                Arrays.equals( dashLength, key.dashLength );
+        }
+        
+        public int hashCode() {
+            return 31 * (31 * Float.floatToIntBits( width ) + Arrays.hashCode( dashLength )) +
+                (isDashed ? 1 : 0);
+        }
+    } // end inner class
+    
+    /**
+     * Returns the shared stroke for a width and dash pattern, creating it the
+     * first time it is asked for.
+     *
+     * @param width The stroke width.
+     * @param dashLength The dash pattern (ignored for solid lines).
+     * @param isDashed Whether the stroke is dashed.
+     * @return The shared stroke.
+     */
+    public static BasicStroke getStroke( float width, float[] dashLength, boolean isDashed ) {
+        Key key = new Key( width, dashLength, isDashed );
+        BasicStroke stroke = strokes.get( key );
+        
+        if ( stroke == null ) {
+            if ( isDashed )
+                stroke = new BasicStroke( width, BasicStroke.CAP_SQUARE,
+                                         BasicStroke.JOIN_ROUND, 1f, key.dashLength, 0 );
+            else
+                stroke = new BasicStroke( width, BasicStroke.CAP_SQUARE,
+                                         BasicStroke.JOIN_ROUND );
+            
+            BasicStroke previous = strokes.putIfAbsent( key, stroke );
+            if ( previous != null )
+                stroke = previous; // another thread got there first
+            else
+                RenderStats.renderObjectCreated();
+        } // end if
+        return stroke;
+    } // end method
+    
+    /**
+     * Gets the number of different strokes in the cache.
+     *
+     * @return The number of strokes.
+     */
+    public static int getSize() {
+        return strokes.size();
+    }
+} // end class
\ No newline at end of file
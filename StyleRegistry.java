@@ -0,0 +1,126 @@
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out one shared {@link ShapeStyle} for each combination of colours,
+ * stroke width, dash pattern and flags, and one shared {@link Color} for each
+ * colour. A drawing with hundreds of thousands of shapes usually has only a
+ * handful of styles, so its shapes hold a reference to (or the id of) a shared
+ * style instead of their own colours and dash arrays.
+ * <p>
+ * Styles are never removed, and each one keeps its id, so that ids can be
+ * stored in place of the styles (see {@link ShapeStore}). The registry may be
+ * used from several threads.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class StyleRegistry {
+    private static final ConcurrentHashMap<ShapeStyle, ShapeStyle> styles =
+        new ConcurrentHashMap<ShapeStyle, ShapeStyle>();
+    private static final ConcurrentHashMap<Integer, Color> colours =
+        new ConcurrentHashMap<Integer, Color>();
+    private static final float[] DEFAULT_DASH_LENGTH = { 1 };
+    
+    // the styles by id; replaced by a larger copy when it is full
+    private static volatile ShapeStyle[] stylesById = new ShapeStyle[16];
+    private static int styleCount;
+    
+    /**
+     * Returns the shared style with the given values. Values that a shape would
+     * not accept are replaced as the shape's mutators do: a missing colour by
+     * black, a width below or equal to zero by 1, and a missing or non-positive
+     * dash length by 1.
+     *
+     * @param colour1 Primary colour.
+     * @param colour2 Secondary colour.
+     * @param strokeWidth Stroke width.
+     * @param dashLength Dash length.
+     * @param isGradient Whether the shape is gradient.
+     * @param isDashed Whether the shape is dashed.
+     * @param filled Whether the shape is filled.
+     * @return The style.
+     */
+    public static ShapeStyle getStyle( Color colour1, Color colour2, float strokeWidth,
+                                      float[] dashLength, boolean isGradient, boolean isDashed,
+                                      boolean filled ) {
+        if ( strokeWidth <= 0 )
+            strokeWidth = 1;
+        if ( dashLength == null || dashLength.length == 0 || dashLength[0] <= 0 )
+            dashLength = DEFAULT_DASH_LENGTH;
+        
+        ShapeStyle key = new ShapeStyle( -1, getColour( colour1 ), getColour( colour2 ),
+                                        strokeWidth, dashLength, isGradient, isDashed, filled );
+        ShapeStyle style = styles.get( key );
+        if ( style == null )
+            style = addStyle( key );
+        return style;
+    } // end method
+    
+    /**
+     * Returns the style with an id.
+     *
+     * @param id The id of the style.
+     * @return The style.
+     */
+    public static ShapeStyle getStyle( int id ) {
+        return stylesById[id];
+    } // end method
+    
+    /**
+     * Returns the shared colour with the same value (alpha included).
+     *
+     * @param colour A colour, or null for black.
+     * @return The shared colour.
+     */
+    public static Color getColour( Color colour ) {
+        if ( colour == null )
+            colour = Color.BLACK;
+        
+        Color shared = colours.get( colour.getRGB() );
+        if ( shared == null ) {
+            // a subclass (e.g. a system colour) may change; keep a plain copy
+            shared = ( colour.getClass() == Color.class ) ? colour :
+                new Color( colour.getRGB(), true );
+            Color previous = colours.putIfAbsent( colour.getRGB(), shared );
+            if ( previous != null )
+                shared = previous; // another thread got there first
+        } // end if
+        return shared;
+    } // end method
+    
+    /**
+     * Returns the number of styles.
+     *
+     * @return The number of styles.
+     */
+    public static int getSize() {
+        return styles.size();
+    } // end method
+    
+    /**
+     * Gives a new style an id and registers it, unless another thread has just
+     * done so.
+     *
+     * @param key The values of the style.
+     * @return The registered style.
+     */
+    private static synchronized ShapeStyle addStyle( ShapeStyle key ) {
+        ShapeStyle style = styles.get( key );
+        if ( style != null )
+            return style;
+        
+        // the style keeps its own copy of the dash pattern
+        style = new ShapeStyle( styleCount, key.getColour1(), key.getColour2(),
+                               key.getStrokeWidth(), key.getDashLength().clone(), key.isGradient(),
+                               key.isDashed(), key.isFilled() );
+        ShapeStyle[] byId = stylesById;
+        if ( styleCount == byId.length )
+            byId = Arrays.copyOf( byId, 2 * styleCount );
+        byId[styleCount++] = style;
+        stylesById = byId; // publishes the new style to other threads
+        styles.put( style, style );
+        return style;
+    } // end method
+} // end class
\ No newline at end of file
@@ -0,0 +1,266 @@
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the completed shapes of a drawing as rasterized tiles, at every zoom
+ * level that has been looked at. Level 0 shows the drawing at its own size,
+ * level 1 at twice its size, level -1 at half, and so on; each level is cut
+ * into square tiles of {@link TileRenderer#TILE_SIZE} pixels. Painting the
+ * panel only has to copy the tiles it can see, and missing tiles are
+ * rasterized from the shape index when they are first needed.
+ * <p>
+ * When a shape is removed, only the tiles under its bounds are thrown away;
+ * when a shape is added, it is simply drawn on top of the tiles under it. The
+ * least recently used tiles are dropped once there are more than
+ * {@link #MAX_TILES} of them.
+ * <p>
+ * Missing tiles are rasterized progressively: each paint only spends a time
+ * budget on them, shows them partly drawn, and continues where it stopped on
+ * the next paint, so that a drawing with a huge number of shapes does not
+ * freeze the program.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class TilePyramid {
+    public static final int MIN_LEVEL = -4; // 1/16 of the size
+    public static final int MAX_LEVEL = 4; // 16 times the size
+    public static final int MAX_TILES = 256; // about 64 MB of images
+    
+    private TileRenderer renderer;
+    private LinkedHashMap<Long, BufferedImage> tiles; // in order of use
+    private HashMap<Long, TileRenderer.Tile> pendingTiles; // partly drawn tiles
+    private int pendingLevel; // the zoom level of the partly drawn tiles
+    private int progress; // of the visible tiles in the last paint, in percent
+    
+    /**
+     * Constructor: caches the shapes of the given store.
+     *
+     * @param store The completed shapes.
+     * @param index The index of the shapes in the store.
+     */
+    public TilePyramid( ShapeStore store, ShapeGrid index ) {
+        renderer = new TileRenderer( store, index );
+        pendingTiles = new HashMap<Long, TileRenderer.Tile>();
+        tiles = new LinkedHashMap<Long, BufferedImage>( 64, 0.75f, true ) {
+            protected boolean removeEldestEntry( Map.Entry<Long, BufferedImage> eldest ) {
+                return size() > MAX_TILES;
+            }
+        };
+    } // end constructor
+    
+    /**
+     * Returns the number of pixels per unit of the drawing at a zoom level.
+     *
+     * @param level The zoom level.
+     * @return The scale factor (a power of two).
+     */
+    public static double getScale( int level ) {
+        return Math.pow( 2, level );
+    } // end method
+    
+    /**
+     * Returns the number of tiles in the cache.
+     *
+     * @return The number of tiles.
+     */
+    public int getSize() {
+        return tiles.size();
+    } // end method
+    
+    /**
+     * Returns how much of the visible tiles had been rasterized at the end of
+     * the last paint.
+     *
+     * @return The percentage of their shapes drawn (100 when they are done).
+     */
+    public int getProgress() {
+        return progress;
+    } // end method
+    
+    /**
+     * Copies the tiles that cover a region of the view, after spending up to a
+     * time budget on the missing ones (in parallel, when there are many).
+     * Missing tiles are shown as far as they have been drawn.
+     *
+     * @param g2d {@link Graphics2D} of the view, in pixels.
+     * @param level The zoom level being shown.
+     * @param originX The pixel (at the zoom level) shown at the left of the view.
+     * @param originY The pixel (at the zoom level) shown at the top of the view.
+     * @param region The region of the view to paint.
+     * @param budget The time (in nanoseconds) to spend rasterizing, or
+     * Long.MAX_VALUE to finish every tile.
+     * @return Whether every tile in the region is done; if not, the region
+     * should be painted again.
+     */
+    public boolean paint( Graphics2D g2d, int level, int originX, int originY, Rectangle region,
+                         long budget ) {
+        long deadline = ( budget == Long.MAX_VALUE ) ? budget : System.nanoTime() + budget;
+        int size = TileRenderer.TILE_SIZE;
+        int firstColumn = Math.max( 0, Math.floorDiv( originX + region.x, size ) );
+        int firstRow = Math.max( 0, Math.floorDiv( originY + region.y, size ) );
+        int lastColumn = Math.floorDiv( originX + region.x + region.width - 1, size );
+        int lastRow = Math.floorDiv( originY + region.y + region.height - 1, size );
+        
+        int columns = lastColumn - firstColumn + 1;
+        int rows = lastRow - firstRow + 1;
+        if ( columns <= 0 || rows <= 0 )
+            return true;
+        
+        // partly drawn tiles of another zoom level are not worth finishing
+        if ( level != pendingLevel ) {
+            pendingTiles.clear();
+            pendingLevel = level;
+        }
+        
+        // rasterize every missing tile at once, so that they can share the threads
+        BufferedImage[] visible = new BufferedImage[columns * rows];
+        ArrayList<TileRenderer.Tile> missing = new ArrayList<TileRenderer.Tile>();
+        for ( int i = 0; i < visible.length; i++ ) {
+            int column = firstColumn + i % columns;
+            int row = firstRow + i / columns;
+            long key = getKey( level, column, row );
+            visible[i] = tiles.get( key );
+            if ( visible[i] != null )
+                continue;
+            
+            TileRenderer.Tile tile = pendingTiles.get( key );
+            if ( tile == null ) {
+                tile = renderer.createTile( new Rectangle( column * size, row * size, size, size ),
+                                           getScale( level ) );
+                pendingTiles.put( key, tile );
+            }
+            missing.add( tile );
+        } // end for
+        
+        long shapes = 0;
+        long shapesDrawn = 0;
+        if ( !missing.isEmpty() ) {
+            renderer.render( missing, deadline );
+            for ( TileRenderer.Tile tile : missing ) {
+                shapes += tile.getShapeCount();
+                shapesDrawn += tile.getShapesDrawn();
+            }
+        }
+        progress = ( shapes == 0 ) ? 100 : (int) (100 * shapesDrawn / shapes);
+        
+        for ( int i = 0; i < visible.length; i++ ) {
+            int column = firstColumn + i % columns;
+            int row = firstRow + i / columns;
+            if ( visible[i] == null )
+                visible[i] = pendingTiles.get( getKey( level, column, row ) ).getImage();
+            g2d.drawImage( visible[i], column * size - originX, row * size - originY, null );
+        } // end for
+        
+        // cached last, so that none of this view's tiles is dropped while painting it
+        boolean done = true;
+        for ( TileRenderer.Tile tile : missing ) {
+            if ( tile.isFinished() ) {
+                Rectangle bounds = tile.getBounds();
+                long key = getKey( level, bounds.x / size, bounds.y / size );
+                pendingTiles.remove( key );
+                tiles.put( key, tile.getImage() );
+            }
+            else {
+                done = false;
+            } // end if
+        } // end for
+        return done;
+    } // end method
+    
+    /**
+     * Draws a newly completed shape on top of every cached tile under it.
+     * Tiles that are not cached will include it when they are rasterized.
+     *
+     * @param id The handle of the shape in the store.
+     * @param shape The shape that was added on top of the drawing.
+     */
+    public void addShape( int id, MyShape shape ) {
+        Rectangle bounds = shape.getBounds();
+        
+        // partly drawn tiles draw it after the shapes they already have
+        for ( Map.Entry<Long, TileRenderer.Tile> entry : pendingTiles.entrySet() ) {
+            Rectangle tileBounds = getTileBounds( entry.getKey() );
+            if ( TileRenderer.toDrawing( tileBounds, getScale( pendingLevel ) ).intersects( bounds ) )
+                entry.getValue().addShape( id );
+        }
+        
+        for ( Map.Entry<Long, BufferedImage> entry : tiles.entrySet() ) {
+            long key = entry.getKey();
+            Rectangle tileBounds = getTileBounds( key );
+            double scale = getScale( getLevel( key ) );
+            if ( !TileRenderer.toDrawing( tileBounds, scale ).intersects( bounds ) )
+                continue;
+            
+            Graphics2D g2d = entry.getValue().createGraphics();
+            g2d.translate( -tileBounds.x, -tileBounds.y );
+            g2d.scale( scale, scale );
+            shape.draw( g2d );
+            g2d.dispose();
+        } // end for
+    } // end method
+    
+    /**
+     * Drops every cached tile (at any level) that shows part of a region of
+     * the drawing, so that it is rasterized again when it is next painted.
+     *
+     * @param bounds The region of the drawing that changed.
+     */
+    public void invalidate( Rectangle bounds ) {
+        invalidate( tiles.keySet().iterator(), bounds );
+        invalidate( pendingTiles.keySet().iterator(), bounds );
+    } // end method
+    
+    /**
+     * Removes the keys of the tiles that show part of a region of the drawing.
+     *
+     * @param keys An iterator over the keys of a map of tiles.
+     * @param bounds The region of the drawing that changed.
+     */
+    private static void invalidate( Iterator<Long> keys, Rectangle bounds ) {
+        while ( keys.hasNext() ) {
+            long key = keys.next();
+            Rectangle tileBounds = getTileBounds( key );
+            if ( TileRenderer.toDrawing( tileBounds, getScale( getLevel( key ) ) ).intersects( bounds ) )
+                keys.remove();
+        } // end while
+    } // end method
+    
+    /**
+     * Drops every cached tile.
+     */
+    public void makeEmpty() {
+        tiles.clear();
+        pendingTiles.clear();
+    } // end method
+    
+    /**
+     * Returns the cache key of a tile.
+     */
+    private static long getKey( int level, int column, int row ) {
+        return ((long) (level - MIN_LEVEL) << 56) | ((long) column << 28) | row;
+    } // end method
+    
+    /**
+     * Returns the zoom level of a cache key.
+     */
+    private static int getLevel( long key ) {
+        return (int) (key >>> 56) + MIN_LEVEL;
+    } // end method
+    
+    /**
+     * Returns the bounds of a tile, in pixels at its zoom level.
+     */
+    private static Rectangle getTileBounds( long key ) {
+        int size = TileRenderer.TILE_SIZE;
+        int column = (int) ((key >>> 28) & 0xFFFFFFF);
+        int row = (int) (key & 0xFFFFFFF);
+        return new Rectangle( column * size, row * size, size, size );
+    } // end method
+} // end class
\ No newline at end of file
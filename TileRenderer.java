@@ -0,0 +1,199 @@
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Rasterizes square tiles of a drawing from the shapes in a {@link ShapeStore}
+ * (found through a {@link ShapeGrid}), at any scale. A tile may be rasterized a
+ * slice of shapes at a time: each call to {@link #render} draws shapes until a
+ * deadline and remembers where it stopped, so that a tile with hundreds of
+ * thousands of shapes never blocks the caller for long. When many shapes are
+ * left to draw, every tile is drawn on a separate thread of a fork/join pool
+ * (each until the deadline); a few shapes are drawn directly, since starting
+ * the threads would cost more than it saves.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class TileRenderer {
+    public static final int TILE_SIZE = 256; // in pixels, at any scale
+    public static final int PARALLEL_THRESHOLD = 1000; // shapes left per call
+    public static final int SLICE_SIZE = 128; // shapes drawn between checks of the time
+    
+    private static ForkJoinPool pool;
+    private ShapeStore store;
+    private ShapeGrid index;
+    
+    /*
+     * A tile being rasterized, with the indices of the shapes that cover it
+     * (looked up beforehand, since the grid is only used from one thread) and
+     * the number of them drawn so far. The shapes are drawn straight from the
+     * store, without creating a shape object (see ShapeBatcher).
+     */
+    static class Tile extends RecursiveAction {
+        private static final long serialVersionUID = 1L; // never serialized
+        private final Rectangle bounds; // in pixels at the tile's scale
+        private final double scale;
+        private final ShapeStore store;
+        private int[] shapes;
+        private int shapeCount;
+        private int cursor;
+        private BufferedImage image;
+        private long deadline;
+        
+        private Tile( Rectangle bounds, double scale, ShapeStore store, int[] shapes ) {
+            this.bounds = bounds;
+            this.scale = scale;
+            this.store = store;
+            this.shapes = shapes;
+            shapeCount = shapes.length;
+        }
+        
+        public Rectangle getBounds() {
+            return bounds;
+        }
+        
+        public BufferedImage getImage() {
+            return image;
+        }
+        
+        public int getShapeCount() {
+            return shapeCount;
+        }
+        
+        public int getShapesDrawn() {
+            return cursor;
+        }
+        
+        public boolean isFinished() {
+            return image != null && cursor == shapeCount;
+        }
+        
+        // adds a shape (by its handle in the store) on top of the shapes still
+        // to be drawn
+        public void addShape( int shape ) {
+            if ( shapeCount == shapes.length )
+                shapes = Arrays.copyOf( shapes, Math.max( 2 * shapeCount, 16 ) );
+            shapes[shapeCount++] = shape;
+        }
+        
+        // draws slices of shapes into the (transparent) image until the
+        // deadline, but always at least one slice
+        protected void compute() {
+            if ( image == null )
+                image = new BufferedImage( bounds.width, bounds.height, BufferedImage.TYPE_INT_ARGB_PRE );
+            if ( cursor == shapeCount )
+                return;
+            
+            Graphics2D g2d = image.createGraphics();
+            g2d.translate( -bounds.x, -bounds.y );
+            g2d.scale( scale, scale );
+            do {
+                int end = Math.min( cursor + SLICE_SIZE, shapeCount );
+                ShapeBatcher.draw( g2d, store, shapes, cursor, end );
+                cursor = end;
+            } while ( cursor < shapeCount && System.nanoTime() < deadline );
+            g2d.dispose();
+        }
+    } // end inner class
+    
+    /*
+     * Forks one task per tile and waits for all of them to finish.
+     */
+    private static class TileBatch extends RecursiveAction {
+        private static final long serialVersionUID = 1L; // never serialized
+        private final List<Tile> tiles;
+        
+        private TileBatch( List<Tile> tiles ) {
+            this.tiles = tiles;
+        }
+        
+        protected void compute() {
+            invokeAll( tiles );
+        }
+    } // end inner class
+    
+    /**
+     * Constructor: rasterizes the shapes of the given store.
+     *
+     * @param store The completed shapes.
+     * @param index The index of the shapes in the store.
+     */
+    public TileRenderer( ShapeStore store, ShapeGrid index ) {
+        this.store = store;
+        this.index = index;
+    } // end constructor
+    
+    /**
+     * Starts a tile of the drawing at the given scale, by looking up the shapes
+     * that cover it. Nothing is drawn until it is passed to {@link #render}.
+     *
+     * @param bounds The region to rasterize, in pixels at the given scale
+     * (e.g. 0-255 covers 0-127 of the drawing at a scale of 2).
+     * @param scale The number of pixels per unit of the drawing.
+     * @return The tile.
+     */
+    public Tile createTile( Rectangle bounds, double scale ) {
+        return new Tile( bounds, scale, store, index.query( toDrawing( bounds, scale ) ) );
+    } // end method
+    
+    /**
+     * Continues to rasterize tiles until they are done or the deadline has
+     * passed. Pixels without any shape are transparent.
+     *
+     * @param tiles The tiles to draw.
+     * @param deadline The time (of {@link System#nanoTime}) to stop at, or
+     * Long.MAX_VALUE to finish every tile.
+     */
+    public void render( List<Tile> tiles, long deadline ) {
+        int shapesLeft = 0;
+        for ( Tile tile : tiles ) {
+            tile.deadline = deadline;
+            shapesLeft += tile.getShapeCount() - tile.getShapesDrawn();
+        }
+        
+        if ( tiles.size() == 1 || shapesLeft < PARALLEL_THRESHOLD ) {
+            for ( Tile tile : tiles )
+                tile.compute();
+        }
+        else {
+            getPool().invoke( new TileBatch( tiles ) );
+            
+            // the tasks are reused for the next slices
+            for ( Tile tile : tiles )
+                tile.reinitialize();
+        } // end if
+    } // end method
+    
+    /**
+     * Converts a region in pixels at some scale to the (slightly larger) region
+     * of the drawing that it shows.
+     *
+     * @param bounds The region, in pixels at the given scale.
+     * @param scale The number of pixels per unit of the drawing.
+     * @return The region of the drawing.
+     */
+    public static Rectangle toDrawing( Rectangle bounds, double scale ) {
+        int x = (int) Math.floor( bounds.x / scale );
+        int y = (int) Math.floor( bounds.y / scale );
+        int width = (int) Math.ceil( (bounds.x + bounds.width) / scale ) - x;
+        int height = (int) Math.ceil( (bounds.y + bounds.height) / scale ) - y;
+        return new Rectangle( x - 1, y - 1, width + 2, height + 2 );
+    } // end method
+    
+    /**
+     * Returns the pool that rasterizes tiles, creating it when first needed
+     * (one thread per processor).
+     *
+     * @return The fork/join pool.
+     */
+    private static synchronized ForkJoinPool getPool() {
+        if ( pool == null )
+            pool = new ForkJoinPool();
+        return pool;
+    } // end method
+} // end class
\ No newline at end of file
@@ -58,7 +58,13 @@ public class Toolbar extends JPanel {
     private JButton colour1Button;
     private JButton colour2Button;
     
-    // Gradient Options
+    // Layers
+    private JComboBox<String> layersComboBox;
+    private JButton newLayerButton;
+    private JCheckBox layerVisibleCheckBox;
+    private JLabel opacityLabel;
+    private JTextField opacityField;
+    private boolean updatingLayers; // the layer widgets are being refreshed
     
     // A master grouping of all JComponents to be placed in their respective
     // position on a JPanel (i.e. topPortion/bottomPortion)
@@ -66,12 +72,13 @@ public class Toolbar extends JPanel {
     private final JComponent bottomComponents[]; // NOPMD by edward on 31/05/12 7:37 PM
     
     // The String representation of the current shape to be drawn
-    private final String shapeArrayKey[] = { "Line", "Oval", "Rectangle", "Polygon" };
+    private final String shapeArrayKey[] = { "Line", "Oval", "Rectangle", "Polygon", "Pencil" };
     
     // The enum value of the current shape to be drawn
     private final DrawPanel.ShapeTypes shapeArrayValue[] = {
         DrawPanel.ShapeTypes.LINE, DrawPanel.ShapeTypes.OVAL,
-        DrawPanel.ShapeTypes.RECTANGLE, DrawPanel.ShapeTypes.POLYGON };
+        DrawPanel.ShapeTypes.RECTANGLE, DrawPanel.ShapeTypes.POLYGON,
+        DrawPanel.ShapeTypes.PENCIL };
     
     /**
      *
@@ -105,6 +112,13 @@ public class Toolbar extends JPanel {
         gradientCheckBox = new JCheckBox( "Gradient" );
         colour1Button = new JButton( "Colour 1" );
         colour2Button = new JButton( "Colour 2" );
+        // layers
+        layersComboBox = new JComboBox<String>();
+        layersComboBox.setPrototypeDisplayValue( "Layer 100" );
+        newLayerButton = new JButton( "New Layer" );
+        layerVisibleCheckBox = new JCheckBox( "Visible" );
+        opacityLabel = new JLabel( "Opacity %:" );
+        opacityField = new JTextField( "100", 4 );
         
         // set some initial values
         undoButton.setToolTipText( "Undo" );
@@ -118,13 +132,18 @@ public class Toolbar extends JPanel {
         gradientCheckBox.setToolTipText( "Allow Gradients");
         colour1Button.setToolTipText( "Primary Colour" );
         colour2Button.setToolTipText( "Secondary Colour" );
+        layersComboBox.setToolTipText( "Layer to Draw On" );
+        newLayerButton.setToolTipText( "Add a Layer on Top" );
+        layerVisibleCheckBox.setToolTipText( "Show or Hide the Layer" );
+        opacityField.setToolTipText( "Set Layer Opacity" );
         
         // set the placement order of each component
         topComponents = new JComponent[] { undoButton,
             redoButton, clearButton, shapesComboBox,
             filledCheckBox, strokeWidthLabel, strokeWidthField, };
         bottomComponents = new JComponent[] { styleCheckBox, styleLabel,
-            styleTextField, gradientCheckBox, colour1Button, colour2Button };
+            styleTextField, gradientCheckBox, colour1Button, colour2Button,
+            layersComboBox, newLayerButton, layerVisibleCheckBox, opacityLabel, opacityField };
         
         // add to the top of the toolbar, each component with a mouse handlers
         for ( JComponent component : topComponents ) {
@@ -191,7 +210,12 @@ public class Toolbar extends JPanel {
                     colour2Button.setForeground( invertColour( temp ) );
                 }
             }
-            
+            // add a layer, and draw on it
+            else if ( event.getSource() == newLayerButton ) {
+                drawPanel.addLayer( String.format( "Layer %d", drawPanel.getLayerCount() + 1 ) );
+                updateLayers();
+            }
+        
         } // end actionPerformed
     } // end inner-class ButtonHandler
     
@@ -204,6 +228,12 @@ public class Toolbar extends JPanel {
             // sets the shape based on what the user selected (if any)
             if ( event.getSource() == shapesComboBox ) {
                 drawPanel.setShapeType( shapeArrayValue[shapesComboBox.getSelectedIndex()] );
+            }
+            // draw on another layer
+            else if ( event.getSource() == layersComboBox && !updatingLayers &&
+                     event.getStateChange() == ItemEvent.SELECTED ) {
+                drawPanel.setCurrentLayer( layersComboBox.getSelectedIndex() );
+                updateLayers();
             } // end if
         }// end itemStateChanged
     } // end inner-class ComboBoxHandler
@@ -222,6 +252,8 @@ public class Toolbar extends JPanel {
                 drawPanel.setDashed( styleCheckBox.isSelected() );
             } else if ( event.getSource() == gradientCheckBox ) {
                 drawPanel.setGradient( gradientCheckBox.isSelected() );
+            } else if ( event.getSource() == layerVisibleCheckBox && !updatingLayers ) {
+                drawPanel.setLayerVisible( drawPanel.getCurrentLayer(), layerVisibleCheckBox.isSelected() );
             } // end if
         } // end itemStateChanged
     } // end inner-class CheckBoxHandler
@@ -248,8 +280,10 @@ public class Toolbar extends JPanel {
         public void mouseExited( MouseEvent event ) {
             strokeWidthField.setEditable( false );
             styleTextField.setEditable( false );
+            opacityField.setEditable( false );
             validateTextField( strokeWidthField );
             validateTextField( styleTextField );
+            validateOpacityField();
         } // end method
         
         /*
@@ -257,7 +291,7 @@ public class Toolbar extends JPanel {
          */
         public void mouseEntered( MouseEvent event ) {
             if ( event.getSource() == strokeWidthField ||
-                event.getSource() == styleTextField ) {
+                event.getSource() == styleTextField || event.getSource() == opacityField ) {
                 // highlights all text and allows editing
                 ((JTextField) event.getSource()).requestFocus();
                 ((JTextField) event.getSource()).setEditable( true );
@@ -276,6 +310,9 @@ public class Toolbar extends JPanel {
             if ( event.getSource() == strokeWidthField ||
                 event.getSource() == styleTextField) {
                 validateTextField( (JTextField) event.getSource() );
+            }
+            else if ( event.getSource() == opacityField ) {
+                validateOpacityField();
             } // end if
         } // end method
     } // end inner-class TextFieldHandler
@@ -299,6 +336,37 @@ public class Toolbar extends JPanel {
         colour1Button.setForeground( invertColour( colour1Button.getBackground() ) );
         colour2Button.setBackground( drawPanel.getShapeColour2() );
         colour2Button.setForeground( invertColour( colour2Button.getBackground() ) );
+        updateLayers();
+    } // end method
+    
+    /**
+     * Shows the layers of the DrawPanel, and the settings of its current layer.
+     */
+    private void updateLayers() {
+        updatingLayers = true;
+        layersComboBox.removeAllItems();
+        for ( int i = 0; i < drawPanel.getLayerCount(); i++ )
+            layersComboBox.addItem( drawPanel.getLayerName( i ) );
+        
+        int current = drawPanel.getCurrentLayer();
+        layersComboBox.setSelectedIndex( current );
+        layerVisibleCheckBox.setSelected( drawPanel.isLayerVisible( current ) );
+        opacityField.setText( String.format( "%d", Math.round( 100 * drawPanel.getLayerOpacity( current ) ) ) );
+        updatingLayers = false;
+    } // end method
+    
+    /**
+     * Validates the opacity (a whole percentage from 0 to 100), and sets it on
+     * the current layer.
+     */
+    private void validateOpacityField() {
+        String contents = opacityField.getText().replaceAll( "[^0-9]", "" );
+        int opacity = 100;
+        if ( contents.length() > 0 && contents.length() <= 3 )
+            opacity = Math.min( 100, Integer.parseInt( contents ) );
+        
+        opacityField.setText( String.format( "%d", opacity ) );
+        drawPanel.setLayerOpacity( drawPanel.getCurrentLayer(), opacity / 100f );
     } // end method
     
     /**
@@ -411,4 +479,4 @@ public class Toolbar extends JPanel {
         topPortion.remove( clearButton );
         validate();
     } // end method
-} // end class
+} // end class
\ No newline at end of file
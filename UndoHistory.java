@@ -0,0 +1,619 @@
+import java.awt.Rectangle;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * The undo and redo history of a layer, kept as a log of commands: each edit
+ * of the layer is recorded as a {@link Command} that knows how to revert
+ * itself, and reverting it gives the command that redoes it.
+ * <p>
+ * Consecutive commands of the same kind are coalesced into one entry (e.g. a
+ * run of shapes drawn one after the other is a single entry with a count),
+ * although they are still undone one step at a time. The history keeps the
+ * memory held by its entries under a budget: the shapes of the oldest entries
+ * (but never of the latest undo and redo) are written to a temporary file
+ * (see {@link UndoSpillFile}), in the form of {@link ShapeCodec}, and read
+ * back when the entry is undone or redone. Only if the file cannot be written
+ * are the oldest entries forgotten instead. The default budget is 64 MB per
+ * layer, and can be changed with <code>-Dpaint.undoMegabytes=256</code>.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class UndoHistory {
+    public static final long DEFAULT_BUDGET =
+        Integer.getInteger( "paint.undoMegabytes", 64 ) * 1024L * 1024L;
+    private static final long MIN_SPILL = 4096; // smaller commands stay in memory
+    private static final long SPILLED_MEMORY = 48; // left on the heap by a spilled command
+    
+    private ArrayDeque<Command> undoStack; // the latest edit first
+    private ArrayDeque<Command> redoStack; // the latest edit undone first
+    private long budget; // in bytes
+    private long memoryUsed;
+    private UndoSpillFile spillFile;
+    private boolean spillFailed; // the file could not be written; forget instead
+    
+    /*
+     * An edit of a layer that can be reverted. A command that is undone
+     * returns the command that redoes it, and the other way around.
+     */
+    abstract static class Command {
+        private final int group;
+        private long memory; // as last counted by the history
+        private long spillPosition = -1; // of the shapes in the spill file, or -1
+        private int spillLength;
+        
+        /*
+         * Constructor: the group ties commands of several layers that were
+         * made together (e.g. clearing the whole drawing); 0 for none.
+         */
+        protected Command( int group ) {
+            this.group = group;
+        }
+        
+        public int getGroup() {
+            return group;
+        }
+        
+        // reverts the command (or its last step), adding the region of the
+        // drawing that changed; returns the command that reverts that again
+        public abstract Command revert( Layer layer, Rectangle changed );
+        
+        // whether any step is left to revert
+        public abstract boolean hasSteps();
+        
+        // the heap (or direct) memory held by the command, in bytes
+        public abstract long getMemoryUsed();
+        
+        // adds the steps of a command made right after this one, if possible
+        public boolean coalesce( Command next ) {
+            return false;
+        }
+        
+        // writes the shapes held by the command; nothing by default
+        protected void writeShapes( DataOutputStream out ) throws IOException {
+        }
+        
+        // reads the shapes back, in place of those dropped
+        protected void readShapes( ByteBuffer in ) throws IOException {
+        }
+        
+        // drops the shapes, once they have been written
+        protected void dropShapes() {
+        }
+        
+        public boolean isSpilled() {
+            return spillPosition >= 0;
+        }
+    } // end inner class
+    
+    /*
+     * Shapes added one after the other on top of the layer. They are still in
+     * the layer, so only their handles are kept, as runs of consecutive
+     * handles (usually a single run); the last one added is removed first.
+     */
+    static class ShapesAdded extends Command {
+        private int[] runs = new int[2]; // first handle and length of each run
+        private int runCount;
+        
+        public ShapesAdded( int handle ) {
+            super( 0 );
+            add( handle );
+        }
+        
+        public Command revert( Layer layer, Rectangle changed ) {
+            int run = 2 * (runCount - 1);
+            int handle = runs[run] + --runs[run + 1];
+            if ( runs[run + 1] == 0 )
+                runCount--;
+            int order = layer.getShapeOrder( handle );
+            MyShape shape = layer.unstoreShape( handle );
+            changed.add( shape.getBounds() );
+            return new ShapesRemoved( handle, order, shape );
+        }
+        
+        public boolean hasSteps() {
+            return runCount > 0;
+        }
+        
+        public long getMemoryUsed() {
+            return 32 + 4L * runs.length;
+        }
+        
+        public boolean coalesce( Command next ) {
+            if ( !(next instanceof ShapesAdded) )
+                return false;
+            ShapesAdded added = (ShapesAdded) next;
+            for ( int run = 0; run < 2 * added.runCount; run += 2 ) {
+                for ( int i = 0; i < added.runs[run + 1]; i++ )
+                    add( added.runs[run] + i );
+            }
+            return true;
+        }
+        
+        // adds a handle after the others
+        private void add( int handle ) {
+            int run = 2 * (runCount - 1);
+            if ( runCount > 0 && runs[run] + runs[run + 1] == handle ) {
+                runs[run + 1]++;
+                return;
+            }
+            if ( 2 * runCount == runs.length )
+                runs = Arrays.copyOf( runs, 2 * runs.length );
+            runs[2 * runCount] = handle;
+            runs[2 * runCount + 1] = 1;
+            runCount++;
+        }
+    } // end inner class
+    
+    /*
+     * Shapes removed from the layer (by undoing them, or by the user), kept in
+     * the form of ShapeCodec one after the other with their handles and order
+     * keys; the last one removed is put back first, where it was. The bytes
+     * of a shape are much smaller than a store of its own.
+     */
+    static class ShapesRemoved extends Command {
+        private static final ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+        private byte[] data; // the shapes, the last one removed at the end
+        private int[] ends; // where the bytes of each shape end
+        private int[] handles;
+        private int[] orders;
+        private int count;
+        
+        public ShapesRemoved( int handle, int order, MyShape shape ) {
+            super( 0 );
+            data = new byte[64];
+            ends = new int[4];
+            handles = new int[4];
+            orders = new int[4];
+            try {
+                scratch.reset();
+                ShapeCodec.write( new DataOutputStream( scratch ), shape );
+            } catch ( IOException exception ) {
+                throw new IllegalStateException( exception ); // not thrown by a byte array
+            } // end try block
+            append( handle, order, scratch.toByteArray(), 0, scratch.size() );
+        }
+        
+        public Command revert( Layer layer, Rectangle changed ) {
+            int start = ( count > 1 ) ? ends[count - 2] : 0;
+            MyShape shape;
+            try {
+                shape = ShapeCodec.read( ByteBuffer.wrap( data, start, ends[count - 1] - start ),
+                                        null );
+            } catch ( IOException exception ) {
+                throw new IllegalStateException( exception ); // written by the constructor
+            } // end try block
+            count--;
+            int handle = layer.restoreShape( shape, handles[count], orders[count] );
+            changed.add( shape.getBounds() );
+            return new ShapesAdded( handle );
+        }
+        
+        public boolean hasSteps() {
+            return count > 0;
+        }
+        
+        public long getMemoryUsed() {
+            return 64 + data.length + 12L * ends.length;
+        }
+        
+        public boolean coalesce( Command next ) {
+            if ( !(next instanceof ShapesRemoved) )
+                return false;
+            ShapesRemoved removed = (ShapesRemoved) next;
+            int start = 0;
+            for ( int i = 0; i < removed.count; i++ ) {
+                append( removed.handles[i], removed.orders[i], removed.data, start,
+                       removed.ends[i] - start );
+                start = removed.ends[i];
+            } // end for
+            return true;
+        }
+        
+        // adds the bytes of a shape at the end
+        private void append( int handle, int order, byte[] bytes, int offset, int length ) {
+            int end = ( count > 0 ) ? ends[count - 1] : 0;
+            if ( end + length > data.length )
+                data = Arrays.copyOf( data, Math.max( 2 * data.length, end + length ) );
+            if ( count == ends.length ) {
+                ends = Arrays.copyOf( ends, 2 * count );
+                handles = Arrays.copyOf( handles, 2 * count );
+                orders = Arrays.copyOf( orders, 2 * count );
+            }
+            System.arraycopy( bytes, offset, data, end, length );
+            ends[count] = end + length;
+            handles[count] = handle;
+            orders[count] = order;
+            count++;
+        }
+        
+        protected void writeShapes( DataOutputStream out ) throws IOException {
+            ShapeCodec.writeVarInt( out, count );
+            for ( int i = 0; i < count; i++ ) {
+                ShapeCodec.writeVarInt( out, ends[i] );
+                ShapeCodec.writeVarInt( out, handles[i] );
+                ShapeCodec.writeVarInt( out, orders[i] );
+            }
+            out.write( data, 0, ends[count - 1] );
+        }
+        
+        protected void readShapes( ByteBuffer in ) throws IOException {
+            count = ShapeCodec.readVarInt( in );
+            ends = new int[Math.max( count, 4 )];
+            handles = new int[ends.length];
+            orders = new int[ends.length];
+            for ( int i = 0; i < count; i++ ) {
+                ends[i] = ShapeCodec.readVarInt( in );
+                handles[i] = ShapeCodec.readVarInt( in );
+                orders[i] = ShapeCodec.readVarInt( in );
+            }
+            data = new byte[Math.max( ends[count - 1], 64 )];
+            in.get( data, 0, ends[count - 1] );
+        }
+        
+        protected void dropShapes() {
+            data = null;
+            ends = null;
+            handles = null;
+            orders = null;
+        }
+    } // end inner class
+    
+    /*
+     * A shape brought to the front or sent to the back: its order key before.
+     */
+    static class ShapeMoved extends Command {
+        private final int handle;
+        private final int order;
+        private boolean reverted;
+        
+        public ShapeMoved( int handle, int order ) {
+            super( 0 );
+            this.handle = handle;
+            this.order = order;
+        }
+        
+        public Command revert( Layer layer, Rectangle changed ) {
+            int oldOrder = layer.getShapeOrder( handle );
+            changed.add( layer.setShapeOrder( handle, order ) );
+            reverted = true;
+            return new ShapeMoved( handle, oldOrder );
+        }
+        
+        public boolean hasSteps() {
+            return !reverted;
+        }
+        
+        public long getMemoryUsed() {
+            return 32;
+        }
+    } // end inner class
+    
+    /*
+     * The contents of a layer that were swapped out by a clear (or, once the
+     * clear is undone, the empty contents that it left). Reverting swaps them
+     * back, whatever their number of shapes.
+     */
+    static class LayerCleared extends Command {
+        private Layer.Contents contents;
+        
+        public LayerCleared( Layer.Contents contents, int group ) {
+            super( group );
+            this.contents = contents;
+        }
+        
+        public Command revert( Layer layer, Rectangle changed ) {
+            Layer.Contents swapped = contents;
+            contents = null;
+            changed.add( layer.swapContents( swapped ) );
+            return new LayerCleared( swapped, getGroup() );
+        }
+        
+        public boolean hasSteps() {
+            return contents != null;
+        }
+        
+        public long getMemoryUsed() {
+            return (contents == null) ? 0 : contents.getMemoryUsed();
+        }
+        
+        protected void writeShapes( DataOutputStream out ) throws IOException {
+            contents.write( out );
+        }
+        
+        protected void readShapes( ByteBuffer in ) throws IOException {
+            contents = Layer.Contents.read( in );
+        }
+        
+        protected void dropShapes() {
+            contents = null;
+        }
+    } // end inner class
+    
+    /**
+     * Constructor: an empty history with the default budget.
+     */
+    public UndoHistory() {
+        undoStack = new ArrayDeque<Command>();
+        redoStack = new ArrayDeque<Command>();
+        budget = DEFAULT_BUDGET;
+        spillFile = new UndoSpillFile();
+    } // end constructor
+    
+    /**
+     * Returns the memory held by the history.
+     *
+     * @return The number of bytes.
+     */
+    public long getMemoryUsed() {
+        return memoryUsed;
+    } // end accessor
+    
+    /**
+     * Returns the number of bytes written to the temporary file, including
+     * those of entries that have since been read back or forgotten (the file
+     * is emptied once no entry is left in it).
+     *
+     * @return The length of the file.
+     */
+    public long getSpilledBytes() {
+        return spillFile.getLength();
+    } // end accessor
+    
+    /**
+     * Returns whether there is an edit to undo.
+     *
+     * @return Whether undo is possible.
+     */
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    } // end accessor
+    
+    /**
+     * Returns whether there is an edit to redo.
+     *
+     * @return Whether redo is possible.
+     */
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    } // end accessor
+    
+    /**
+     * Returns the group of the next edit to undo.
+     *
+     * @return The group, or 0 if the edit has none (or there is no edit).
+     */
+    public int getUndoGroup() {
+        return undoStack.isEmpty() ? 0 : undoStack.peek().getGroup();
+    } // end accessor
+    
+    /**
+     * Returns the group of the next edit to redo.
+     *
+     * @return The group, or 0 if the edit has none (or there is no edit).
+     */
+    public int getRedoGroup() {
+        return redoStack.isEmpty() ? 0 : redoStack.peek().getGroup();
+    } // end accessor
+    
+    /**
+     * Mutator to set the memory that the history may hold, forgetting the
+     * oldest edits if needed.
+     *
+     * @param budget The number of bytes.
+     */
+    public void setBudget( long budget ) {
+        this.budget = budget;
+        trim();
+    } // end mutator
+    
+    /**
+     * Records an edit that has just been made. The edits that were undone can
+     * no longer be redone.
+     *
+     * @param command The command that undoes the edit.
+     */
+    public void record( Command command ) {
+        clearStack( redoStack );
+        push( undoStack, command );
+        trim();
+    } // end method
+    
+    /**
+     * Undoes (the last step of) the latest edit.
+     *
+     * @param layer The layer that the history belongs to.
+     * @return The region of the drawing that changed, or null if there was
+     * nothing to undo.
+     */
+    public Rectangle undo( Layer layer ) {
+        return revert( layer, undoStack, redoStack );
+    } // end method
+    
+    /**
+     * Redoes (the first step of) the latest edit undone.
+     *
+     * @param layer The layer that the history belongs to.
+     * @return The region of the drawing that changed, or null if there was
+     * nothing to redo.
+     */
+    public Rectangle redo( Layer layer ) {
+        return revert( layer, redoStack, undoStack );
+    } // end method
+    
+    /**
+     * Forgets the edits that were undone, e.g. once an edit of another layer
+     * means that they can no longer be redone.
+     */
+    public void forgetRedo() {
+        clearStack( redoStack );
+    } // end method
+    
+    /**
+     * Forgets every edit, and deletes the temporary file.
+     */
+    public void makeEmpty() {
+        clearStack( undoStack );
+        clearStack( redoStack );
+        spillFile.delete();
+        spillFailed = false;
+    } // end method
+    
+    /**
+     * Reverts the top command of one stack and pushes its inverse on the other.
+     *
+     * @param layer The layer that the history belongs to.
+     * @param from The stack to revert from.
+     * @param to The stack that receives the inverse.
+     * @return The region of the drawing that changed, or null.
+     */
+    private Rectangle revert( Layer layer, ArrayDeque<Command> from, ArrayDeque<Command> to ) {
+        if ( from.isEmpty() )
+            return null;
+        
+        Rectangle changed = new Rectangle( 0, 0, -1, -1 ); // nothing yet
+        Command command = from.peek();
+        if ( command.isSpilled() && !pageIn( command ) ) {
+            // the shapes are lost, and so is every older edit
+            clearStack( from );
+            return null;
+        }
+        Command inverse = command.revert( layer, changed );
+        if ( command.hasSteps() ) {
+            count( command );
+        }
+        else {
+            from.pop();
+            memoryUsed -= command.memory;
+        } // end if
+        push( to, inverse );
+        trim();
+        return changed;
+    } // end method
+    
+    /**
+     * Pushes a command on a stack, or coalesces it with the top command.
+     *
+     * @param stack The stack.
+     * @param command The command.
+     */
+    private void push( ArrayDeque<Command> stack, Command command ) {
+        Command top = stack.peek();
+        if ( top != null && !top.isSpilled() && top.getGroup() == command.getGroup() &&
+            top.coalesce( command ) ) {
+            count( top );
+        }
+        else {
+            stack.push( command );
+            command.memory = 0;
+            count( command );
+        } // end if
+    } // end method
+    
+    /**
+     * Counts the memory of a command again, after it has changed.
+     *
+     * @param command A command in one of the stacks.
+     */
+    private void count( Command command ) {
+        memoryUsed -= command.memory;
+        command.memory = command.isSpilled() ? SPILLED_MEMORY : command.getMemoryUsed();
+        memoryUsed += command.memory;
+    } // end method
+    
+    /**
+     * Writes the shapes of the oldest edits (to undo, then to redo) to the
+     * temporary file until the history fits its budget, but keeps the latest
+     * edit of each stack in memory. If the file cannot be written, forgets the
+     * oldest edits instead.
+     */
+    private void trim() {
+        spill( undoStack );
+        spill( redoStack );
+        if ( !spillFailed )
+            return;
+        while ( memoryUsed > budget && undoStack.size() > 1 )
+            forget( undoStack.removeLast() );
+        while ( memoryUsed > budget && redoStack.size() > 1 )
+            forget( redoStack.removeLast() );
+    } // end method
+    
+    /**
+     * Writes the shapes of the oldest commands of a stack to the temporary
+     * file, until the history fits its budget.
+     *
+     * @param stack The stack.
+     */
+    private void spill( ArrayDeque<Command> stack ) {
+        Iterator<Command> commands = stack.descendingIterator(); // the oldest first
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        
+        while ( memoryUsed > budget && !spillFailed && commands.hasNext() ) {
+            Command command = commands.next();
+            if ( command == stack.peek() )
+                return; // the latest edit stays in memory
+            if ( command.isSpilled() || command.memory < MIN_SPILL )
+                continue;
+            
+            try {
+                bytes.reset();
+                DataOutputStream out = new DataOutputStream( bytes );
+                command.writeShapes( out );
+                out.flush();
+                command.spillPosition = spillFile.write( bytes.toByteArray(), bytes.size() );
+                command.spillLength = bytes.size();
+                command.dropShapes();
+                count( command );
+            } catch ( IOException exception ) {
+                System.err.println( "Cannot write the undo history to disk: " + exception );
+                spillFailed = true;
+            } // end try block
+        } // end while
+    } // end method
+    
+    /**
+     * Reads the shapes of a spilled command back from the temporary file.
+     *
+     * @param command The command.
+     * @return Whether the shapes could be read.
+     */
+    private boolean pageIn( Command command ) {
+        try {
+            byte[] data = spillFile.read( command.spillPosition, command.spillLength );
+            command.spillPosition = -1;
+            command.readShapes( ByteBuffer.wrap( data ) );
+            count( command );
+            return true;
+        } catch ( IOException exception ) {
+            System.err.println( "Cannot read the undo history from disk: " + exception );
+            return false;
+        } // end try block
+    } // end method
+    
+    /**
+     * Forgets a command that has been taken out of its stack.
+     *
+     * @param command The command.
+     */
+    private void forget( Command command ) {
+        memoryUsed -= command.memory;
+        if ( command.isSpilled() )
+            spillFile.release();
+    } // end method
+    
+    /**
+     * Forgets every command of a stack.
+     *
+     * @param stack The stack.
+     */
+    private void clearStack( ArrayDeque<Command> stack ) {
+        while ( !stack.isEmpty() )
+            forget( stack.pop() );
+    } // end method
+} // end class
\ No newline at end of file
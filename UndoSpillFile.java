@@ -0,0 +1,107 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A temporary file that an {@link UndoHistory} writes the shapes of its older
+ * entries to, so that they do not have to stay on the heap. Records are only
+ * appended, and read back by their position; the file is emptied once no
+ * entry needs it any more, and deleted when the program exits.
+ *
+ * @author Edward Vuong
+ * @version May 31, 2012
+ */
+class UndoSpillFile {
+    private File file;
+    private FileChannel channel; // opened on the first write
+    private long length; // bytes written since the file was last emptied
+    private int recordCount; // records that are still needed
+    
+    /**
+     * Returns the number of bytes written to the file (including those of
+     * records that are no longer needed).
+     *
+     * @return The length of the file.
+     */
+    public long getLength() {
+        return length;
+    } // end accessor
+    
+    /**
+     * Appends a record to the file.
+     *
+     * @param data The bytes of the record.
+     * @param count The number of bytes.
+     * @return The position of the record.
+     * @throws IOException If the file cannot be created or written.
+     */
+    public long write( byte[] data, int count ) throws IOException {
+        if ( channel == null ) {
+            file = File.createTempFile( "paint-undo", ".tmp" );
+            file.deleteOnExit();
+            channel = new RandomAccessFile( file, "rw" ).getChannel();
+        }
+        
+        long position = length;
+        ByteBuffer buffer = ByteBuffer.wrap( data, 0, count );
+        while ( buffer.hasRemaining() )
+            channel.write( buffer, position + buffer.position() );
+        length += count;
+        recordCount++;
+        return position;
+    } // end method
+    
+    /**
+     * Reads a record back. The record is no longer needed afterwards.
+     *
+     * @param position The position of the record.
+     * @param count The number of bytes of the record.
+     * @return The bytes of the record.
+     * @throws IOException If the file cannot be read.
+     */
+    public byte[] read( long position, int count ) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate( count );
+        while ( buffer.hasRemaining() ) {
+            if ( channel.read( buffer, position + buffer.position() ) < 0 )
+                throw new IOException( "undo file is shorter than expected" );
+        }
+        release();
+        return buffer.array();
+    } // end method
+    
+    /**
+     * Notes that a record will not be read (e.g. because its entry was
+     * forgotten). The file is emptied when no record is needed.
+     */
+    public void release() {
+        recordCount--;
+        if ( recordCount == 0 && channel != null ) {
+            try {
+                channel.truncate( 0 );
+            } catch ( IOException exception ) {
+                // the space is used again from the start anyway
+            } // end try block
+            length = 0;
+        } // end if
+    } // end method
+    
+    /**
+     * Closes and deletes the file. It is created again by the next write.
+     */
+    public void delete() {
+        if ( channel != null ) {
+            try {
+                channel.close();
+            } catch ( IOException exception ) {
+                // nothing more can be done with it
+            } // end try block
+            file.delete();
+        } // end if
+        channel = null;
+        file = null;
+        length = 0;
+        recordCount = 0;
+    } // end method
+} // end class
\ No newline at end of file